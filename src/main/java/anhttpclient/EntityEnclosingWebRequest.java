@@ -22,12 +22,14 @@
 
 package anhttpclient;
 
+import org.apache.http.HttpEntity;
 import org.apache.http.entity.mime.content.ContentBody;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Map;
 
 /**
@@ -180,7 +182,7 @@ public interface EntityEnclosingWebRequest extends WebRequest {
      * when web browser will execute this web request.</p><br />
      *
      * <p><b>NOTE:</b> request can sent either multipart data
-     * see {@link #addPart} or form params.</p>
+     * see {@link #addPart}, form params or raw body see {@link #setBody}.</p>
      *
      * <p>It depends on method from which group was called last time before
      * sending request</p>
@@ -221,6 +223,87 @@ public interface EntityEnclosingWebRequest extends WebRequest {
      */
     public void addFormParam(String name, String value, String charset);
 
+    /**
+     * <p>Set content of {@code body} parameter as raw request body.</p>
+     * <p>Please see note for {@link #getFormParams}</p>
+     *
+     * @param body bytes of request body
+     * @param mimeType MIME type of the body. By default {@code application/octet-stream} will be used
+     */
+    public void setBody(byte[] body, String mimeType);
+
+    /**
+     * <p>Set remaining bytes of {@code body} parameter as raw request body.
+     * Buffer position is not changed, so request could be sent several times.</p>
+     * <p>Please see note for {@link #getFormParams}</p>
+     *
+     * @param body buffer with request body
+     * @param mimeType MIME type of the body. By default {@code application/octet-stream} will be used
+     */
+    public void setBody(ByteBuffer body, String mimeType);
+
+    /**
+     * <p>Set content of {@code file} parameter as raw request body.
+     * File is not read into memory but transferred directly while request is sent.</p>
+     * <p>Please see note for {@link #getFormParams}</p>
+     *
+     * @param file file which content will be sent
+     * @param mimeType MIME type of the body. By default {@code application/octet-stream} will be used
+     * @throws FileNotFoundException if file can not be found
+     */
+    public void setBody(File file, String mimeType) throws IOException;
+
+    /**
+     * <p>Set region of the {@code file} parameter as raw request body.
+     * Region is not read into memory but transferred directly while request is sent.</p>
+     * <p>Please see note for {@link #getFormParams}</p>
+     *
+     * @param file file which region will be sent
+     * @param offset position of the first byte of region
+     * @param length count of bytes in region
+     * @param mimeType MIME type of the body. By default {@code application/octet-stream} will be used
+     * @throws FileNotFoundException if file can not be found
+     */
+    public void setBody(File file, long offset, long length, String mimeType) throws IOException;
+
+    /**
+     * <p>Set content of {@code inputStream} parameter as raw request body.
+     * Stream is read only while request is sent, so such request could not be retried.</p>
+     * <p>Please see note for {@link #getFormParams}</p>
+     *
+     * @param inputStream stream with request body
+     * @param length count of bytes in stream. If it is negative then length is considered as unknown
+     * and body will be sent using chunked transfer encoding
+     * @param mimeType MIME type of the body. By default {@code application/octet-stream} will be used
+     */
+    public void setBody(InputStream inputStream, long length, String mimeType);
+
+    /**
+     * Returns raw body of this request
+     *
+     * @return {@link HttpEntity} with raw request body or {@code null} if it was not set
+     */
+    public HttpEntity getBody();
+
+    /**
+     * <p>Enables gzip compression of request body.</p>
+     * <p>Body which length is not less than {@code threshold} bytes
+     * or which length is unknown will be compressed while it is sent
+     * and {@code Content-Encoding: gzip} header will be added to request.
+     * Server should support compressed request bodies.</p>
+     *
+     * @param threshold minimal length of body in bytes which should be compressed,
+     * negative value disables compression. Compression is disabled by default
+     */
+    public void setCompressionThreshold(long threshold);
+
+    /**
+     * Returns minimal length of body which will be compressed, see {@link #setCompressionThreshold}
+     *
+     * @return minimal length of body in bytes which will be compressed or negative value if compression is disabled
+     */
+    public long getCompressionThreshold();
+
     /**
      * Returns charset of form parameters.
      * Willretun {@code UTF-8} if not set.
@@ -39,6 +39,11 @@ public final class HttpConstants {
      */
     public static final String REFERER_HEADER = "Referer";
 
+    /**
+     * HTTP response header which indicates how long client should wait before retrying request
+     */
+    public static final String RETRY_AFTER_HEADER = "Retry-After";
+
     /**
      * HTTP Request body parameter which indicates type of data in request body
      */
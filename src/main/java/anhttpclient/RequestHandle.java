@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpclient;
+
+/**
+ * Handle of request which is being executed by {@link WebBrowser}.
+ * Allows to abort request from any thread.
+ *
+ * @author Sergey Prilukin
+ */
+public interface RequestHandle {
+
+    /**
+     * Return url of request
+     *
+     * @return url of request
+     */
+    public String getUrl();
+
+    /**
+     * Return host of request
+     *
+     * @return host name
+     */
+    public String getHost();
+
+    /**
+     * Return method of request
+     *
+     * @return method of request
+     */
+    public RequestMethod getRequestMethod();
+
+    /**
+     * Return thread which executes request
+     *
+     * @return thread which called {@link WebBrowser#getResponse}
+     */
+    public Thread getThread();
+
+    /**
+     * Return time when execution of request started
+     *
+     * @return time in milliseconds
+     */
+    public long getStartTime();
+
+    /**
+     * Return if request was aborted
+     *
+     * @return {@code true} if request was aborted
+     */
+    public boolean isAborted();
+
+    /**
+     * Aborts request. Connections used by request are closed and
+     * {@link WebBrowser#getResponse} throws {@link java.io.InterruptedIOException}.
+     * Request is not retried after abort.
+     */
+    public void abort();
+}
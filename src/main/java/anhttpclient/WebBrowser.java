@@ -173,6 +173,59 @@ public interface WebBrowser {
      */
     public void setConnectionTimeout(Integer connectionTimeout);
 
+    /**
+     * Return total time which web browser spends on request, see {@link #setRequestTimeout}
+     *
+     * @return time in milliseconds or {@code 0} if time of request is not limited
+     */
+    public Integer getRequestTimeout();
+
+    /**
+     * Set total time which web browser spends on request including waiting for connection,
+     * connecting, all retries and reading of response body. If request is not completed
+     * during this time it is aborted and {@link anhttpclient.impl.RequestTimeoutException} is thrown.
+     * Could be overridden for particular request by {@link WebRequest#setRequestTimeout}
+     *
+     * @param requestTimeout time in milliseconds or {@code 0} to not limit time of request
+     */
+    public void setRequestTimeout(Integer requestTimeout);
+
+    /**
+     * Return minimal length of request body for which {@code Expect: 100-continue}
+     * handshake is used, see {@link #setExpectContinueThreshold}
+     *
+     * @return minimal length of request body in bytes or negative value if handshake is disabled
+     */
+    public Long getExpectContinueThreshold();
+
+    /**
+     * Enables {@code Expect: 100-continue} handshake for requests with body
+     * which length is not less than {@code expectContinueThreshold} or is unknown.
+     * Body of such requests is sent only after server responds with {@code 100 Continue},
+     * so it is not sent at all if server rejects request by its headers.
+     * Handshake is disabled by default
+     *
+     * @param expectContinueThreshold minimal length of request body in bytes,
+     * negative value disables handshake
+     */
+    public void setExpectContinueThreshold(Long expectContinueThreshold);
+
+    /**
+     * Return time which web browser will wait for {@code 100 Continue} response
+     *
+     * @return time in milliseconds which web browser will wait for {@code 100 Continue} response
+     */
+    public Integer getExpectContinueTimeout();
+
+    /**
+     * Set time which web browser will wait for {@code 100 Continue} response.
+     * Body will be sent anyway if server did not respond during this time
+     *
+     * @param expectContinueTimeout time in milliseconds which web browser
+     * will wait for {@code 100 Continue} response
+     */
+    public void setExpectContinueTimeout(Integer expectContinueTimeout);
+
     /**
      * Return list of cookies which are will be sent with every http request
      *
@@ -225,7 +278,27 @@ public interface WebBrowser {
 
     /**
      * used to abort http request for current thread;
+     * to abort particular request from another thread use {@link WebRequest#getHandle}
      */
     public void abort();
 
+    /**
+     * Return handles of requests which are being executed by this web browser
+     *
+     * @return list of handles of active requests
+     */
+    public List<RequestHandle> getActiveRequests();
+
+    /**
+     * Aborts all requests which are being executed by this web browser
+     */
+    public void abortAll();
+
+    /**
+     * Aborts all requests to passed host which are being executed by this web browser
+     *
+     * @param host host name
+     */
+    public void abortAll(String host);
+
 }
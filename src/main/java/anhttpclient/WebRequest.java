@@ -23,6 +23,7 @@
 package anhttpclient;
 
 import java.net.MalformedURLException;
+import java.net.URI;
 import java.util.Map;
 
 /**
@@ -40,6 +41,15 @@ public interface WebRequest {
 
     public void setUrl(String url);
 
+    /**
+     * Return url of http request as {@link URI}
+     * including all request params which were added to this request
+     *
+     * @return {@link URI} of http request
+     * @throws IllegalArgumentException if url of this request has malformed syntax
+     */
+    public URI getURI();
+
     /**
      * Add http headers which will be sent with this and only
      * this web request. This headers will be added to
@@ -120,4 +130,46 @@ public interface WebRequest {
      * @return method of this web request
      */
     public RequestMethod getRequestMethod();
+
+    /**
+     * Return total time which web browser spends on this request
+     *
+     * @return time in milliseconds, {@code 0} if time is not limited
+     * or {@code null} if time is defined by web browser
+     */
+    public Integer getRequestTimeout();
+
+    /**
+     * Set total time which web browser spends on this request,
+     * see {@link WebBrowser#setRequestTimeout}
+     *
+     * @param requestTimeout time in milliseconds, {@code 0} to not limit time
+     * or {@code null} to use time defined by web browser
+     */
+    public void setRequestTimeout(Integer requestTimeout);
+
+    /**
+     * Return priority of this request
+     *
+     * @return priority or {@code null} if default priority is used
+     */
+    public Integer getPriority();
+
+    /**
+     * Set priority of this request. If web browser uses
+     * {@link anhttpclient.impl.policy.RequestScheduler} requests with
+     * higher priority are sent first.
+     *
+     * @param priority priority, higher value means more important request,
+     * or {@code null} to use {@link anhttpclient.impl.WebBrowserConstants#DEFAULT_PRIORITY}
+     */
+    public void setPriority(Integer priority);
+
+    /**
+     * Return handle of this request. Handle could be passed to another thread
+     * before or while request is sent, so that thread could abort exactly this request.
+     *
+     * @return handle of this request
+     */
+    public RequestHandle getHandle();
 }
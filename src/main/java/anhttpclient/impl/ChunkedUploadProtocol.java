@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpclient.impl;
+
+import anhttpclient.EntityEnclosingWebRequest;
+import anhttpclient.WebRequest;
+import anhttpclient.WebResponse;
+import anhttpclient.impl.request.HttpPutWebRequest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Describes how chunks of a file are uploaded to server by {@link ParallelUploader}
+ * and how upload is completed. By default every chunk is sent as HTTP PUT request
+ * with {@code Content-Range} header to the url returned by {@link #getChunkUrl}.
+ *
+ * @author Sergey Prilukin
+ */
+public abstract class ChunkedUploadProtocol {
+
+    /**
+     * HTTP header which indicates which part of the whole content is sent in request body
+     */
+    public static final String CONTENT_RANGE_HEADER = "Content-Range";
+
+    /**
+     * Return url where chunk should be uploaded
+     *
+     * @param chunkIndex zero-based index of the chunk
+     * @param offset position of the first byte of the chunk in file
+     * @param length count of bytes in the chunk
+     * @param totalLength length of the whole file
+     * @return url of the chunk upload request
+     */
+    public abstract String getChunkUrl(int chunkIndex, long offset, long length, long totalLength);
+
+    /**
+     * Return request which will be sent after all chunks are uploaded
+     *
+     * @param chunkResponses responses of chunk requests in order of chunks
+     * @return request which completes upload or {@code null} if upload should not be completed explicitly
+     */
+    public abstract WebRequest createCompletionRequest(List<WebResponse> chunkResponses);
+
+    /**
+     * Creates request which uploads chunk of the file.
+     * Called again for every retry of the chunk.
+     *
+     * @param file file which is uploaded
+     * @param chunkIndex zero-based index of the chunk
+     * @param offset position of the first byte of the chunk in file
+     * @param length count of bytes in the chunk
+     * @param totalLength length of the whole file
+     * @return request which uploads chunk
+     * @throws IOException if file can not be read
+     */
+    public EntityEnclosingWebRequest createChunkRequest(
+            File file, int chunkIndex, long offset, long length, long totalLength) throws IOException {
+
+        EntityEnclosingWebRequest request = new HttpPutWebRequest(getChunkUrl(chunkIndex, offset, length, totalLength));
+        request.setBody(file, offset, length, null);
+        if (length > 0) {
+            request.addHeader(CONTENT_RANGE_HEADER,
+                    String.format("bytes %d-%d/%d", offset, offset + length - 1, totalLength));
+        }
+
+        return request;
+    }
+
+    /**
+     * Checks whether chunk was uploaded successfully.
+     * By default all {@code 2xx} responses are considered successful
+     *
+     * @param chunkIndex zero-based index of the chunk
+     * @param response response of chunk upload request
+     * @return {@code true} if chunk was uploaded and {@code false} if it should be retried
+     */
+    public boolean isChunkUploaded(int chunkIndex, WebResponse response) {
+        return response.getResponseCode() >= 200 && response.getResponseCode() < 300;
+    }
+}
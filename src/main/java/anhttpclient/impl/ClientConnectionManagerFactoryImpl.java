@@ -22,8 +22,16 @@
 
 package anhttpclient.impl;
 
+import anhttpclient.impl.conn.DnsResolver;
+import anhttpclient.impl.conn.ConfigurablePlainSocketFactory;
+import anhttpclient.impl.conn.DnsResolvingConnectionOperator;
+import anhttpclient.impl.conn.SocketOptionsProfile;
+import anhttpclient.impl.conn.TlsContext;
+import anhttpclient.impl.conn.UnixSocketRoutes;
 import org.apache.http.conn.ClientConnectionManager;
 import org.apache.http.conn.ClientConnectionManagerFactory;
+import org.apache.http.conn.ClientConnectionOperator;
+import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
 import org.apache.http.impl.conn.SingleClientConnManager;
 import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
@@ -42,15 +50,133 @@ public final class ClientConnectionManagerFactoryImpl implements ClientConnectio
      */
     public static final String THREAD_SAFE_CONNECTION_MANAGER = "thread.safe.connection.manager";
 
+    /**
+     * Name of the property in {@link org.apache.http.params.HttpParams}
+     * Which will be used to determine maximal number of connections in pool of thread-safe connection manager
+     */
+    public static final String MAX_TOTAL_CONNECTIONS = "max.total.connections";
+
+    /**
+     * Name of the property in {@link org.apache.http.params.HttpParams}
+     * Which will be used to determine maximal number of connections to one host
+     * in pool of thread-safe connection manager
+     */
+    public static final String MAX_CONNECTIONS_PER_ROUTE = "max.connections.per.route";
+
+    /**
+     * Name of the property in {@link org.apache.http.params.HttpParams}
+     * Which will be used to determine {@link DnsResolver} of connection manager
+     */
+    public static final String DNS_RESOLVER = "dns.resolver";
+
+    /**
+     * Name of the property in {@link org.apache.http.params.HttpParams}
+     * Which will be used to determine {@link TlsContext} of {@code https} connections
+     */
+    public static final String TLS_CONTEXT = "tls.context";
+
+    /**
+     * Name of the property in {@link org.apache.http.params.HttpParams}
+     * Which will be used to determine {@link SocketOptionsProfile} of connection manager
+     */
+    public static final String SOCKET_OPTIONS_PROFILE = "socket.options.profile";
+
+    /**
+     * Name of the property in {@link org.apache.http.params.HttpParams}
+     * Which will be used to determine {@link UnixSocketRoutes} of connection manager
+     */
+    public static final String UNIX_SOCKET_ROUTES = "unix.socket.routes";
+
+    /**
+     * Name and default port of plain scheme
+     */
+    public static final String HTTP_SCHEME = "http";
+    public static final int HTTP_PORT = 80;
+
+    /**
+     * Name and default port of secure scheme
+     */
+    public static final String HTTPS_SCHEME = "https";
+    public static final int HTTPS_PORT = 443;
+
     /**
      * {@inheritDoc}
      */
     public ClientConnectionManager newInstance(HttpParams params, SchemeRegistry schemeRegistry) {
         if (params != null) {
             boolean threadSafe = params.getBooleanParameter(THREAD_SAFE_CONNECTION_MANAGER, false);
-            return threadSafe ? new ThreadSafeClientConnManager(schemeRegistry) : new SingleClientConnManager(schemeRegistry);
+            TlsContext tlsContext = (TlsContext) params.getParameter(TLS_CONTEXT);
+            //Plain sockets support socket options and unix domain sockets
+            schemeRegistry.register(new Scheme(HTTP_SCHEME, HTTP_PORT, new ConfigurablePlainSocketFactory()));
+            if (tlsContext != null) {
+                schemeRegistry.register(new Scheme(HTTPS_SCHEME, HTTPS_PORT, tlsContext.getSocketFactory()));
+            }
+
+            if (!threadSafe) {
+                return new DnsResolvingSingleClientConnManager(schemeRegistry, params);
+            }
+
+            return newThreadSafeConnManager(params, schemeRegistry);
         }
 
         return new SingleClientConnManager(schemeRegistry);
     }
+
+    private ClientConnectionManager newThreadSafeConnManager(HttpParams params,
+            SchemeRegistry schemeRegistry) {
+        ThreadSafeClientConnManager connManager = new DnsResolvingThreadSafeClientConnManager(schemeRegistry, params);
+
+        int maxTotal = params.getIntParameter(MAX_TOTAL_CONNECTIONS, 0);
+        if (maxTotal > 0) {
+            connManager.setMaxTotal(maxTotal);
+        }
+
+        int maxPerRoute = params.getIntParameter(MAX_CONNECTIONS_PER_ROUTE, 0);
+        if (maxPerRoute > 0) {
+            connManager.setDefaultMaxPerRoute(maxPerRoute);
+        }
+
+        return connManager;
+    }
+
+    private static void configureOperator(DnsResolvingConnectionOperator operator, HttpParams params) {
+        DnsResolver dnsResolver = (DnsResolver) params.getParameter(DNS_RESOLVER);
+        if (dnsResolver != null) {
+            operator.setDnsResolver(dnsResolver);
+        }
+
+        SocketOptionsProfile socketOptionsProfile = (SocketOptionsProfile) params.getParameter(SOCKET_OPTIONS_PROFILE);
+        if (socketOptionsProfile != null) {
+            operator.setSocketOptionsProfile(socketOptionsProfile);
+        }
+
+        UnixSocketRoutes unixSocketRoutes = (UnixSocketRoutes) params.getParameter(UNIX_SOCKET_ROUTES);
+        if (unixSocketRoutes != null) {
+            operator.setUnixSocketRoutes(unixSocketRoutes);
+        }
+    }
+
+    private static final class DnsResolvingSingleClientConnManager extends SingleClientConnManager {
+        DnsResolvingSingleClientConnManager(SchemeRegistry schemeRegistry, HttpParams params) {
+            super(schemeRegistry);
+            configureOperator((DnsResolvingConnectionOperator) connOperator, params);
+        }
+
+        @Override
+        protected ClientConnectionOperator createConnectionOperator(SchemeRegistry schemeRegistry) {
+            return new DnsResolvingConnectionOperator(schemeRegistry);
+        }
+    }
+
+    private static final class DnsResolvingThreadSafeClientConnManager extends ThreadSafeClientConnManager {
+        DnsResolvingThreadSafeClientConnManager(SchemeRegistry schemeRegistry, HttpParams params) {
+            super(schemeRegistry);
+            configureOperator((DnsResolvingConnectionOperator) connOperator, params);
+        }
+
+        @Override
+        protected ClientConnectionOperator createConnectionOperator(SchemeRegistry schemeRegistry) {
+            return new DnsResolvingConnectionOperator(schemeRegistry);
+        }
+    }
 }
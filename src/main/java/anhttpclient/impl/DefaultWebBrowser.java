@@ -23,11 +23,36 @@
 package anhttpclient.impl;
 
 import anhttpclient.HttpConstants;
+import anhttpclient.RequestHandle;
+import anhttpclient.RequestMethod;
 import anhttpclient.WebBrowser;
 import anhttpclient.WebRequest;
 import anhttpclient.WebResponse;
 import anhttpclient.EntityEnclosingWebRequest;
+import anhttpclient.impl.conn.DnsResolver;
+import anhttpclient.impl.conn.EndpointRoutePlanner;
+import anhttpclient.impl.conn.SocketOptions;
+import anhttpclient.impl.conn.SocketOptionsProfile;
+import anhttpclient.impl.conn.SystemDnsResolver;
+import anhttpclient.impl.conn.TlsContext;
+import anhttpclient.impl.conn.UnixSocketRoutes;
+import anhttpclient.impl.cookie.ConcurrentCookieStore;
+import anhttpclient.impl.entity.FormEncodedEntity;
+import anhttpclient.impl.entity.GzipCompressingEntity;
+import anhttpclient.impl.entity.MultipartFormEntity;
+import anhttpclient.impl.policy.CircuitBreaker;
+import anhttpclient.impl.policy.CircuitBreakerOpenException;
+import anhttpclient.impl.policy.ConcurrencyLimitExceededException;
+import anhttpclient.impl.policy.ConcurrencyLimiter;
+import anhttpclient.impl.policy.EndpointGroup;
+import anhttpclient.impl.policy.HedgingPolicy;
+import anhttpclient.impl.policy.RateLimitExceededException;
+import anhttpclient.impl.policy.RateLimiter;
+import anhttpclient.impl.policy.RequestScheduler;
+import anhttpclient.impl.policy.RetryPolicy;
 import anhttpclient.impl.request.HttpGetWebRequest;
+import anhttpclient.impl.request.WebRequestHandle;
+import anhttpclient.impl.request.WebRequestTemplate;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.http.Header;
@@ -38,10 +63,8 @@ import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpResponseInterceptor;
 import org.apache.http.HttpVersion;
-import org.apache.http.NameValuePair;
 import org.apache.http.client.CookieStore;
 import org.apache.http.client.HttpClient;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpGet;
@@ -55,18 +78,22 @@ import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.params.ClientPNames;
 import org.apache.http.client.params.CookiePolicy;
 import org.apache.http.client.protocol.ClientContext;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
 import org.apache.http.conn.params.ConnRoutePNames;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.cookie.Cookie;
 import org.apache.http.cookie.params.CookieSpecPNames;
 import org.apache.http.entity.HttpEntityWrapper;
-import org.apache.http.entity.mime.MultipartEntity;
 import org.apache.http.entity.mime.content.ContentBody;
+import org.apache.http.entity.mime.content.InputStreamBody;
 import org.apache.http.impl.client.AbstractHttpClient;
-import org.apache.http.impl.client.BasicCookieStore;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.impl.cookie.BasicClientCookie;
-import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.CoreConnectionPNames;
 import org.apache.http.params.CoreProtocolPNames;
@@ -77,13 +104,39 @@ import org.apache.http.protocol.HttpContext;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
+import java.io.InterruptedIOException;
+import java.lang.ref.WeakReference;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.zip.GZIPInputStream;
 
 /**
@@ -100,11 +153,27 @@ public class DefaultWebBrowser implements WebBrowser {
     public static final Log log = LogFactory.getLog(DefaultWebBrowser.class);
 
     protected HttpClient httpClient;
-    protected CookieStore cookieStore = new BasicCookieStore();
+    protected CookieStore cookieStore = new ConcurrentCookieStore();
     protected Map<String, String> defaultHeaders = new HashMap<String, String>();
     protected int retryCount = WebBrowserConstants.DEFAULT_RETRY_COUNT;
     protected int socketTimeout = WebBrowserConstants.DEFAULT_SOCKET_TIMEOUT;
     protected int connectionTimeout = WebBrowserConstants.DEFAULT_CONNECTION_TIMEOUT;
+    protected int requestTimeout = WebBrowserConstants.DEFAULT_REQUEST_TIMEOUT;
+    protected int maxConnections = WebBrowserConstants.DEFAULT_MAX_CONNECTIONS;
+    protected int maxConnectionsPerHost = WebBrowserConstants.DEFAULT_MAX_CONNECTIONS_PER_HOST;
+    protected long expectContinueThreshold = WebBrowserConstants.DEFAULT_EXPECT_CONTINUE_THRESHOLD;
+    protected int expectContinueTimeout = WebBrowserConstants.DEFAULT_EXPECT_CONTINUE_TIMEOUT;
+    protected RetryPolicy retryPolicy;
+    protected HedgingPolicy hedgingPolicy;
+    protected CircuitBreaker circuitBreaker;
+    protected RateLimiter rateLimiter;
+    protected ConcurrencyLimiter concurrencyLimiter;
+    protected RequestScheduler requestScheduler;
+    protected volatile DnsResolver dnsResolver = new SystemDnsResolver();
+    protected TlsContext tlsContext = TlsContext.getDefault();
+    protected volatile SocketOptionsProfile socketOptionsProfile = new SocketOptionsProfile();
+    protected volatile UnixSocketRoutes unixSocketRoutes = new UnixSocketRoutes();
+    protected Map<String, EndpointGroup> endpointGroups = new ConcurrentHashMap<String, EndpointGroup>();
     protected ThreadLocal<HttpRequestBase> httpRequest = new ThreadLocal<HttpRequestBase>();
 
     private HttpParams httpParams;
@@ -132,6 +201,164 @@ public class DefaultWebBrowser implements WebBrowser {
        }
     }
 
+    /**
+     * Request which is being executed by this browser
+     */
+    private static final class ActiveRequest implements RequestHandle {
+        private final WebRequest webRequest;
+        private final String url;
+        private final String host;
+        private final Thread thread = Thread.currentThread();
+        private final long startTime = System.currentTimeMillis();
+        private final long requestTimeout;
+
+        /* http requests which are being executed for this request: attempt, its retry or hedged request */
+        private final Set<HttpRequestBase> attempts = new CopyOnWriteArraySet<HttpRequestBase>();
+        private volatile boolean aborted;
+        private final CountDownLatch abortCompleted = new CountDownLatch(1);
+
+        ActiveRequest(WebRequest webRequest, long requestTimeout) {
+            this.webRequest = webRequest;
+            this.url = webRequest.getUrl();
+            this.host = webRequest.getURI().getHost();
+            this.requestTimeout = requestTimeout;
+        }
+
+        boolean hasDeadline() {
+            return requestTimeout > 0;
+        }
+
+        /**
+         * @return time remaining till deadline in milliseconds
+         */
+        long remaining() {
+            return startTime + requestTimeout - System.currentTimeMillis();
+        }
+
+        void checkDeadline() throws RequestTimeoutException {
+            if (hasDeadline() && remaining() <= 0) {
+                throw new RequestTimeoutException(url, requestTimeout);
+            }
+        }
+
+        InterruptedIOException abortedException() {
+            //abort may still be releasing connection in another thread, wait for it
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    abortCompleted.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            return new InterruptedIOException(String.format("ANHTTPCLIENT. Request to %s was aborted", url));
+        }
+
+        void register(HttpRequestBase request) throws InterruptedIOException {
+            attempts.add(request);
+            if (aborted) {
+                attempts.remove(request);
+                throw abortedException();
+            }
+        }
+
+        void unregister(HttpRequestBase request) {
+            attempts.remove(request);
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public RequestMethod getRequestMethod() {
+            return webRequest.getRequestMethod();
+        }
+
+        public Thread getThread() {
+            return thread;
+        }
+
+        public long getStartTime() {
+            return startTime;
+        }
+
+        public boolean isAborted() {
+            return aborted;
+        }
+
+        public void abort() {
+            aborted = true;
+            try {
+                for (HttpRequestBase request : attempts) {
+                    request.abort();
+                }
+            } finally {
+                abortCompleted.countDown();
+            }
+        }
+    }
+
+    /* requests which are being executed by this browser */
+    private final ConcurrentMap<ActiveRequest, Boolean> activeRequests = new ConcurrentHashMap<ActiveRequest, Boolean>();
+
+    /* aborts requests which were not completed by their deadline */
+    private static final ScheduledThreadPoolExecutor deadlineWatchdog =
+            new ScheduledThreadPoolExecutor(1, daemonThreadFactory("anhttpclient-deadline-watchdog"));
+
+    /* interval in milliseconds to remove cancelled aborts from the watchdog queue */
+    private static final long DEADLINE_WATCHDOG_PURGE_INTERVAL = 60000;
+
+    static {
+        //cancelled abort stays in the queue until its deadline, so requests with long timeout
+        //completed in time would accumulate there
+        deadlineWatchdog.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                deadlineWatchdog.purge();
+            }
+        }, DEADLINE_WATCHDOG_PURGE_INTERVAL, DEADLINE_WATCHDOG_PURGE_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /* opens pooled connections ahead of requests */
+    private static final ExecutorService connectionOpener =
+            Executors.newCachedThreadPool(daemonThreadFactory("anhttpclient-connection-opener"));
+
+    /* keeps minimal number of pooled connections */
+    private static final ScheduledExecutorService connectionMaintainer =
+            Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("anhttpclient-connection-maintainer"));
+
+    /* origins of hosts which connections are kept in pool, like http://example.com:80 */
+    private final ConcurrentMap<String, Boolean> pooledHosts = new ConcurrentHashMap<String, Boolean>();
+    private volatile int minIdleConnectionsPerHost = WebBrowserConstants.DEFAULT_MIN_IDLE_CONNECTIONS_PER_HOST;
+    private volatile long connectionMaintenanceInterval = WebBrowserConstants.DEFAULT_CONNECTION_MAINTENANCE_INTERVAL;
+    private boolean maintainerScheduled = false;
+
+    /* time in milliseconds after which lease of warmed up connection is considered blocked, zero waits forever */
+    private static final long POOL_LEASE_TIMEOUT = 1;
+
+    /* time in milliseconds to wait for connection from pool, the same as ClientPNames.CONN_MANAGER_TIMEOUT
+       of httpclient 4.2, httpclient 4.1 declares it only in deprecated ConnManagerPNames */
+    private static final String CONN_MANAGER_TIMEOUT = "http.conn-manager.timeout";
+
+    private static ThreadFactory daemonThreadFactory(final String name) {
+        return new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
     /**
      * Allows to set httpClient implementation directly
      * @param httpClient instance of {@link HttpClient}
@@ -173,10 +400,62 @@ public class DefaultWebBrowser implements WebBrowser {
 
         /*Custom parameter to be used in implementation of {@link ClientConnectionManagerFactory}*/
         params.setParameter(ClientConnectionManagerFactoryImpl.THREAD_SAFE_CONNECTION_MANAGER, this.threadSafe);
+        params.setIntParameter(ClientConnectionManagerFactoryImpl.MAX_TOTAL_CONNECTIONS, getPoolMaxTotal());
+        params.setIntParameter(ClientConnectionManagerFactoryImpl.MAX_CONNECTIONS_PER_ROUTE, getPoolMaxPerRoute());
+
+        params.setParameter(ClientConnectionManagerFactoryImpl.TLS_CONTEXT, tlsContext);
+
+        //Connection manager applies socket options of current profile of browser
+        params.setParameter(ClientConnectionManagerFactoryImpl.SOCKET_OPTIONS_PROFILE, new SocketOptionsProfile() {
+            @Override
+            public SocketOptions getOptions(String host) {
+                return socketOptionsProfile.getOptions(host);
+            }
+        });
+
+        //Connection manager connects hosts over unix domain sockets by current routes of browser
+        params.setParameter(ClientConnectionManagerFactoryImpl.UNIX_SOCKET_ROUTES, new UnixSocketRoutes() {
+            @Override
+            public String getPath(String host) {
+                return unixSocketRoutes.getPath(host);
+            }
+        });
+
+        //Connection manager resolves hosts by current resolver of browser
+        params.setParameter(ClientConnectionManagerFactoryImpl.DNS_RESOLVER, new DnsResolver() {
+            public InetAddress[] resolve(String host) throws UnknownHostException {
+                return dnsResolver.resolve(host);
+            }
+        });
 
         return params;
     }
 
+    /* connection pool should not limit requests which are allowed by concurrency limiter */
+    private int getPoolMaxPerRoute() {
+        ConcurrencyLimiter concurrencyLimiter = this.concurrencyLimiter;
+        return concurrencyLimiter != null
+                ? Math.max(maxConnectionsPerHost, concurrencyLimiter.getMaxLimit())
+                : maxConnectionsPerHost;
+    }
+
+    private int getPoolMaxTotal() {
+        return Math.max(maxConnections, getPoolMaxPerRoute());
+    }
+
+    /**
+     * Applies pool sizes to connection manager of already initialized httpClient
+     */
+    private void configureConnectionPool() {
+        synchronized (this) {
+            if (httpClient != null && httpClient.getConnectionManager() instanceof ThreadSafeClientConnManager) {
+                ThreadSafeClientConnManager connManager = (ThreadSafeClientConnManager) httpClient.getConnectionManager();
+                connManager.setMaxTotal(getPoolMaxTotal());
+                connManager.setDefaultMaxPerRoute(getPoolMaxPerRoute());
+            }
+        }
+    }
+
     private void addGZIPResponseInterceptor(HttpClient httpClient) {
         if (AbstractHttpClient.class.isAssignableFrom(httpClient.getClass())) {
             ((AbstractHttpClient)httpClient).addResponseInterceptor(new HttpResponseInterceptor() {
@@ -218,6 +497,16 @@ public class DefaultWebBrowser implements WebBrowser {
         this.threadSafe = threadSafe;
     }
 
+    /**
+     * Return if this browser uses thread safe connection manager
+     * and so could be used from several threads at once
+     *
+     * @return {@code true} if browser is thread safe
+     */
+    public boolean isThreadSafe() {
+        return threadSafe;
+    }
+
     /**
      * Initialize new instance of httpClient
      */
@@ -234,6 +523,10 @@ public class DefaultWebBrowser implements WebBrowser {
                         addGZIPResponseInterceptor(httpClient);
                     }
 
+                    if (httpClient instanceof AbstractHttpClient) {
+                        EndpointRoutePlanner.install((AbstractHttpClient) httpClient);
+                    }
+
                     this.initialized = true;
                 }
             }
@@ -277,9 +570,12 @@ public class DefaultWebBrowser implements WebBrowser {
 
         // We use here DefaultHttpMethodRetryHandler with <b>true</b> parameter
         // because we suppose that if method was successfully sent its headers
-        // it could also be retried
+        // it could also be retried.
+        // If retry policy is set requests are retried by browser itself
         if (AbstractHttpClient.class.isAssignableFrom(httpClient.getClass())) {
-            ((AbstractHttpClient)httpClient).setHttpRequestRetryHandler(new DefaultHttpRequestRetryHandler(retryCount, true));
+            ((AbstractHttpClient)httpClient).setHttpRequestRetryHandler(retryPolicy == null
+                    ? new DefaultHttpRequestRetryHandler(retryCount, true)
+                    : new DefaultHttpRequestRetryHandler(0, false));
         }
         httpClient.getParams().setIntParameter(CoreConnectionPNames.SO_TIMEOUT, socketTimeout);
     }
@@ -289,9 +585,9 @@ public class DefaultWebBrowser implements WebBrowser {
      * then add specific headers for current request
      *
      * @param httpMethodBase http method for adding headers
-     * @param methodHeaders  headers specific for current request
+     * @param webRequest  request which headers should be added
      */
-    private void setHeaders(final HttpRequestBase httpMethodBase, final Map<String, String> methodHeaders) {
+    private void setHeaders(final HttpRequestBase httpMethodBase, final WebRequest webRequest) {
 
         //set default headers
         for (Map.Entry<String, String> entry : defaultHeaders.entrySet()) {
@@ -299,8 +595,19 @@ public class DefaultWebBrowser implements WebBrowser {
         }
 
         //set method headers
-        for (Map.Entry<String, String> entry : methodHeaders.entrySet()) {
-            httpMethodBase.setHeader(entry.getKey(), entry.getValue());
+        //requests derived from template which headers were not changed reuse already created headers
+        WebRequestTemplate template = webRequest instanceof HttpGetWebRequest
+                ? ((HttpGetWebRequest)webRequest).getTemplate()
+                : null;
+
+        if (template != null && template.getHeaders() == webRequest.getHeaders()) {
+            for (Header header : template.getHeaderArray()) {
+                httpMethodBase.setHeader(header);
+            }
+        } else {
+            for (Map.Entry<String, String> entry : webRequest.getHeaders().entrySet()) {
+                httpMethodBase.setHeader(entry.getKey(), entry.getValue());
+            }
         }
     }
 
@@ -321,10 +628,27 @@ public class DefaultWebBrowser implements WebBrowser {
         }
 
         HttpContext localContext = new BasicHttpContext();
-        localContext.setAttribute(ClientContext.COOKIE_STORE, cookieStore);
+        localContext.setAttribute(ClientContext.COOKIE_STORE, getCookieStore(httpUriRequest));
         return httpClient.execute(httpUriRequest, localContext);
     }
 
+    /**
+     * Return cookie store which will be used for cookie matching of passed request.
+     * If cookie store is indexed by domain only cookies of the request host
+     * and its parent domains are passed to cookie matching.
+     *
+     * @param httpUriRequest request to execute
+     * @return cookie store for request
+     */
+    private CookieStore getCookieStore(HttpUriRequest httpUriRequest) {
+        String host = httpUriRequest.getURI().getHost();
+        if (host != null && cookieStore instanceof ConcurrentCookieStore) {
+            return ((ConcurrentCookieStore) cookieStore).forHost(host);
+        }
+
+        return cookieStore;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -348,7 +672,7 @@ public class DefaultWebBrowser implements WebBrowser {
      */
     private HttpRequestBase populateHttpRequestBaseMethod(WebRequest webRequest, HttpRequestBase httpRequest) {
         setDefaultMethodParams(httpRequest);
-        setHeaders(httpRequest, webRequest.getHeaders());
+        setHeaders(httpRequest, webRequest);
 
         return httpRequest;
     }
@@ -367,50 +691,62 @@ public class DefaultWebBrowser implements WebBrowser {
 
         EntityEnclosingWebRequest webRequestWithBody = (EntityEnclosingWebRequest)webRequest;
         setDefaultMethodParams(httpRequest);
-        setHeaders(httpRequest, webRequestWithBody.getHeaders());
+        setHeaders(httpRequest, webRequestWithBody);
 
         HttpEntity entity = null;
 
-        if (webRequestWithBody.getFormParams() != null
-                    && webRequestWithBody.getFormParams().size() > 0) {
-
-                StringBuilder contentType =
-                        (new StringBuilder(HttpConstants.MIME_FORM_ENCODED)).append("; charset=")
-                                .append(webRequestWithBody.getFormParamsCharset());
-
-                httpRequest.addHeader(HTTP.CONTENT_TYPE, contentType.toString());
-
-                // data - name/value params
-                List<NameValuePair> nameValuePairList = null;
-                Map<String, String> requestParams = webRequestWithBody.getFormParams();
-                if ((requestParams != null) && (requestParams.size() > 0)) {
-                    nameValuePairList = new ArrayList<NameValuePair>();
-                    for (Map.Entry<String, String> entry : requestParams.entrySet()) {
-                        nameValuePairList.add(new BasicNameValuePair(entry.getKey(), entry.getValue()));
-                    }
-                }
-
-                if (nameValuePairList != null) {
-                    try {
-                        entity = new UrlEncodedFormEntity(nameValuePairList, HTTP.UTF_8);
-                    } catch (UnsupportedEncodingException e) {
-                        throw new RuntimeException(e);
-                    }
-                }
+        if (webRequestWithBody.getBody() != null) {
+            entity = webRequestWithBody.getBody();
+        } else if (webRequestWithBody.getFormParams() != null
+                && webRequestWithBody.getFormParams().size() > 0) {
+            entity = new FormEncodedEntity(webRequestWithBody.getFormParams(), webRequestWithBody.getFormParamsCharset());
         } else if (webRequestWithBody.getParts().size() > 0) {
-            entity = new MultipartEntity();
-            for (Map.Entry<String, ContentBody> entry: webRequestWithBody.getParts().entrySet()) {
-                ((MultipartEntity)entity).addPart(entry.getKey(), entry.getValue());
-            }
+            entity = new MultipartFormEntity(webRequestWithBody.getParts());
         }
 
         if (entity != null) {
+            entity = compressIfNeeded(entity, webRequestWithBody.getCompressionThreshold());
             httpRequest.setEntity(entity);
+            setExpectContinueParams(httpRequest, entity);
         }
 
         return httpRequest;
     }
 
+    /**
+     * Enables {@code Expect: 100-continue} handshake for request
+     * if its body is large enough, see {@link #setExpectContinueThreshold}
+     *
+     * @param httpRequest request to set params
+     * @param entity body of the request
+     */
+    private void setExpectContinueParams(HttpEntityEnclosingRequestBase httpRequest, HttpEntity entity) {
+        long length = entity.getContentLength();
+        boolean expectContinue = expectContinueThreshold >= 0 && (length < 0 || length >= expectContinueThreshold);
+
+        httpRequest.getParams().setBooleanParameter(CoreProtocolPNames.USE_EXPECT_CONTINUE, expectContinue);
+        if (expectContinue) {
+            httpRequest.getParams().setIntParameter(CoreProtocolPNames.WAIT_FOR_CONTINUE, expectContinueTimeout);
+        }
+    }
+
+    /**
+     * Wraps request entity into {@link GzipCompressingEntity} if its length
+     * is not less than threshold or is unknown
+     *
+     * @param entity request entity
+     * @param threshold minimal length of entity to compress, negative value disables compression
+     * @return entity which should be sent
+     */
+    private HttpEntity compressIfNeeded(HttpEntity entity, long threshold) {
+        if (threshold < 0 || entity.getContentEncoding() != null) {
+            return entity;
+        }
+
+        long length = entity.getContentLength();
+        return length < 0 || length >= threshold ? new GzipCompressingEntity(entity) : entity;
+    }
+
     /**
      * If {@link HttpRequestBase} httpMethodBase has :location: header in response headers then
      * redirect will be perfirmed
@@ -444,144 +780,694 @@ public class DefaultWebBrowser implements WebBrowser {
     public WebResponse getResponse(WebRequest webRequest, String charset) throws IOException {
         initHttpClient();
 
-        switch (webRequest.getRequestMethod()) {
-            case GET:
-                httpRequest.set(populateHttpRequestBaseMethod(webRequest, new HttpGet(webRequest.getUrl())));
-                break;
-            case HEAD:
-                httpRequest.set(populateHttpRequestBaseMethod(webRequest, new HttpHead(webRequest.getUrl())));
-                break;
-            case OPTIONS:
-                httpRequest.set(populateHttpRequestBaseMethod(webRequest, new HttpOptions(webRequest.getUrl())));
-                break;
-            case TRACE:
-                httpRequest.set(populateHttpRequestBaseMethod(webRequest, new HttpTrace(webRequest.getUrl())));
-                break;
-            case DELETE:
-                httpRequest.set(populateHttpRequestBaseMethod(webRequest, new HttpDelete(webRequest.getUrl())));
-                break;
-            case POST:
-                httpRequest.set(populateHttpEntityEnclosingRequestBaseMethod(webRequest, new HttpPost(webRequest.getUrl())));
-                break;
-            case PUT:
-                httpRequest.set(populateHttpEntityEnclosingRequestBaseMethod(webRequest, new HttpPut(webRequest.getUrl())));
-                break;
-            default:
-                throw new RuntimeException("Method not yet supported: " + webRequest.getRequestMethod());
+        Integer timeout = webRequest.getRequestTimeout() != null ? webRequest.getRequestTimeout() : requestTimeout;
+        ActiveRequest activeRequest = new ActiveRequest(webRequest, timeout);
+        activeRequests.put(activeRequest, Boolean.TRUE);
+        WebRequestHandle handle = webRequest.getHandle() instanceof WebRequestHandle
+                ? (WebRequestHandle) webRequest.getHandle() : null;
+        if (handle != null) {
+            handle.attach(activeRequest);
         }
 
-        WebResponse resp;
+        try {
+            if (retryPolicy != null) {
+                return executeWithRetries(webRequest, charset, retryPolicy, activeRequest);
+            }
 
-        HttpResponse response = executeMethod(httpRequest.get());
-        if (response == null) {
-            throw new IOException("ANHTTPCLIENT. An empty response received from server. Possible reason: host is offline");
+            return execute(webRequest, charset, activeRequest);
+        } finally {
+            if (handle != null) {
+                handle.detach(activeRequest);
+            }
+            activeRequests.remove(activeRequest);
         }
-
-        resp = processResponse(response, httpRequest.get(), charset);
-        httpRequest.set(null);
-        return resp;
     }
 
     /**
-     * {@inheritDoc}
+     * Executes request and retries it according to passed policy
+     *
+     * @param webRequest request to execute
+     * @param charset expected charset of the response
+     * @param retryPolicy retry policy
+     * @param activeRequest handle of the request
+     * @return response of the last attempt
+     * @throws IOException if last attempt failed
      */
-    public Map<String, String> getHeaders() {
-        return Collections.unmodifiableMap(defaultHeaders);
-    }
+    private WebResponse executeWithRetries(WebRequest webRequest, String charset,
+            RetryPolicy retryPolicy, ActiveRequest activeRequest) throws IOException {
+        String host = webRequest.getURI().getHost();
+        boolean repeatable = isRepeatable(webRequest);
+        retryPolicy.onRequest(host);
+
+        for (int attempt = 0; ; attempt++) {
+            WebResponse response = null;
+            long delay;
+
+            try {
+                response = execute(webRequest, charset, activeRequest);
+                delay = repeatable ? retryPolicy.getRetryDelay(attempt, response) : -1;
+            } catch (IOException e) {
+                HttpRequestBase request = httpRequest.get();
+                boolean aborted = activeRequest.isAborted() || (request != null && request.isAborted());
+                delay = repeatable && !aborted ? retryPolicy.getRetryDelay(attempt, e) : -1;
+                if (delay < 0 || !isBefore(delay, activeRequest) || !retryPolicy.acquireRetry(host)) {
+                    throw e;
+                }
 
-    /**
-     * {@inheritDoc}
-     */
-    public String getHeader(String headerName) {
-        for (Map.Entry<String, String> entry : defaultHeaders.entrySet()) {
-            if (entry.getKey().equalsIgnoreCase(headerName)) {
-                return entry.getValue();
+                log.debug(String.format("ANHTTPCLIENT. Request to %s failed, retrying in %d ms", host, delay), e);
             }
-        }
 
-        return null;
+            if (response != null) {
+                if (delay < 0 || !isBefore(delay, activeRequest) || !retryPolicy.acquireRetry(host)) {
+                    return response;
+                }
+
+                log.debug(String.format("ANHTTPCLIENT. Request to %s returned %d, retrying in %d ms",
+                        host, response.getResponseCode(), delay));
+            }
+
+            sleep(delay);
+        }
     }
 
     /**
-     * {@inheritDoc}
+     * Return if passed delay ends before deadline of request
+     *
+     * @param delay delay in milliseconds
+     * @param activeRequest handle of the request
+     * @return {@code true} if request has no deadline or delay ends before it
      */
-    public void addHeaders(Map<String, String> headers) {
-        defaultHeaders.putAll(headers);
+    private boolean isBefore(long delay, ActiveRequest activeRequest) {
+        return !activeRequest.hasDeadline() || delay < activeRequest.remaining();
     }
 
     /**
-     * {@inheritDoc}
+     * Return if request could be sent several times
+     *
+     * @param webRequest request
+     * @return {@code false} if request body could be read only once
      */
-    public void addHeader(String name, String value) {
-        defaultHeaders.put(name, value);
+    private boolean isRepeatable(WebRequest webRequest) {
+        if (!(webRequest instanceof EntityEnclosingWebRequest)) {
+            return true;
+        }
+
+        EntityEnclosingWebRequest webRequestWithBody = (EntityEnclosingWebRequest) webRequest;
+        if (webRequestWithBody.getBody() != null) {
+            return webRequestWithBody.getBody().isRepeatable();
+        }
+
+        for (ContentBody part : webRequestWithBody.getParts().values()) {
+            if (part instanceof InputStreamBody) {
+                return false;
+            }
+        }
+
+        return true;
     }
 
-    /**
-     * {@inheritDoc}
-     */
-    public Integer getRetryCount() {
-        return retryCount;
+    private void sleep(long delay) throws InterruptedIOException {
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("ANHTTPCLIENT. Interrupted while waiting for retry");
+        }
     }
 
     /**
-     * {@inheritDoc}
+     * Executes request once
+     *
+     * @param webRequest request to execute
+     * @param charset expected charset of the response
+     * @param activeRequest handle of the request
+     * @return response
+     * @throws IOException if errors occurs during request
      */
-    public void setRetryCount(Integer retryCount) {
-        this.retryCount = retryCount;
+    private WebResponse execute(WebRequest webRequest, String charset, ActiveRequest activeRequest) throws IOException {
+        HedgingPolicy hedgingPolicy = this.hedgingPolicy;
+        if (hedgingPolicy != null && hedgingPolicy.isHedgeable(webRequest.getRequestMethod())) {
+            return executeHedged(webRequest, charset, hedgingPolicy, activeRequest);
+        }
+
+        httpRequest.set(createHttpRequest(webRequest));
+        WebResponse resp = execute(httpRequest.get(), charset, activeRequest);
+        httpRequest.set(null);
+        return resp;
     }
 
     /**
-     * {@inheritDoc}
+     * Creates {@link HttpRequestBase} from WebRequest
+     *
+     * @param webRequest request
+     * @return apache http request
      */
-    public Integer getSocketTimeout() {
-        return socketTimeout;
+    private HttpRequestBase createHttpRequest(WebRequest webRequest) {
+        URI uri = webRequest.getURI();
+        switch (webRequest.getRequestMethod()) {
+            case GET:
+                return populateHttpRequestBaseMethod(webRequest, new HttpGet(uri));
+            case HEAD:
+                return populateHttpRequestBaseMethod(webRequest, new HttpHead(uri));
+            case OPTIONS:
+                return populateHttpRequestBaseMethod(webRequest, new HttpOptions(uri));
+            case TRACE:
+                return populateHttpRequestBaseMethod(webRequest, new HttpTrace(uri));
+            case DELETE:
+                return populateHttpRequestBaseMethod(webRequest, new HttpDelete(uri));
+            case POST:
+                return populateHttpEntityEnclosingRequestBaseMethod(webRequest, new HttpPost(uri));
+            case PUT:
+                return populateHttpEntityEnclosingRequestBaseMethod(webRequest, new HttpPut(uri));
+            default:
+                throw new RuntimeException("Method not yet supported: " + webRequest.getRequestMethod());
+        }
     }
 
     /**
-     * {@inheritDoc}
+     * Executes apache http request and reads its response
+     *
+     * @param request request to execute
+     * @param charset expected charset of the response
+     * @param activeRequest handle of the request
+     * @return response
+     * @throws IOException if errors occurs during request
      */
-    public void setSocketTimeout(Integer socketTimeout) {
-        this.socketTimeout = socketTimeout;
+    private WebResponse execute(HttpRequestBase request, String charset, ActiveRequest activeRequest) throws IOException {
+        activeRequest.register(request);
+        try {
+            EndpointGroup endpointGroup = endpointGroups.get(request.getURI().getHost().toLowerCase(Locale.ENGLISH));
+            if (endpointGroup != null) {
+                return executeOnEndpoints(request, charset, activeRequest, endpointGroup);
+            }
+
+            return executeWithPolicies(request, charset, activeRequest);
+        } finally {
+            activeRequest.unregister(request);
+        }
     }
 
     /**
-     * {@inheritDoc}
+     * Executes apache http request to logical host on one of endpoints of the group.
+     * If request is idempotent and failed it is retried on other endpoints.
+     *
+     * @param request request to logical host
+     * @param charset expected charset of the response
+     * @param activeRequest handle of the request
+     * @param endpointGroup group of logical host
+     * @return response
+     * @throws IOException if request failed on all endpoints
      */
-    public Integer getConnectionTimeout() {
-        return connectionTimeout;
+    private WebResponse executeOnEndpoints(HttpRequestBase request, String charset,
+            ActiveRequest activeRequest, EndpointGroup endpointGroup) throws IOException {
+        if (!(httpClient instanceof AbstractHttpClient)) {
+            throw new IllegalStateException("ANHTTPCLIENT. Endpoint groups require AbstractHttpClient");
+        }
+
+        //request keeps url of logical host, only its connection is routed to endpoint
+        URI requestUri = request.getURI();
+        HttpHost target = URIUtils.extractHost(requestUri);
+        boolean retryable = endpointGroup.isRetryable(activeRequest.getRequestMethod())
+                && isRepeatable(activeRequest.webRequest);
+        Set<EndpointGroup.Endpoint> failed = new HashSet<EndpointGroup.Endpoint>();
+        try {
+            while (true) {
+                EndpointGroup.Endpoint endpoint = endpointGroup.select(failed);
+                if (endpoint == null) {
+                    throw new IOException(String.format("ANHTTPCLIENT. No endpoints available for host %s", endpointGroup.getHost()));
+                }
+
+                request.setURI(endpoint.resolve(requestUri));
+                EndpointRoutePlanner.setEndpoint(request.getParams(), target, endpoint.getTarget(), endpointGroup.isPreserveHost());
+                long start = System.currentTimeMillis();
+                WebResponse resp;
+                try {
+                    resp = executeWithPolicies(request, charset, activeRequest);
+                } catch (IOException e) {
+                    if (request.isAborted() || activeRequest.isAborted() || e instanceof RequestTimeoutException) {
+                        endpointGroup.onIgnored(endpoint);
+                        throw e;
+                    }
+
+                    //Request rejected by policies of the browser was not sent, endpoint is not failed
+                    if (e instanceof RateLimitExceededException || e instanceof ConcurrencyLimitExceededException
+                            || e instanceof CircuitBreakerOpenException) {
+                        endpointGroup.onIgnored(endpoint);
+                    } else {
+                        endpointGroup.onFailure(endpoint);
+                    }
+                    failed.add(endpoint);
+                    if (!retryable || failed.size() >= endpointGroup.getEndpoints().size()) {
+                        throw e;
+                    }
+
+                    log.warn(String.format("ANHTTPCLIENT. Request to endpoint %s failed, trying other endpoint", endpoint), e);
+                    continue;
+                } catch (RuntimeException e) {
+                    endpointGroup.onIgnored(endpoint);
+                    throw e;
+                }
+
+                endpointGroup.onResponse(endpoint, System.currentTimeMillis() - start, resp);
+                return resp;
+            }
+        } finally {
+            request.setURI(requestUri);
+            EndpointRoutePlanner.removeEndpoint(request.getParams());
+        }
     }
 
-    /**
-     * {@inheritDoc}
-     */
-    public void setConnectionTimeout(Integer connectionTimeout) {
-        initHttpClient();
-        this.connectionTimeout = connectionTimeout;
-        httpClient.getParams().setParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, connectionTimeout);
+    /* host which connection is opened to: endpoint of request or host of its url */
+    private static String getTargetHost(HttpRequestBase request) {
+        HttpHost endpoint = EndpointRoutePlanner.getEndpoint(request.getParams());
+        return endpoint != null ? endpoint.getHostName() : request.getURI().getHost();
     }
 
     /**
-     * {@inheritDoc}
+     * Executes apache http request applying rate limiter, request scheduler,
+     * concurrency limiter and circuit breaker
+     *
+     * @param request request to execute
+     * @param charset expected charset of the response
+     * @param activeRequest handle of the request
+     * @return response
+     * @throws IOException if errors occurs during request
      */
-    public List<Cookie> getCookies() {
-        return cookieStore.getCookies();
-    }
+    private WebResponse executeWithPolicies(HttpRequestBase request, String charset, ActiveRequest activeRequest) throws IOException {
+        String host = getTargetHost(request);
+        activeRequest.checkDeadline();
+        if (minIdleConnectionsPerHost > 0) {
+            HttpHost endpoint = EndpointRoutePlanner.getEndpoint(request.getParams());
+            pooledHosts.putIfAbsent(endpoint != null ? endpoint.toURI() : getOrigin(request.getURI()), Boolean.TRUE);
+        }
 
-    public Cookie getCookieByName(String name) {
-        for (Cookie cookie: cookieStore.getCookies()) {
-            if (cookie.getName().equals(name)) {
-                return cookie;
-            }
+        RateLimiter rateLimiter = this.rateLimiter;
+        if (rateLimiter != null) {
+            rateLimiter.acquire(host, activeRequest.hasDeadline() ? activeRequest.remaining() : Long.MAX_VALUE);
         }
 
-        return null;
+        RequestScheduler requestScheduler = this.requestScheduler;
+        if (requestScheduler == null) {
+            return executeWithConcurrencyLimiter(request, charset, activeRequest);
+        }
+
+        Integer priority = activeRequest.webRequest.getPriority();
+        if (!requestScheduler.acquire(priority != null ? priority : WebBrowserConstants.DEFAULT_PRIORITY,
+                activeRequest.hasDeadline() ? activeRequest.remaining() : Long.MAX_VALUE)) {
+            throw new RequestTimeoutException(activeRequest.url, activeRequest.requestTimeout);
+        }
+
+        try {
+            return executeWithConcurrencyLimiter(request, charset, activeRequest);
+        } finally {
+            requestScheduler.release();
+        }
     }
 
     /**
-     * {@inheritDoc}
+     * Executes apache http request applying concurrency limiter and circuit breaker
+     *
+     * @param request request to execute
+     * @param charset expected charset of the response
+     * @param activeRequest handle of the request
+     * @return response
+     * @throws IOException if errors occurs during request
      */
-    public void addCookie(Cookie cookie) {
-        cookieStore.addCookie(cookie);
+    private WebResponse executeWithConcurrencyLimiter(HttpRequestBase request, String charset,
+            ActiveRequest activeRequest) throws IOException {
+        String host = getTargetHost(request);
+        ConcurrencyLimiter concurrencyLimiter = this.concurrencyLimiter;
+        if (concurrencyLimiter == null) {
+            return executeWithCircuitBreaker(request, charset, activeRequest);
+        }
+
+        concurrencyLimiter.acquire(host, activeRequest.hasDeadline() ? activeRequest.remaining() : Long.MAX_VALUE);
+        long start = System.currentTimeMillis();
+        WebResponse resp;
+        try {
+            resp = executeWithCircuitBreaker(request, charset, activeRequest);
+        } catch (IOException e) {
+            if (request.isAborted() && !(e instanceof RequestTimeoutException)) {
+                concurrencyLimiter.onIgnored(host);
+            } else {
+                concurrencyLimiter.onFailure(host, e);
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            concurrencyLimiter.onIgnored(host);
+            throw e;
+        }
+
+        concurrencyLimiter.onResponse(host, System.currentTimeMillis() - start, resp);
+        return resp;
+    }
+
+    /**
+     * Executes apache http request applying circuit breaker
+     *
+     * @param request request to execute
+     * @param charset expected charset of the response
+     * @param activeRequest handle of the request
+     * @return response
+     * @throws IOException if errors occurs during request
+     */
+    private WebResponse executeWithCircuitBreaker(HttpRequestBase request, String charset, ActiveRequest activeRequest) throws IOException {
+        String host = getTargetHost(request);
+        CircuitBreaker circuitBreaker = this.circuitBreaker;
+        if (circuitBreaker == null) {
+            return executeAndProcess(request, charset, activeRequest);
+        }
+
+        boolean probe = circuitBreaker.acquirePermission(host);
+        WebResponse resp;
+        try {
+            resp = executeAndProcess(request, charset, activeRequest);
+        } catch (IOException e) {
+            if (request.isAborted() && !(e instanceof RequestTimeoutException)) {
+                circuitBreaker.onIgnored(host, probe);
+            } else {
+                circuitBreaker.onFailure(host, probe);
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            circuitBreaker.onIgnored(host, probe);
+            throw e;
+        }
+
+        circuitBreaker.onResponse(host, probe, resp);
+        return resp;
+    }
+
+    private WebResponse executeAndProcess(HttpRequestBase request, String charset, ActiveRequest activeRequest) throws IOException {
+        if (!activeRequest.hasDeadline()) {
+            try {
+                return executeAndProcess(request, charset);
+            } catch (IOException e) {
+                throw activeRequest.isAborted() ? activeRequest.abortedException() : e;
+            }
+        }
+
+        //connection lease, connect and every read should not last longer than remaining time,
+        //the whole request including reading of response body is aborted at deadline
+        long remaining = Math.max(1, activeRequest.remaining());
+        int remainingTimeout = (int) Math.min(Integer.MAX_VALUE, remaining);
+        request.getParams().setLongParameter(CONN_MANAGER_TIMEOUT, remaining);
+        request.getParams().setIntParameter(CoreConnectionPNames.CONNECTION_TIMEOUT,
+                connectionTimeout > 0 ? Math.min(connectionTimeout, remainingTimeout) : remainingTimeout);
+        request.getParams().setIntParameter(CoreConnectionPNames.SO_TIMEOUT,
+                socketTimeout > 0 ? Math.min(socketTimeout, remainingTimeout) : remainingTimeout);
+
+        final HttpRequestBase abortedRequest = request;
+        final AtomicBoolean abortStarted = new AtomicBoolean(false);
+        ScheduledFuture<?> abortTask = deadlineWatchdog.schedule(new Runnable() {
+            public void run() {
+                if (abortStarted.compareAndSet(false, true)) {
+                    abortedRequest.abort();
+                }
+            }
+        }, remaining, TimeUnit.MILLISECONDS);
+
+        try {
+            return executeAndProcess(request, charset);
+        } catch (IOException e) {
+            if (activeRequest.isAborted()) {
+                throw activeRequest.abortedException();
+            }
+            activeRequest.checkDeadline();
+            throw e;
+        } finally {
+            //cancel(false) succeeds for running task too, so whether abort has started is tracked separately
+            if (abortStarted.compareAndSet(false, true)) {
+                abortTask.cancel(false);
+            } else {
+                //connection aborted at deadline is released to the pool by watchdog, wait for it
+                awaitAbort(abortTask);
+            }
+        }
+    }
+
+    private static void awaitAbort(Future<?> abortTask) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                abortTask.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException e) {
+                log.warn("ANHTTPCLIENT. Can not abort request at deadline", e.getCause());
+                break;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private WebResponse executeAndProcess(HttpRequestBase request, String charset) throws IOException {
+        HttpResponse response = executeMethod(request);
+        if (response == null) {
+            throw new IOException("ANHTTPCLIENT. An empty response received from server. Possible reason: host is offline");
+        }
+
+        return processResponse(response, request, charset);
+    }
+
+    /**
+     * Executes request and if it is not completed during hedge delay
+     * sends the same request again. Response which arrives first is returned
+     * and another request is aborted.
+     *
+     * @param webRequest request to execute
+     * @param charset expected charset of the response
+     * @param hedgingPolicy hedging policy
+     * @param activeRequest handle of the request
+     * @return first received response
+     * @throws IOException if all sent requests failed
+     */
+    private WebResponse executeHedged(WebRequest webRequest, String charset,
+            HedgingPolicy hedgingPolicy, ActiveRequest activeRequest) throws IOException {
+        hedgingPolicy.onRequest();
+
+        long hedgeDelay = hedgingPolicy.getHedgeDelay();
+        if (hedgeDelay < 0) {
+            //Not enough statistics yet, just measure response time
+            long start = System.currentTimeMillis();
+            httpRequest.set(createHttpRequest(webRequest));
+            WebResponse resp = execute(httpRequest.get(), charset, activeRequest);
+            httpRequest.set(null);
+            hedgingPolicy.recordLatency(System.currentTimeMillis() - start);
+            return resp;
+        }
+
+        CompletionService<WebResponse> completionService =
+                new ExecutorCompletionService<WebResponse>(hedgingPolicy.getExecutor());
+        Map<Future<WebResponse>, HttpRequestBase> requests = new IdentityHashMap<Future<WebResponse>, HttpRequestBase>(2);
+        IOException error = null;
+
+        try {
+            submitHedgedRequest(completionService, requests, createHttpRequest(webRequest), charset, hedgingPolicy, activeRequest);
+            Future<WebResponse> completed = completionService.poll(hedgeDelay, TimeUnit.MILLISECONDS);
+            if (completed == null && hedgingPolicy.acquireHedge()) {
+                log.debug(String.format("ANHTTPCLIENT. No response from %s in %d ms, sending hedged request",
+                        webRequest.getURI().getHost(), hedgeDelay));
+                submitHedgedRequest(completionService, requests, createHttpRequest(webRequest), charset, hedgingPolicy, activeRequest);
+            }
+
+            for (int pending = requests.size(); pending > 0; pending--) {
+                if (completed == null) {
+                    completed = completionService.take();
+                }
+
+                try {
+                    WebResponse resp = completed.get();
+                    requests.remove(completed);
+                    return resp;
+                } catch (ExecutionException e) {
+                    error = e.getCause() instanceof IOException
+                            ? (IOException) e.getCause()
+                            : new IOException("ANHTTPCLIENT. Hedged request failed: " + e.getCause());
+                }
+
+                completed = null;
+            }
+
+            throw error;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("ANHTTPCLIENT. Interrupted while waiting for response");
+        } finally {
+            //abort requests which lost
+            for (HttpRequestBase request : requests.values()) {
+                request.abort();
+            }
+        }
+    }
+
+    private void submitHedgedRequest(CompletionService<WebResponse> completionService,
+            Map<Future<WebResponse>, HttpRequestBase> requests,
+            final HttpRequestBase request, final String charset,
+            final HedgingPolicy hedgingPolicy, final ActiveRequest activeRequest) {
+
+        Future<WebResponse> future = completionService.submit(new Callable<WebResponse>() {
+            public WebResponse call() throws Exception {
+                long start = System.currentTimeMillis();
+                WebResponse resp = execute(request, charset, activeRequest);
+                hedgingPolicy.recordLatency(System.currentTimeMillis() - start);
+                return resp;
+            }
+        });
+
+        requests.put(future, request);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Map<String, String> getHeaders() {
+        return Collections.unmodifiableMap(defaultHeaders);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getHeader(String headerName) {
+        for (Map.Entry<String, String> entry : defaultHeaders.entrySet()) {
+            if (entry.getKey().equalsIgnoreCase(headerName)) {
+                return entry.getValue();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void addHeaders(Map<String, String> headers) {
+        defaultHeaders.putAll(headers);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void addHeader(String name, String value) {
+        defaultHeaders.put(name, value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Integer getRetryCount() {
+        return retryCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setRetryCount(Integer retryCount) {
+        this.retryCount = retryCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Integer getSocketTimeout() {
+        return socketTimeout;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setSocketTimeout(Integer socketTimeout) {
+        this.socketTimeout = socketTimeout;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Integer getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setConnectionTimeout(Integer connectionTimeout) {
+        initHttpClient();
+        this.connectionTimeout = connectionTimeout;
+        httpClient.getParams().setParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, connectionTimeout);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Integer getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setRequestTimeout(Integer requestTimeout) {
+        this.requestTimeout = requestTimeout;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Long getExpectContinueThreshold() {
+        return expectContinueThreshold;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setExpectContinueThreshold(Long expectContinueThreshold) {
+        this.expectContinueThreshold = expectContinueThreshold;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Integer getExpectContinueTimeout() {
+        return expectContinueTimeout;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setExpectContinueTimeout(Integer expectContinueTimeout) {
+        this.expectContinueTimeout = expectContinueTimeout;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<Cookie> getCookies() {
+        return cookieStore.getCookies();
+    }
+
+    public Cookie getCookieByName(String name) {
+        if (cookieStore instanceof ConcurrentCookieStore) {
+            return ((ConcurrentCookieStore) cookieStore).getCookieByName(name);
+        }
+
+        for (Cookie cookie: cookieStore.getCookies()) {
+            if (cookie.getName().equals(name)) {
+                return cookie;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void addCookie(Cookie cookie) {
+        cookieStore.addCookie(cookie);
     }
 
     /**
@@ -593,6 +1479,10 @@ public class DefaultWebBrowser implements WebBrowser {
                     new BasicClientCookie(cookie.getName(), cookie.getValue());
             apacheCookie.setPath(cookie.getPath());
             apacheCookie.setDomain(cookie.getDomain());
+            apacheCookie.setExpiryDate(cookie.getExpiryDate());
+            apacheCookie.setSecure(cookie.isSecure());
+            apacheCookie.setVersion(cookie.getVersion());
+            apacheCookie.setComment(cookie.getComment());
             cookieStore.addCookie(apacheCookie);
         }
     }
@@ -604,6 +1494,554 @@ public class DefaultWebBrowser implements WebBrowser {
         cookieStore.clear();
     }
 
+    /**
+     * Return request rate limiter of this browser
+     *
+     * @return rate limiter or {@code null} if request rate is not limited
+     */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Set request rate limiter which will be used by this browser.
+     * Every sent request including retries and hedged requests is limited.
+     *
+     * @param rateLimiter rate limiter or {@code null} to not limit request rate
+     */
+    public void setRateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Return maximal number of connections in pool
+     *
+     * @return number of connections
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Set maximal number of connections in pool. Takes effect only for thread safe browser.
+     *
+     * @param maxConnections number of connections
+     */
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+        configureConnectionPool();
+    }
+
+    /**
+     * Return maximal number of connections to one host in pool
+     *
+     * @return number of connections
+     */
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    /**
+     * Set maximal number of connections to one host in pool. Takes effect only for thread safe browser.
+     * If concurrency limiter is set pool allows at least {@link ConcurrencyLimiter#getMaxLimit} connections.
+     *
+     * @param maxConnectionsPerHost number of connections
+     */
+    public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        configureConnectionPool();
+    }
+
+    /**
+     * Return concurrency limiter of this browser
+     *
+     * @return concurrency limiter or {@code null} if number of concurrent requests is limited only by pool
+     */
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    /**
+     * Set adaptive limiter of concurrent requests to one host.
+     * Connection pool of thread safe browser is enlarged up to {@link ConcurrencyLimiter#getMaxLimit},
+     * so number of connections is determined by limiter.
+     *
+     * @param concurrencyLimiter concurrency limiter or {@code null} to not use it
+     */
+    public void setConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+        configureConnectionPool();
+    }
+
+    /**
+     * Opens connections to passed hosts ahead of requests and keeps them in pool,
+     * so first requests do not wait for TCP and TLS handshakes.
+     * Connections are opened in parallel. Hosts which connections could not be opened are skipped.
+     *
+     * @param urls urls of hosts like {@code https://example.com:8443}, only scheme, host and port are used
+     * @param connectionsPerHost number of idle connections which should be in pool for every host,
+     *  connections used by requests are not counted. Limited by free capacity of the pool of the host
+     * @return number of opened connections
+     * @throws IllegalStateException if browser is not thread safe
+     */
+    public int warmUp(Collection<String> urls, final int connectionsPerHost) {
+        final ThreadSafeClientConnManager connManager = getPooledConnectionManager();
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        for (String url : urls) {
+            final String origin = getOrigin(URI.create(url));
+            pooledHosts.put(origin, Boolean.TRUE);
+            futures.add(connectionOpener.submit(new Callable<Integer>() {
+                public Integer call() {
+                    return openConnections(connManager, origin, connectionsPerHost);
+                }
+            }));
+        }
+
+        int opened = 0;
+        for (Future<Integer> future : futures) {
+            opened += getOpened(future);
+        }
+
+        return opened;
+    }
+
+    /**
+     * Return number of connections to host in pool including connections used by requests
+     *
+     * @param url url of host, only scheme, host and port are used
+     * @return number of connections
+     * @throws IllegalStateException if browser is not thread safe
+     */
+    public int getConnectionsInPool(String url) {
+        ThreadSafeClientConnManager connManager = getPooledConnectionManager();
+        try {
+            return connManager.getConnectionsInPool(determineRoute(getOrigin(URI.create(url))));
+        } catch (HttpException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Return number of idle connections per host which are kept in pool
+     *
+     * @return number of connections
+     */
+    public int getMinIdleConnectionsPerHost() {
+        return minIdleConnectionsPerHost;
+    }
+
+    /**
+     * Set number of idle connections per host which are kept in pool.
+     * Connections used by requests are not counted, so idle connections are opened
+     * until pool of the host is full. Connections are opened in background to hosts
+     * passed to {@link #warmUp} and hosts to which requests were sent. Expired connections are closed.
+     *
+     * @param minIdleConnectionsPerHost number of connections or {@code 0} to not maintain pool
+     * @throws IllegalStateException if browser is not thread safe
+     */
+    public void setMinIdleConnectionsPerHost(int minIdleConnectionsPerHost) {
+        if (minIdleConnectionsPerHost > 0 && !threadSafe) {
+            throw new IllegalStateException("ANHTTPCLIENT. Connection pool is maintained only by thread safe browser");
+        }
+
+        this.minIdleConnectionsPerHost = minIdleConnectionsPerHost;
+        if (minIdleConnectionsPerHost > 0) {
+            synchronized (this) {
+                if (!maintainerScheduled) {
+                    maintainerScheduled = true;
+                    connectionMaintainer.schedule(new ConnectionMaintenance(this),
+                            connectionMaintenanceInterval, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+    }
+
+    public long getConnectionMaintenanceInterval() {
+        return connectionMaintenanceInterval;
+    }
+
+    /**
+     * Set interval between checks of number of pooled connections,
+     * see {@link #setMinIdleConnectionsPerHost}
+     *
+     * @param connectionMaintenanceInterval interval in milliseconds
+     */
+    public void setConnectionMaintenanceInterval(long connectionMaintenanceInterval) {
+        this.connectionMaintenanceInterval = connectionMaintenanceInterval;
+    }
+
+    /**
+     * Periodic task which keeps minimal number of pooled connections.
+     * Does not prevent browser from being garbage collected.
+     */
+    private static final class ConnectionMaintenance implements Runnable {
+        private final WeakReference<DefaultWebBrowser> webBrowser;
+
+        ConnectionMaintenance(DefaultWebBrowser webBrowser) {
+            this.webBrowser = new WeakReference<DefaultWebBrowser>(webBrowser);
+        }
+
+        public void run() {
+            DefaultWebBrowser browser = webBrowser.get();
+            if (browser != null && browser.maintainConnections()) {
+                connectionMaintainer.schedule(this, browser.connectionMaintenanceInterval, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Closes expired connections and opens missing ones
+     *
+     * @return {@code true} if pool should be maintained further
+     */
+    private boolean maintainConnections() {
+        synchronized (this) {
+            if (minIdleConnectionsPerHost <= 0) {
+                maintainerScheduled = false;
+                return false;
+            }
+        }
+
+        try {
+            ThreadSafeClientConnManager connManager = getPooledConnectionManager();
+            connManager.closeExpiredConnections();
+            for (String origin : pooledHosts.keySet()) {
+                openConnections(connManager, origin, minIdleConnectionsPerHost);
+            }
+        } catch (RuntimeException e) {
+            log.warn("ANHTTPCLIENT. Connection pool maintenance failed", e);
+        }
+
+        return true;
+    }
+
+    private ThreadSafeClientConnManager getPooledConnectionManager() {
+        initHttpClient();
+        if (!(httpClient instanceof AbstractHttpClient)
+                || !(httpClient.getConnectionManager() instanceof ThreadSafeClientConnManager)) {
+            throw new IllegalStateException("ANHTTPCLIENT. Connection pool is used only by thread safe browser");
+        }
+
+        return (ThreadSafeClientConnManager) httpClient.getConnectionManager();
+    }
+
+    private static String getOrigin(URI uri) {
+        return uri.getPort() != -1
+                ? uri.getScheme() + "://" + uri.getHost() + ":" + uri.getPort()
+                : uri.getScheme() + "://" + uri.getHost();
+    }
+
+    /* route is determined the same way as for requests, so pooled connections are reused by them */
+    private HttpRoute determineRoute(String origin) throws HttpException {
+        URI uri = URI.create(origin);
+        HttpGet request = new HttpGet(uri);
+        request.setParams(httpClient.getParams());
+
+        return ((AbstractHttpClient) httpClient).getRoutePlanner()
+                .determineRoute(URIUtils.extractHost(uri), request, new BasicHttpContext());
+    }
+
+    /**
+     * Opens connections to host until pool contains passed number of idle ones.
+     * Idle connections are counted by leasing them until lease would block,
+     * so connections used by requests are not counted and requests never wait for them.
+     *
+     * @param connManager pooled connection manager
+     * @param origin scheme, host and port of host
+     * @param count number of idle connections which should be in pool
+     * @return number of opened connections
+     */
+    private int openConnections(ThreadSafeClientConnManager connManager, String origin, int count) {
+        final HttpRoute route;
+        try {
+            route = determineRoute(origin);
+        } catch (HttpException e) {
+            log.warn(String.format("ANHTTPCLIENT. Can't determine route to %s", origin), e);
+            return 0;
+        }
+
+        if (route.isTunnelled()) {
+            //Tunnels through proxy are established by request director only
+            return 0;
+        }
+
+        //Connections are leased all at once, so every of them is distinct.
+        //Pool returns idle connections first and new ones while it is not full
+        int target = Math.min(count, connManager.getMaxForRoute(route));
+        List<ManagedClientConnection> connections = new ArrayList<ManagedClientConnection>();
+        try {
+            for (int i = 0; i < target; i++) {
+                connections.add(connManager.requestConnection(route, null).getConnection(POOL_LEASE_TIMEOUT, TimeUnit.MILLISECONDS));
+            }
+        } catch (ConnectionPoolTimeoutException e) {
+            //Pool of the host is full, the rest of connections are used by requests
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+            for (final ManagedClientConnection connection : connections) {
+                futures.add(connectionOpener.submit(new Callable<Integer>() {
+                    public Integer call() throws IOException {
+                        boolean open = connection.isOpen();
+                        if (!open) {
+                            connection.open(route, new BasicHttpContext(), httpClient.getParams());
+                        }
+
+                        connection.markReusable();
+                        return open ? 0 : 1;
+                    }
+                }));
+            }
+
+            int opened = 0;
+            for (Future<Integer> future : futures) {
+                opened += getOpened(future);
+            }
+
+            return opened;
+        } finally {
+            for (ManagedClientConnection connection : connections) {
+                connManager.releaseConnection(connection, 0, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private int getOpened(Future<Integer> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.warn("ANHTTPCLIENT. Can't open connection", e.getCause());
+        }
+
+        return 0;
+    }
+
+    /**
+     * Return resolver of host names of this browser
+     *
+     * @return DNS resolver
+     */
+    public DnsResolver getDnsResolver() {
+        return dnsResolver;
+    }
+
+    /**
+     * Set resolver of host names which is used for new connections,
+     * e.g. {@link anhttpclient.impl.conn.CachingDnsResolver}.
+     * Takes effect only if httpClient is initialized inside DefaultWebBrowser.
+     *
+     * @param dnsResolver DNS resolver or {@code null} to use resolver of JVM
+     */
+    public void setDnsResolver(DnsResolver dnsResolver) {
+        this.dnsResolver = dnsResolver != null ? dnsResolver : new SystemDnsResolver();
+    }
+
+    /**
+     * Return TLS context of this browser
+     *
+     * @return TLS context
+     */
+    public TlsContext getTlsContext() {
+        return tlsContext;
+    }
+
+    /**
+     * Set TLS context which is used for new {@code https} connections.
+     * By default all browsers share {@link TlsContext#getDefault}, so TLS sessions
+     * established by one browser are resumed by others.
+     *
+     * @param tlsContext TLS context or {@code null} to use default one
+     */
+    public void setTlsContext(TlsContext tlsContext) {
+        synchronized (this) {
+            this.tlsContext = tlsContext != null ? tlsContext : TlsContext.getDefault();
+            if (httpClient != null && initialized) {
+                httpClient.getConnectionManager().getSchemeRegistry().register(new Scheme(
+                        ClientConnectionManagerFactoryImpl.HTTPS_SCHEME,
+                        ClientConnectionManagerFactoryImpl.HTTPS_PORT,
+                        this.tlsContext.getSocketFactory()));
+            }
+        }
+    }
+
+    /**
+     * Return socket options profile of this browser
+     *
+     * @return socket options profile
+     */
+    public SocketOptionsProfile getSocketOptionsProfile() {
+        return socketOptionsProfile;
+    }
+
+    /**
+     * Set socket options profile: default options of sockets and options of particular hosts.
+     * Options are applied to new connections.
+     * Takes effect only if httpClient is initialized inside DefaultWebBrowser.
+     *
+     * @param socketOptionsProfile socket options profile or {@code null} to use defaults of OS
+     */
+    public void setSocketOptionsProfile(SocketOptionsProfile socketOptionsProfile) {
+        this.socketOptionsProfile = socketOptionsProfile != null ? socketOptionsProfile : new SocketOptionsProfile();
+    }
+
+    /**
+     * Return routes of hosts over unix domain sockets of this browser
+     *
+     * @return unix socket routes
+     */
+    public UnixSocketRoutes getUnixSocketRoutes() {
+        return unixSocketRoutes;
+    }
+
+    /**
+     * Set routes of hosts over unix domain sockets, e.g. to local sidecar proxy.
+     * Routes are applied to new connections.
+     * Takes effect only if httpClient is initialized inside DefaultWebBrowser.
+     *
+     * @param unixSocketRoutes unix socket routes or {@code null} to connect all hosts over TCP
+     */
+    public void setUnixSocketRoutes(UnixSocketRoutes unixSocketRoutes) {
+        this.unixSocketRoutes = unixSocketRoutes != null ? unixSocketRoutes : new UnixSocketRoutes();
+    }
+
+    /**
+     * Return request scheduler of this browser
+     *
+     * @return request scheduler or {@code null} if requests are sent in order of arrival
+     */
+    public RequestScheduler getRequestScheduler() {
+        return requestScheduler;
+    }
+
+    /**
+     * Set scheduler which limits number of requests sent at once
+     * and sends waiting requests in order of {@link WebRequest#getPriority}.
+     *
+     * @param requestScheduler request scheduler or {@code null} to not use it
+     */
+    public void setRequestScheduler(RequestScheduler requestScheduler) {
+        this.requestScheduler = requestScheduler;
+    }
+
+    /**
+     * Return endpoint groups of this browser
+     *
+     * @return unmodifiable collection of groups
+     */
+    public Collection<EndpointGroup> getEndpointGroups() {
+        return Collections.unmodifiableCollection(endpointGroups.values());
+    }
+
+    /**
+     * Adds group of endpoints. Requests to host of the group will be sent to its endpoints.
+     * Rate limiter, concurrency limiter and circuit breaker are applied to endpoints.
+     *
+     * @param endpointGroup group of endpoints, replaces existing group of the same host
+     */
+    public void addEndpointGroup(EndpointGroup endpointGroup) {
+        endpointGroups.put(endpointGroup.getHost(), endpointGroup);
+    }
+
+    /**
+     * Removes group of endpoints
+     *
+     * @param host logical host of the group
+     */
+    public void removeEndpointGroup(String host) {
+        endpointGroups.remove(host.toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Return circuit breaker of this browser
+     *
+     * @return circuit breaker or {@code null} if it is not used
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Set circuit breaker which will be used by this browser.
+     * Requests to the hosts which circuit is open fail with {@link CircuitBreakerOpenException}
+     * without sending.
+     *
+     * @param circuitBreaker circuit breaker or {@code null} to send all requests
+     */
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Return hedging policy of this browser
+     *
+     * @return hedging policy or {@code null} if requests are not hedged
+     */
+    public HedgingPolicy getHedgingPolicy() {
+        return hedgingPolicy;
+    }
+
+    /**
+     * Set hedging policy which will be used by this browser.
+     * Hedged requests use separate connections, so only thread safe browser supports hedging.
+     *
+     * @param hedgingPolicy hedging policy or {@code null} to disable hedging
+     * @throws IllegalStateException if browser is not thread safe
+     */
+    public void setHedgingPolicy(HedgingPolicy hedgingPolicy) {
+        if (hedgingPolicy != null && !threadSafe) {
+            throw new IllegalStateException("ANHTTPCLIENT. Hedged requests are supported only by thread safe browser");
+        }
+
+        this.hedgingPolicy = hedgingPolicy;
+    }
+
+    /**
+     * Return retry policy of this browser
+     *
+     * @return retry policy or {@code null} if requests are retried by httpclient
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Set retry policy which will be used by this browser.
+     * If policy is set {@link #setRetryCount retry count} is ignored.
+     *
+     * @param retryPolicy retry policy or {@code null} to let httpclient retry requests
+     *  up to {@link #setRetryCount retry count} times without delay
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Return cookie store of this browser
+     *
+     * @return cookie store
+     */
+    public CookieStore getCookieStore() {
+        return cookieStore;
+    }
+
+    /**
+     * Set cookie store which will be used by this browser.
+     * By default {@link ConcurrentCookieStore} is used.
+     *
+     * @param cookieStore cookie store
+     */
+    public void setCookieStore(CookieStore cookieStore) {
+        if (cookieStore == null) {
+            throw new IllegalArgumentException("ANHTTPCLIENT. Cookie store can not be null");
+        }
+
+        this.cookieStore = cookieStore;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -628,5 +2066,38 @@ public class DefaultWebBrowser implements WebBrowser {
         if (httpRequest.get() != null && !httpRequest.get().isAborted()) {
             httpRequest.get().abort();
         }
+
+        for (ActiveRequest activeRequest : activeRequests.keySet()) {
+            if (activeRequest.getThread() == Thread.currentThread()) {
+                activeRequest.abort();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<RequestHandle> getActiveRequests() {
+        return new ArrayList<RequestHandle>(activeRequests.keySet());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void abortAll() {
+        for (ActiveRequest activeRequest : activeRequests.keySet()) {
+            activeRequest.abort();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void abortAll(String host) {
+        for (ActiveRequest activeRequest : activeRequests.keySet()) {
+            if (host.equalsIgnoreCase(activeRequest.getHost())) {
+                activeRequest.abort();
+            }
+        }
     }
 }
@@ -93,20 +93,17 @@ public final class HttpWebResponse implements WebResponse {
      * @param httpReponse  http response to get request status code and request body
      * @param httpRequestBase original apache {@link HttpRequestBase} to get request URL
      * @param responseBodyCharset excpected charset of the response body
+     * @throws IOException if errors occured while reading response body
      */
-    public HttpWebResponse(HttpResponse httpReponse, HttpRequestBase httpRequestBase, String responseBodyCharset) {
+    public HttpWebResponse(HttpResponse httpReponse, HttpRequestBase httpRequestBase, String responseBodyCharset) throws IOException {
         this.responseBodyCharset = responseBodyCharset;
         this.responseCode = httpReponse.getStatusLine().getStatusCode();
         setResponseHeaders(httpReponse);
-        try {
-            url = new URL(httpRequestBase.getURI().toString());
+        url = new URL(httpRequestBase.getURI().toString());
 
-            //HTTP HEAD request should returns only headers without body
-            if (!RequestMethod.HEAD.toString().equals(httpRequestBase.getMethod())) {
-                setResponseBody(httpReponse);
-            }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        //HTTP HEAD request should returns only headers without body
+        if (!RequestMethod.HEAD.toString().equals(httpRequestBase.getMethod())) {
+            setResponseBody(httpReponse);
         }
     }
 
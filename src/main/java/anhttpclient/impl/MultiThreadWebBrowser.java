@@ -22,40 +22,105 @@
 
 package anhttpclient.impl;
 
+import anhttpclient.RequestHandle;
 import anhttpclient.WebBrowser;
 import anhttpclient.WebResponse;
 import anhttpclient.WebRequest;
+import anhttpclient.impl.conn.DnsResolver;
+import anhttpclient.impl.conn.SocketOptionsProfile;
+import anhttpclient.impl.conn.TlsContext;
+import anhttpclient.impl.conn.UnixSocketRoutes;
+import anhttpclient.impl.cookie.ConcurrentCookieStore;
+import anhttpclient.impl.policy.CircuitBreaker;
+import anhttpclient.impl.policy.ConcurrencyLimiter;
+import anhttpclient.impl.policy.EndpointGroup;
+import anhttpclient.impl.policy.RateLimiter;
+import anhttpclient.impl.policy.RequestScheduler;
+import anhttpclient.impl.policy.RetryPolicy;
 import org.apache.http.cookie.Cookie;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 
 /**
  * Thread safe implementation of {@link anhttpclient.WebBrowser}
- * Difference from ThreadLocalWebBrowser is that this implementation share cookies and other params
+ * Difference from ThreadLocalWebBrowser is that this implementation share cookies and other params.
+ * By default cookies are copied to browser of each thread,
+ * see {@link #MultiThreadWebBrowser(boolean)} for shared cookie store mode.
  *
  * @author Sergey Pilukin
  */
 public final class MultiThreadWebBrowser implements WebBrowser {
-    private Map<String, WebBrowser> webBrowsersList = new HashMap<String, WebBrowser>(); 
+    private Map<String, DefaultWebBrowser> webBrowsersList = new HashMap<String, DefaultWebBrowser>(); 
 
     protected final Map<String, String> defaultHeaders = new HashMap<String, String>();
     protected int retryCount = WebBrowserConstants.DEFAULT_RETRY_COUNT;
     protected int socketTimeout = WebBrowserConstants.DEFAULT_SOCKET_TIMEOUT;
     protected int connectionTimeout = WebBrowserConstants.DEFAULT_CONNECTION_TIMEOUT;
+    protected int requestTimeout = WebBrowserConstants.DEFAULT_REQUEST_TIMEOUT;
+    protected long expectContinueThreshold = WebBrowserConstants.DEFAULT_EXPECT_CONTINUE_THRESHOLD;
+    protected int expectContinueTimeout = WebBrowserConstants.DEFAULT_EXPECT_CONTINUE_TIMEOUT;
+    protected RetryPolicy retryPolicy;
+    protected CircuitBreaker circuitBreaker;
+    protected RateLimiter rateLimiter;
+    protected ConcurrencyLimiter concurrencyLimiter;
+    protected RequestScheduler requestScheduler;
+    protected DnsResolver dnsResolver;
+    protected TlsContext tlsContext;
+    protected SocketOptionsProfile socketOptionsProfile;
+    protected UnixSocketRoutes unixSocketRoutes;
+    protected Map<String, EndpointGroup> endpointGroups = new HashMap<String, EndpointGroup>();
 
     private final Object setRetryCountMonitor = new Object();
     private final Object setSocketTimeoutMonitor = new Object();
     private final Object setConnectionTimeoutMonitor = new Object();
+    private final Object setRequestTimeoutMonitor = new Object();
+    private final Object setExpectContinueMonitor = new Object();
+    private final Object setRetryPolicyMonitor = new Object();
+    private final Object setCircuitBreakerMonitor = new Object();
+    private final Object setRateLimiterMonitor = new Object();
+    private final Object setConcurrencyLimiterMonitor = new Object();
+    private final Object setRequestSchedulerMonitor = new Object();
+    private final Object setDnsResolverMonitor = new Object();
+    private final Object setTlsContextMonitor = new Object();
+    private final Object setSocketOptionsProfileMonitor = new Object();
+    private final Object setUnixSocketRoutesMonitor = new Object();
+    private final Object setEndpointGroupsMonitor = new Object();
+
+    /* cookie store shared by browsers of all threads, null if cookies are copied to each browser */
+    private final ConcurrentCookieStore sharedCookieStore;
+
+    /**
+     * Creates browser which copies cookies to browser of each thread
+     */
+    public MultiThreadWebBrowser() {
+        this(false);
+    }
+
+    /**
+     * Creates browser
+     *
+     * @param shareCookies if {@code true} browsers of all threads will use one concurrent cookie store,
+     * so cookies received by one thread are immediately visible for others
+     * and each cookie is stored only once. Otherwise cookies are copied to browser of each thread.
+     */
+    public MultiThreadWebBrowser(boolean shareCookies) {
+        sharedCookieStore = shareCookies ? new ConcurrentCookieStore() : null;
+    }
 
     private String getThreadName() {
         return Thread.currentThread().getName();
     }
 
-    private void initNewBrowser(WebBrowser webBrowser) {
+    private void initNewBrowser(DefaultWebBrowser webBrowser) {
+        if (sharedCookieStore != null) {
+            webBrowser.setCookieStore(sharedCookieStore);
+        }
         synchronized (defaultHeaders) {
                 Map<String, String> headersProperties = new HashMap<String, String>(defaultHeaders);
                 webBrowser.setDefaultHeaders(headersProperties);
@@ -69,6 +134,45 @@ public final class MultiThreadWebBrowser implements WebBrowser {
         synchronized (setConnectionTimeoutMonitor) {
             webBrowser.setConnectionTimeout(connectionTimeout);
         }
+        synchronized (setRequestTimeoutMonitor) {
+            webBrowser.setRequestTimeout(requestTimeout);
+        }
+        synchronized (setExpectContinueMonitor) {
+            webBrowser.setExpectContinueThreshold(expectContinueThreshold);
+            webBrowser.setExpectContinueTimeout(expectContinueTimeout);
+        }
+        synchronized (setRetryPolicyMonitor) {
+            webBrowser.setRetryPolicy(retryPolicy);
+        }
+        synchronized (setCircuitBreakerMonitor) {
+            webBrowser.setCircuitBreaker(circuitBreaker);
+        }
+        synchronized (setRateLimiterMonitor) {
+            webBrowser.setRateLimiter(rateLimiter);
+        }
+        synchronized (setConcurrencyLimiterMonitor) {
+            webBrowser.setConcurrencyLimiter(concurrencyLimiter);
+        }
+        synchronized (setRequestSchedulerMonitor) {
+            webBrowser.setRequestScheduler(requestScheduler);
+        }
+        synchronized (setDnsResolverMonitor) {
+            webBrowser.setDnsResolver(dnsResolver);
+        }
+        synchronized (setTlsContextMonitor) {
+            webBrowser.setTlsContext(tlsContext);
+        }
+        synchronized (setSocketOptionsProfileMonitor) {
+            webBrowser.setSocketOptionsProfile(socketOptionsProfile);
+        }
+        synchronized (setUnixSocketRoutesMonitor) {
+            webBrowser.setUnixSocketRoutes(unixSocketRoutes);
+        }
+        synchronized (setEndpointGroupsMonitor) {
+            for (EndpointGroup endpointGroup : endpointGroups.values()) {
+                webBrowser.addEndpointGroup(endpointGroup);
+            }
+        }
     }
 
     private final Object getBrowserForCurrentThreadMonitor = new Object();
@@ -246,10 +350,337 @@ public final class MultiThreadWebBrowser implements WebBrowser {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public Integer getRequestTimeout() {
+        return getBrowserForCurrentThread().getRequestTimeout();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setRequestTimeout(Integer requestTimeout) {
+        synchronized (setRequestTimeoutMonitor) {
+            this.requestTimeout = requestTimeout;
+
+            for (WebBrowser webBrowser: webBrowsersList.values()) {
+                webBrowser.setRequestTimeout(requestTimeout);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Long getExpectContinueThreshold() {
+        return getBrowserForCurrentThread().getExpectContinueThreshold();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setExpectContinueThreshold(Long expectContinueThreshold) {
+        synchronized (setExpectContinueMonitor) {
+            this.expectContinueThreshold = expectContinueThreshold;
+
+            for (WebBrowser webBrowser: webBrowsersList.values()) {
+                webBrowser.setExpectContinueThreshold(expectContinueThreshold);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Integer getExpectContinueTimeout() {
+        return getBrowserForCurrentThread().getExpectContinueTimeout();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setExpectContinueTimeout(Integer expectContinueTimeout) {
+        synchronized (setExpectContinueMonitor) {
+            this.expectContinueTimeout = expectContinueTimeout;
+
+            for (WebBrowser webBrowser: webBrowsersList.values()) {
+                webBrowser.setExpectContinueTimeout(expectContinueTimeout);
+            }
+        }
+    }
+
+    /**
+     * Return retry policy shared by browsers of all threads
+     *
+     * @return retry policy or {@code null} if requests are retried by httpclient
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Set retry policy shared by browsers of all threads,
+     * so retry budget of each host is common for all threads.
+     * See {@link DefaultWebBrowser#setRetryPolicy}
+     *
+     * @param retryPolicy retry policy or {@code null} to let httpclient retry requests
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        synchronized (setRetryPolicyMonitor) {
+            this.retryPolicy = retryPolicy;
+
+            for (DefaultWebBrowser webBrowser: webBrowsersList.values()) {
+                webBrowser.setRetryPolicy(retryPolicy);
+            }
+        }
+    }
+
+    /**
+     * Return circuit breaker shared by browsers of all threads
+     *
+     * @return circuit breaker or {@code null} if it is not used
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Set circuit breaker shared by browsers of all threads,
+     * so failures of one thread open circuit for all of them.
+     * See {@link DefaultWebBrowser#setCircuitBreaker}
+     *
+     * @param circuitBreaker circuit breaker or {@code null} to send all requests
+     */
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        synchronized (setCircuitBreakerMonitor) {
+            this.circuitBreaker = circuitBreaker;
+
+            for (DefaultWebBrowser webBrowser: webBrowsersList.values()) {
+                webBrowser.setCircuitBreaker(circuitBreaker);
+            }
+        }
+    }
+
+    /**
+     * Return request rate limiter shared by browsers of all threads
+     *
+     * @return rate limiter or {@code null} if request rate is not limited
+     */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Set request rate limiter shared by browsers of all threads,
+     * so limits are applied to requests of all threads together.
+     * See {@link DefaultWebBrowser#setRateLimiter}
+     *
+     * @param rateLimiter rate limiter or {@code null} to not limit request rate
+     */
+    public void setRateLimiter(RateLimiter rateLimiter) {
+        synchronized (setRateLimiterMonitor) {
+            this.rateLimiter = rateLimiter;
+
+            for (DefaultWebBrowser webBrowser: webBrowsersList.values()) {
+                webBrowser.setRateLimiter(rateLimiter);
+            }
+        }
+    }
+
+    /**
+     * Return concurrency limiter shared by browsers of all threads
+     *
+     * @return concurrency limiter or {@code null} if it is not used
+     */
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    /**
+     * Set concurrency limiter shared by browsers of all threads,
+     * so number of concurrent requests of all threads to one host is limited.
+     * See {@link DefaultWebBrowser#setConcurrencyLimiter}
+     *
+     * @param concurrencyLimiter concurrency limiter or {@code null} to not use it
+     */
+    public void setConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+        synchronized (setConcurrencyLimiterMonitor) {
+            this.concurrencyLimiter = concurrencyLimiter;
+
+            for (DefaultWebBrowser webBrowser: webBrowsersList.values()) {
+                webBrowser.setConcurrencyLimiter(concurrencyLimiter);
+            }
+        }
+    }
+
+    /**
+     * Return request scheduler shared by browsers of all threads
+     *
+     * @return request scheduler or {@code null} if it is not used
+     */
+    public RequestScheduler getRequestScheduler() {
+        return requestScheduler;
+    }
+
+    /**
+     * Set request scheduler shared by browsers of all threads,
+     * so requests of all threads are sent in order of priority.
+     * See {@link DefaultWebBrowser#setRequestScheduler}
+     *
+     * @param requestScheduler request scheduler or {@code null} to not use it
+     */
+    public void setRequestScheduler(RequestScheduler requestScheduler) {
+        synchronized (setRequestSchedulerMonitor) {
+            this.requestScheduler = requestScheduler;
+
+            for (DefaultWebBrowser webBrowser: webBrowsersList.values()) {
+                webBrowser.setRequestScheduler(requestScheduler);
+            }
+        }
+    }
+
+    /**
+     * Return resolver of host names shared by browsers of all threads
+     *
+     * @return DNS resolver or {@code null} if resolver of JVM is used
+     */
+    public DnsResolver getDnsResolver() {
+        return dnsResolver;
+    }
+
+    /**
+     * Set resolver of host names shared by browsers of all threads,
+     * so caching resolver caches addresses for all threads.
+     * See {@link DefaultWebBrowser#setDnsResolver}
+     *
+     * @param dnsResolver DNS resolver or {@code null} to use resolver of JVM
+     */
+    public void setDnsResolver(DnsResolver dnsResolver) {
+        synchronized (setDnsResolverMonitor) {
+            this.dnsResolver = dnsResolver;
+
+            for (DefaultWebBrowser webBrowser: webBrowsersList.values()) {
+                webBrowser.setDnsResolver(dnsResolver);
+            }
+        }
+    }
+
+    /**
+     * Return TLS context of browsers of all threads
+     *
+     * @return TLS context or {@code null} if {@link TlsContext#getDefault} is used
+     */
+    public TlsContext getTlsContext() {
+        return tlsContext;
+    }
+
+    /**
+     * Set TLS context shared by browsers of all threads.
+     * See {@link DefaultWebBrowser#setTlsContext}
+     *
+     * @param tlsContext TLS context or {@code null} to use default one
+     */
+    public void setTlsContext(TlsContext tlsContext) {
+        synchronized (setTlsContextMonitor) {
+            this.tlsContext = tlsContext;
+
+            for (DefaultWebBrowser webBrowser: webBrowsersList.values()) {
+                webBrowser.setTlsContext(tlsContext);
+            }
+        }
+    }
+
+    /**
+     * Return socket options profile of browsers of all threads
+     *
+     * @return socket options profile or {@code null} if defaults of OS are used
+     */
+    public SocketOptionsProfile getSocketOptionsProfile() {
+        return socketOptionsProfile;
+    }
+
+    /**
+     * Set socket options profile shared by browsers of all threads.
+     * See {@link DefaultWebBrowser#setSocketOptionsProfile}
+     *
+     * @param socketOptionsProfile socket options profile or {@code null} to use defaults of OS
+     */
+    public void setSocketOptionsProfile(SocketOptionsProfile socketOptionsProfile) {
+        synchronized (setSocketOptionsProfileMonitor) {
+            this.socketOptionsProfile = socketOptionsProfile;
+
+            for (DefaultWebBrowser webBrowser: webBrowsersList.values()) {
+                webBrowser.setSocketOptionsProfile(socketOptionsProfile);
+            }
+        }
+    }
+
+    /**
+     * Return routes over unix domain sockets of browsers of all threads
+     *
+     * @return unix socket routes or {@code null} if all hosts are connected over TCP
+     */
+    public UnixSocketRoutes getUnixSocketRoutes() {
+        return unixSocketRoutes;
+    }
+
+    /**
+     * Set routes over unix domain sockets shared by browsers of all threads.
+     * See {@link DefaultWebBrowser#setUnixSocketRoutes}
+     *
+     * @param unixSocketRoutes unix socket routes or {@code null} to connect all hosts over TCP
+     */
+    public void setUnixSocketRoutes(UnixSocketRoutes unixSocketRoutes) {
+        synchronized (setUnixSocketRoutesMonitor) {
+            this.unixSocketRoutes = unixSocketRoutes;
+
+            for (DefaultWebBrowser webBrowser: webBrowsersList.values()) {
+                webBrowser.setUnixSocketRoutes(unixSocketRoutes);
+            }
+        }
+    }
+
+    /**
+     * Adds group of endpoints shared by browsers of all threads,
+     * so load of all threads is balanced between endpoints.
+     * See {@link DefaultWebBrowser#addEndpointGroup}
+     *
+     * @param endpointGroup group of endpoints
+     */
+    public void addEndpointGroup(EndpointGroup endpointGroup) {
+        synchronized (setEndpointGroupsMonitor) {
+            endpointGroups.put(endpointGroup.getHost(), endpointGroup);
+
+            for (DefaultWebBrowser webBrowser: webBrowsersList.values()) {
+                webBrowser.addEndpointGroup(endpointGroup);
+            }
+        }
+    }
+
+    /**
+     * Removes group of endpoints
+     *
+     * @param host logical host of the group
+     */
+    public void removeEndpointGroup(String host) {
+        synchronized (setEndpointGroupsMonitor) {
+            endpointGroups.remove(host.toLowerCase(Locale.ENGLISH));
+
+            for (DefaultWebBrowser webBrowser: webBrowsersList.values()) {
+                webBrowser.removeEndpointGroup(host);
+            }
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
     public List<Cookie> getCookies() {
+        if (sharedCookieStore != null) {
+            return sharedCookieStore.getCookies();
+        }
+
         return getBrowserForCurrentThread().getCookies();
     }
 
@@ -257,6 +688,10 @@ public final class MultiThreadWebBrowser implements WebBrowser {
      * {@inheritDoc}
      */
     public Cookie getCookieByName(String name) {
+        if (sharedCookieStore != null) {
+            return sharedCookieStore.getCookieByName(name);
+        }
+
         return getBrowserForCurrentThread().getCookieByName(name);
     }
 
@@ -266,6 +701,11 @@ public final class MultiThreadWebBrowser implements WebBrowser {
      * {@inheritDoc}
      */
     public void addCookie(Cookie cookie) {
+        if (sharedCookieStore != null) {
+            sharedCookieStore.addCookie(cookie);
+            return;
+        }
+
         synchronized (cookieMonitor) {
             for (WebBrowser webBrowser: webBrowsersList.values()) {
                 webBrowser.addCookie(cookie);
@@ -277,6 +717,11 @@ public final class MultiThreadWebBrowser implements WebBrowser {
      * {@inheritDoc}
      */
     public void addCookies(List<Cookie> cookies) {
+        if (sharedCookieStore != null) {
+            getBrowserForCurrentThread().addCookies(cookies);
+            return;
+        }
+
         synchronized (cookieMonitor) {
             for (WebBrowser webBrowser: webBrowsersList.values()) {
                 webBrowser.addCookies(cookies);
@@ -288,6 +733,11 @@ public final class MultiThreadWebBrowser implements WebBrowser {
      * {@inheritDoc}
      */
     public void clearAllCookies() {
+        if (sharedCookieStore != null) {
+            sharedCookieStore.clear();
+            return;
+        }
+
         synchronized (cookieMonitor) {
             for (WebBrowser webBrowser: webBrowsersList.values()) {
                 webBrowser.clearAllCookies();
@@ -323,6 +773,42 @@ public final class MultiThreadWebBrowser implements WebBrowser {
      * {@inheritDoc}
      */
     public void abort() {
-        throw new RuntimeException("Not implemented");
+        getBrowserForCurrentThread().abort();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<RequestHandle> getActiveRequests() {
+        List<RequestHandle> activeRequests = new ArrayList<RequestHandle>();
+        synchronized (getBrowserForCurrentThreadMonitor) {
+            for (WebBrowser webBrowser: webBrowsersList.values()) {
+                activeRequests.addAll(webBrowser.getActiveRequests());
+            }
+        }
+
+        return activeRequests;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void abortAll() {
+        synchronized (getBrowserForCurrentThreadMonitor) {
+            for (WebBrowser webBrowser: webBrowsersList.values()) {
+                webBrowser.abortAll();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void abortAll(String host) {
+        synchronized (getBrowserForCurrentThreadMonitor) {
+            for (WebBrowser webBrowser: webBrowsersList.values()) {
+                webBrowser.abortAll(host);
+            }
+        }
     }
 }
@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpclient.impl;
+
+import anhttpclient.RequestHandle;
+import anhttpclient.WebRequest;
+import anhttpclient.WebResponse;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * <p>Uploads large file to server as several chunks which are sent concurrently.</p>
+ * <p>File is split into ranges of {@link #getChunkSize} bytes, every range is uploaded
+ * by separate request created by {@link ChunkedUploadProtocol} and retried
+ * up to {@link #getChunkRetryCount} times if it fails. When all chunks are uploaded
+ * completion request is sent.</p>
+ * <p>Passed browser is used from several threads at once, so it should be {@link DefaultWebBrowser}
+ * with thread safe connection manager. Chunks share its pool of connections.
+ * If some chunk fails, requests of other chunks which are in progress are aborted.</p>
+ *
+ * @author Sergey Prilukin
+ */
+public class ParallelUploader {
+    public static final Log log = LogFactory.getLog(ParallelUploader.class);
+
+    /**
+     * Default size of one chunk: 8 MB
+     */
+    public static final long DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * Default count of chunks which are uploaded concurrently
+     */
+    public static final int DEFAULT_THREAD_COUNT = 4;
+
+    /**
+     * Default count of retries of every chunk
+     */
+    public static final int DEFAULT_CHUNK_RETRY_COUNT = 3;
+
+    /**
+     * Default delay in milliseconds before chunk is retried
+     */
+    public static final long DEFAULT_RETRY_DELAY = 1000;
+
+    private final DefaultWebBrowser webBrowser;
+    private long chunkSize = DEFAULT_CHUNK_SIZE;
+    private int threadCount = DEFAULT_THREAD_COUNT;
+    private int chunkRetryCount = DEFAULT_CHUNK_RETRY_COUNT;
+    private long retryDelay = DEFAULT_RETRY_DELAY;
+
+    /**
+     * Constructor
+     *
+     * @param webBrowser thread safe browser which will send requests
+     * @throws IllegalArgumentException if browser is not thread safe
+     */
+    public ParallelUploader(DefaultWebBrowser webBrowser) {
+        if (webBrowser == null || !webBrowser.isThreadSafe()) {
+            throw new IllegalArgumentException("ANHTTPCLIENT. Web browser should be thread safe");
+        }
+        this.webBrowser = webBrowser;
+    }
+
+    public long getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(long chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size should be positive");
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    public void setThreadCount(int threadCount) {
+        if (threadCount <= 0) {
+            throw new IllegalArgumentException("Thread count should be positive");
+        }
+        this.threadCount = threadCount;
+    }
+
+    public int getChunkRetryCount() {
+        return chunkRetryCount;
+    }
+
+    public void setChunkRetryCount(int chunkRetryCount) {
+        this.chunkRetryCount = chunkRetryCount;
+    }
+
+    public long getRetryDelay() {
+        return retryDelay;
+    }
+
+    public void setRetryDelay(long retryDelay) {
+        this.retryDelay = retryDelay;
+    }
+
+    /**
+     * Uploads file
+     *
+     * @param file file to upload
+     * @param protocol protocol which creates chunk and completion requests
+     * @return response of completion request or {@code null} if protocol does not complete uploads
+     * @throws IOException if some chunk could not be uploaded after all retries
+     * or if completion request failed
+     */
+    public WebResponse upload(final File file, final ChunkedUploadProtocol protocol) throws IOException {
+        if (!file.isFile()) {
+            throw new FileNotFoundException(file.getAbsolutePath());
+        }
+
+        final long totalLength = file.length();
+        int chunkCount = (int)Math.max(1, (totalLength + chunkSize - 1) / chunkSize);
+
+        WebResponse[] chunkResponses = new WebResponse[chunkCount];
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threadCount, chunkCount));
+        CompletionService<ChunkResult> completionService = new ExecutorCompletionService<ChunkResult>(executor);
+        List<Future<ChunkResult>> futures = new ArrayList<Future<ChunkResult>>(chunkCount);
+        final List<RequestHandle> chunkRequests = new CopyOnWriteArrayList<RequestHandle>();
+        boolean uploaded = false;
+
+        try {
+            for (int i = 0; i < chunkCount; i++) {
+                final int chunkIndex = i;
+                final long offset = i * chunkSize;
+                final long length = Math.min(chunkSize, totalLength - offset);
+
+                futures.add(completionService.submit(new Callable<ChunkResult>() {
+                    public ChunkResult call() throws Exception {
+                        return new ChunkResult(chunkIndex,
+                                uploadChunk(file, protocol, chunkIndex, offset, length, totalLength, chunkRequests));
+                    }
+                }));
+            }
+
+            for (int i = 0; i < chunkCount; i++) {
+                ChunkResult result = completionService.take().get();
+                chunkResponses[result.chunkIndex] = result.response;
+            }
+            uploaded = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("ANHTTPCLIENT. Upload was interrupted: " + file.getAbsolutePath());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException)e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            for (Future<ChunkResult> future : futures) {
+                future.cancel(true);
+            }
+            if (!uploaded) {
+                //Interrupt does not unblock socket I/O, requests in progress are aborted
+                for (RequestHandle chunkRequest : chunkRequests) {
+                    chunkRequest.abort();
+                }
+            }
+            executor.shutdownNow();
+        }
+
+        WebRequest completionRequest = protocol.createCompletionRequest(Arrays.asList(chunkResponses));
+        return completionRequest != null ? webBrowser.getResponse(completionRequest) : null;
+    }
+
+    /**
+     * Uploads one chunk retrying it if necessary
+     *
+     * @param chunkRequests handles of requests of the upload, request of this chunk is added there
+     * @return response of successful chunk request
+     * @throws IOException if chunk was not uploaded after all retries
+     * @throws InterruptedException if upload was cancelled
+     */
+    private WebResponse uploadChunk(File file, ChunkedUploadProtocol protocol,
+                                    int chunkIndex, long offset, long length, long totalLength,
+                                    List<RequestHandle> chunkRequests)
+            throws IOException, InterruptedException {
+
+        IOException lastError = null;
+        for (int attempt = 0; attempt <= chunkRetryCount; attempt++) {
+            if (attempt > 0) {
+                Thread.sleep(retryDelay * attempt);
+            }
+
+            try {
+                WebRequest request = protocol.createChunkRequest(file, chunkIndex, offset, length, totalLength);
+                chunkRequests.add(request.getHandle());
+                WebResponse response;
+                try {
+                    response = webBrowser.getResponse(request);
+                } finally {
+                    chunkRequests.remove(request.getHandle());
+                }
+
+                if (protocol.isChunkUploaded(chunkIndex, response)) {
+                    return response;
+                }
+
+                lastError = new IOException(String.format(
+                        "ANHTTPCLIENT. Chunk %d was rejected with response code %d",
+                        chunkIndex, response.getResponseCode()));
+            } catch (IOException e) {
+                lastError = e;
+            }
+
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException();
+            }
+
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("ANHTTPCLIENT. Chunk %d upload attempt %d failed: %s",
+                        chunkIndex, attempt + 1, lastError.getMessage()));
+            }
+        }
+
+        throw lastError;
+    }
+
+    private static final class ChunkResult {
+        private final int chunkIndex;
+        private final WebResponse response;
+
+        private ChunkResult(int chunkIndex, WebResponse response) {
+            this.chunkIndex = chunkIndex;
+            this.response = response;
+        }
+    }
+}
@@ -22,15 +22,25 @@
 
 package anhttpclient.impl;
 
+import anhttpclient.RequestHandle;
 import anhttpclient.WebBrowser;
 import anhttpclient.WebRequest;
 import anhttpclient.WebResponse;
+import anhttpclient.impl.conn.DnsResolver;
+import anhttpclient.impl.conn.SocketOptionsProfile;
+import anhttpclient.impl.conn.TlsContext;
+import anhttpclient.impl.conn.UnixSocketRoutes;
+import anhttpclient.impl.policy.ConcurrencyLimiter;
+import anhttpclient.impl.policy.RateLimiter;
+import anhttpclient.impl.policy.RequestScheduler;
 import org.apache.http.cookie.Cookie;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.WeakHashMap;
 
 /**
  * Thread safe implementation of {@link anhttpclient.WebBrowser}
@@ -43,13 +53,33 @@ public final class ThreadLocalWebBrowser implements WebBrowser {
 
     private static WebBrowser instance = null;
     
-    protected ThreadLocal<WebBrowser> webBrowser = new ThreadLocal<WebBrowser>() {
+    protected ThreadLocal<DefaultWebBrowser> webBrowser = new ThreadLocal<DefaultWebBrowser>() {
         @Override
-        protected synchronized WebBrowser initialValue() {
-            return new DefaultWebBrowser(false);
+        protected synchronized DefaultWebBrowser initialValue() {
+            DefaultWebBrowser defaultWebBrowser = new DefaultWebBrowser(false);
+            synchronized (webBrowsers) {
+                defaultWebBrowser.setDnsResolver(dnsResolver);
+                defaultWebBrowser.setTlsContext(tlsContext);
+                defaultWebBrowser.setSocketOptionsProfile(socketOptionsProfile);
+                defaultWebBrowser.setUnixSocketRoutes(unixSocketRoutes);
+                webBrowsers.put(defaultWebBrowser, Boolean.TRUE);
+            }
+
+            return defaultWebBrowser;
         }
     };
 
+    /* browsers of all threads, needed to abort requests from other threads */
+    private final Map<DefaultWebBrowser, Boolean> webBrowsers = new WeakHashMap<DefaultWebBrowser, Boolean>();
+
+    private volatile RateLimiter rateLimiter;
+    private volatile ConcurrencyLimiter concurrencyLimiter;
+    private volatile RequestScheduler requestScheduler;
+    private volatile DnsResolver dnsResolver;
+    private volatile TlsContext tlsContext;
+    private volatile SocketOptionsProfile socketOptionsProfile;
+    private volatile UnixSocketRoutes unixSocketRoutes;
+
     private static final Object createInstanceMonitor = new Object();
     
     public static WebBrowser getInstance() {
@@ -64,32 +94,210 @@ public final class ThreadLocalWebBrowser implements WebBrowser {
         return ThreadLocalWebBrowser.instance;
     }
     
+    /**
+     * Return browser of current thread with applied settings
+     * which are shared by all threads
+     *
+     * @return browser of current thread
+     */
+    private WebBrowser getWebBrowserForRequest() {
+        DefaultWebBrowser defaultWebBrowser = webBrowser.get();
+        if (defaultWebBrowser.getRateLimiter() != rateLimiter) {
+            defaultWebBrowser.setRateLimiter(rateLimiter);
+        }
+        if (defaultWebBrowser.getConcurrencyLimiter() != concurrencyLimiter) {
+            defaultWebBrowser.setConcurrencyLimiter(concurrencyLimiter);
+        }
+        if (defaultWebBrowser.getRequestScheduler() != requestScheduler) {
+            defaultWebBrowser.setRequestScheduler(requestScheduler);
+        }
+
+        return defaultWebBrowser;
+    }
+
+    /**
+     * Return request rate limiter shared by browsers of all threads
+     *
+     * @return rate limiter or {@code null} if request rate is not limited
+     */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Set request rate limiter shared by browsers of all threads,
+     * so limits are applied to requests of all threads together.
+     * See {@link DefaultWebBrowser#setRateLimiter}
+     *
+     * @param rateLimiter rate limiter or {@code null} to not limit request rate
+     */
+    public void setRateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Return concurrency limiter shared by browsers of all threads
+     *
+     * @return concurrency limiter or {@code null} if it is not used
+     */
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    /**
+     * Set concurrency limiter shared by browsers of all threads,
+     * so number of concurrent requests of all threads to one host is limited.
+     * See {@link DefaultWebBrowser#setConcurrencyLimiter}
+     *
+     * @param concurrencyLimiter concurrency limiter or {@code null} to not use it
+     */
+    public void setConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    /**
+     * Return request scheduler shared by browsers of all threads
+     *
+     * @return request scheduler or {@code null} if it is not used
+     */
+    public RequestScheduler getRequestScheduler() {
+        return requestScheduler;
+    }
+
+    /**
+     * Set request scheduler shared by browsers of all threads,
+     * so requests of all threads are sent in order of priority.
+     * See {@link DefaultWebBrowser#setRequestScheduler}
+     *
+     * @param requestScheduler request scheduler or {@code null} to not use it
+     */
+    public void setRequestScheduler(RequestScheduler requestScheduler) {
+        this.requestScheduler = requestScheduler;
+    }
+
+    /**
+     * Return resolver of host names shared by browsers of all threads
+     *
+     * @return DNS resolver or {@code null} if resolver of JVM is used
+     */
+    public DnsResolver getDnsResolver() {
+        return dnsResolver;
+    }
+
+    /**
+     * Set resolver of host names shared by browsers of all threads,
+     * so caching resolver caches addresses for all threads.
+     * See {@link DefaultWebBrowser#setDnsResolver}
+     *
+     * @param dnsResolver DNS resolver or {@code null} to use resolver of JVM
+     */
+    public void setDnsResolver(DnsResolver dnsResolver) {
+        this.dnsResolver = dnsResolver;
+        synchronized (webBrowsers) {
+            for (DefaultWebBrowser browser: webBrowsers.keySet()) {
+                browser.setDnsResolver(dnsResolver);
+            }
+        }
+    }
+
+    /**
+     * Return TLS context of browsers of all threads
+     *
+     * @return TLS context or {@code null} if {@link TlsContext#getDefault} is used
+     */
+    public TlsContext getTlsContext() {
+        return tlsContext;
+    }
+
+    /**
+     * Set TLS context shared by browsers of all threads.
+     * See {@link DefaultWebBrowser#setTlsContext}
+     *
+     * @param tlsContext TLS context or {@code null} to use default one
+     */
+    public void setTlsContext(TlsContext tlsContext) {
+        this.tlsContext = tlsContext;
+        synchronized (webBrowsers) {
+            for (DefaultWebBrowser browser: webBrowsers.keySet()) {
+                browser.setTlsContext(tlsContext);
+            }
+        }
+    }
+
+    /**
+     * Return socket options profile of browsers of all threads
+     *
+     * @return socket options profile or {@code null} if defaults of OS are used
+     */
+    public SocketOptionsProfile getSocketOptionsProfile() {
+        return socketOptionsProfile;
+    }
+
+    /**
+     * Set socket options profile shared by browsers of all threads.
+     * See {@link DefaultWebBrowser#setSocketOptionsProfile}
+     *
+     * @param socketOptionsProfile socket options profile or {@code null} to use defaults of OS
+     */
+    public void setSocketOptionsProfile(SocketOptionsProfile socketOptionsProfile) {
+        this.socketOptionsProfile = socketOptionsProfile;
+        synchronized (webBrowsers) {
+            for (DefaultWebBrowser browser: webBrowsers.keySet()) {
+                browser.setSocketOptionsProfile(socketOptionsProfile);
+            }
+        }
+    }
+
+    /**
+     * Return routes over unix domain sockets of browsers of all threads
+     *
+     * @return unix socket routes or {@code null} if all hosts are connected over TCP
+     */
+    public UnixSocketRoutes getUnixSocketRoutes() {
+        return unixSocketRoutes;
+    }
+
+    /**
+     * Set routes over unix domain sockets shared by browsers of all threads.
+     * See {@link DefaultWebBrowser#setUnixSocketRoutes}
+     *
+     * @param unixSocketRoutes unix socket routes or {@code null} to connect all hosts over TCP
+     */
+    public void setUnixSocketRoutes(UnixSocketRoutes unixSocketRoutes) {
+        this.unixSocketRoutes = unixSocketRoutes;
+        synchronized (webBrowsers) {
+            for (DefaultWebBrowser browser: webBrowsers.keySet()) {
+                browser.setUnixSocketRoutes(unixSocketRoutes);
+            }
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
     public WebResponse getResponse(String url) throws IOException {
-        return webBrowser.get().getResponse(url);
+        return getWebBrowserForRequest().getResponse(url);
     }
 
     /**
      * {@inheritDoc}
      */
     public WebResponse getResponse(String url, String expectedResponseCharset) throws IOException {
-        return webBrowser.get().getResponse(url, expectedResponseCharset);
+        return getWebBrowserForRequest().getResponse(url, expectedResponseCharset);
     }
 
     /**
      * {@inheritDoc}
      */
     public WebResponse getResponse(WebRequest webRequest) throws IOException {
-        return webBrowser.get().getResponse(webRequest);
+        return getWebBrowserForRequest().getResponse(webRequest);
     }
 
     /**
      * {@inheritDoc}
      */
     public WebResponse getResponse(WebRequest webRequest, String expectedResponseCharset) throws IOException {
-        return webBrowser.get().getResponse(webRequest, expectedResponseCharset);
+        return getWebBrowserForRequest().getResponse(webRequest, expectedResponseCharset);
     }
 
     /**
@@ -176,6 +384,48 @@ public final class ThreadLocalWebBrowser implements WebBrowser {
         webBrowser.get().setConnectionTimeout(connectionTimeout);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public Integer getRequestTimeout() {
+        return webBrowser.get().getRequestTimeout();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setRequestTimeout(Integer requestTimeout) {
+        webBrowser.get().setRequestTimeout(requestTimeout);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Long getExpectContinueThreshold() {
+        return webBrowser.get().getExpectContinueThreshold();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setExpectContinueThreshold(Long expectContinueThreshold) {
+        webBrowser.get().setExpectContinueThreshold(expectContinueThreshold);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Integer getExpectContinueTimeout() {
+        return webBrowser.get().getExpectContinueTimeout();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setExpectContinueTimeout(Integer expectContinueTimeout) {
+        webBrowser.get().setExpectContinueTimeout(expectContinueTimeout);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -231,4 +481,40 @@ public final class ThreadLocalWebBrowser implements WebBrowser {
     public void abort() {
         webBrowser.get().abort();
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<RequestHandle> getActiveRequests() {
+        List<RequestHandle> activeRequests = new ArrayList<RequestHandle>();
+        synchronized (webBrowsers) {
+            for (WebBrowser browser: webBrowsers.keySet()) {
+                activeRequests.addAll(browser.getActiveRequests());
+            }
+        }
+
+        return activeRequests;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void abortAll() {
+        synchronized (webBrowsers) {
+            for (WebBrowser browser: webBrowsers.keySet()) {
+                browser.abortAll();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void abortAll(String host) {
+        synchronized (webBrowsers) {
+            for (WebBrowser browser: webBrowsers.keySet()) {
+                browser.abortAll(host);
+            }
+        }
+    }
 }
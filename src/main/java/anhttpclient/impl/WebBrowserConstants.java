@@ -50,6 +50,49 @@ public final class WebBrowserConstants {
      */
     public static final int DEFAULT_CONNECTION_TIMEOUT = 30000;
 
+    /**
+     * Default total time of request, {@code 0} means that time is not limited
+     */
+    public static final int DEFAULT_REQUEST_TIMEOUT = 0;
+
+    /**
+     * Default priority of request, see {@link anhttpclient.WebRequest#setPriority}
+     */
+    public static final int DEFAULT_PRIORITY = 0;
+
+    /**
+     * Default maximal number of connections in pool of thread safe browser
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS = 20;
+
+    /**
+     * Default maximal number of connections to one host in pool of thread safe browser
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 2;
+
+    /**
+     * Default number of connections per host which thread safe browser keeps in pool,
+     * {@code 0} means that pool is not maintained
+     */
+    public static final int DEFAULT_MIN_IDLE_CONNECTIONS_PER_HOST = 0;
+
+    /**
+     * Default interval in milliseconds between checks of number of pooled connections
+     */
+    public static final long DEFAULT_CONNECTION_MAINTENANCE_INTERVAL = 5000;
+
+    /**
+     * Default minimal length of request body for which {@code Expect: 100-continue}
+     * handshake is used. Negative value means that handshake is disabled
+     */
+    public static final long DEFAULT_EXPECT_CONTINUE_THRESHOLD = -1;
+
+    /**
+     * Default time in milliseconds to wait for {@code 100 Continue} response
+     * before request body is sent anyway
+     */
+    public static final int DEFAULT_EXPECT_CONTINUE_TIMEOUT = 3000;
+
     /**
      * Default class name of implementation of
      * {@link org.apache.http.conn.ClientConnectionManagerFactory}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpclient.impl.conn;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>{@link DnsResolver} which caches addresses resolved by delegate resolver.
+ * Could be shared between browsers and threads.</p>
+ * <p>Addresses are cached for {@link #getTtl} which could be set for particular host.
+ * When cached addresses are used after {@link #getRefreshAhead} part of their ttl,
+ * they are resolved again in background, so requests do not wait for resolution.
+ * If resolution of expired host fails, stale addresses are used for {@link #getMaxStale}.
+ * Failed resolutions are cached for {@link #getNegativeTtl}.</p>
+ *
+ * @author Sergey Prilukin
+ */
+public class CachingDnsResolver implements DnsResolver {
+    public static final Log log = LogFactory.getLog(CachingDnsResolver.class);
+
+    private static final ExecutorService refresher = Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "anhttpclient-dns-refresher");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final DnsResolver delegate;
+    private final ConcurrentMap<String, Entry> cache = new ConcurrentHashMap<String, Entry>();
+    private final ConcurrentMap<String, Long> hostTtls = new ConcurrentHashMap<String, Long>();
+
+    private volatile long ttl = 60000;
+    private volatile long negativeTtl = 5000;
+    private volatile double refreshAhead = 0.8;
+    private volatile long maxStale = 600000;
+
+    private static final class Entry {
+        /* resolved addresses or null if resolution failed */
+        final InetAddress[] addresses;
+        final UnknownHostException error;
+        final long refreshAt;
+        final long expiresAt;
+
+        /* time until which addresses could be used if host can't be resolved */
+        final long staleUntil;
+        final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Entry(InetAddress[] addresses, UnknownHostException error, long refreshAt, long expiresAt, long staleUntil) {
+            this.addresses = addresses;
+            this.error = error;
+            this.refreshAt = refreshAt;
+            this.expiresAt = expiresAt;
+            this.staleUntil = staleUntil;
+        }
+    }
+
+    /**
+     * Creates resolver which caches addresses resolved by JVM
+     */
+    public CachingDnsResolver() {
+        this(new SystemDnsResolver());
+    }
+
+    /**
+     * Creates resolver
+     *
+     * @param delegate resolver which results are cached
+     */
+    public CachingDnsResolver(DnsResolver delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public InetAddress[] resolve(String host) throws UnknownHostException {
+        final String key = host.toLowerCase(Locale.ENGLISH);
+        final Entry entry = cache.get(key);
+        long now = System.currentTimeMillis();
+        if (entry == null || now >= entry.expiresAt) {
+            return resolveNow(key, entry);
+        }
+
+        if (entry.addresses == null) {
+            throw entry.error;
+        }
+
+        if (now >= entry.refreshAt && entry.refreshing.compareAndSet(false, true)) {
+            refresher.execute(new Runnable() {
+                public void run() {
+                    try {
+                        cache.put(key, newEntry(key, delegate.resolve(key)));
+                    } catch (UnknownHostException e) {
+                        //Cached addresses are used until they expire
+                        log.warn(String.format("ANHTTPCLIENT. Can't refresh addresses of %s", key), e);
+                    } catch (RuntimeException e) {
+                        log.warn(String.format("ANHTTPCLIENT. Can't refresh addresses of %s", key), e);
+                    } finally {
+                        entry.refreshing.set(false);
+                    }
+                }
+            });
+        }
+
+        return entry.addresses.clone();
+    }
+
+    private InetAddress[] resolveNow(String key, Entry staleEntry) throws UnknownHostException {
+        try {
+            InetAddress[] addresses = delegate.resolve(key);
+            cache.put(key, newEntry(key, addresses));
+            return addresses.clone();
+        } catch (UnknownHostException e) {
+            long now = System.currentTimeMillis();
+            if (staleEntry != null && staleEntry.addresses != null && now < staleEntry.staleUntil) {
+                //Stale addresses are cached for a while and refreshed in background on next use
+                log.warn(String.format("ANHTTPCLIENT. Can't resolve %s, using stale addresses", key), e);
+                cache.put(key, new Entry(staleEntry.addresses, null, now,
+                        Math.min(now + negativeTtl, staleEntry.staleUntil), staleEntry.staleUntil));
+                return staleEntry.addresses.clone();
+            }
+
+            cache.put(key, new Entry(null, e, now + negativeTtl, now + negativeTtl, now + negativeTtl));
+            throw e;
+        }
+    }
+
+    private Entry newEntry(String key, InetAddress[] addresses) {
+        long now = System.currentTimeMillis();
+        long ttl = getTtl(key);
+        return new Entry(addresses.clone(), null, now + (long) (ttl * refreshAhead), now + ttl, now + ttl + maxStale);
+    }
+
+    /**
+     * Removes cached addresses of host
+     *
+     * @param host host name
+     */
+    public void invalidate(String host) {
+        cache.remove(host.toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Removes all cached addresses
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Return time for which addresses of host are cached
+     *
+     * @param host host name
+     * @return time in milliseconds
+     */
+    public long getTtl(String host) {
+        Long hostTtl = hostTtls.get(host.toLowerCase(Locale.ENGLISH));
+        return hostTtl != null ? hostTtl : ttl;
+    }
+
+    /**
+     * Set time for which addresses of particular host are cached
+     *
+     * @param host host name
+     * @param ttl time in milliseconds
+     */
+    public void setTtl(String host, long ttl) {
+        hostTtls.put(host.toLowerCase(Locale.ENGLISH), ttl);
+    }
+
+    public long getTtl() {
+        return ttl;
+    }
+
+    /**
+     * Set time for which addresses are cached
+     *
+     * @param ttl time in milliseconds
+     */
+    public void setTtl(long ttl) {
+        this.ttl = ttl;
+    }
+
+    public long getNegativeTtl() {
+        return negativeTtl;
+    }
+
+    /**
+     * Set time for which failed resolution is cached
+     *
+     * @param negativeTtl time in milliseconds
+     */
+    public void setNegativeTtl(long negativeTtl) {
+        this.negativeTtl = negativeTtl;
+    }
+
+    public double getRefreshAhead() {
+        return refreshAhead;
+    }
+
+    /**
+     * Set part of ttl after which used addresses are resolved again in background
+     *
+     * @param refreshAhead value between 0 and 1, {@code 1} disables refresh ahead
+     */
+    public void setRefreshAhead(double refreshAhead) {
+        if (refreshAhead <= 0 || refreshAhead > 1) {
+            throw new IllegalArgumentException("ANHTTPCLIENT. Refresh ahead should be between 0 and 1");
+        }
+
+        this.refreshAhead = refreshAhead;
+    }
+
+    public long getMaxStale() {
+        return maxStale;
+    }
+
+    /**
+     * Set time after expiration during which addresses are used if host can't be resolved
+     *
+     * @param maxStale time in milliseconds, {@code 0} to not use stale addresses
+     */
+    public void setMaxStale(long maxStale) {
+        this.maxStale = maxStale;
+    }
+}
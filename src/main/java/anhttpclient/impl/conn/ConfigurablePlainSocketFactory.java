@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpclient.impl.conn;
+
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.params.HttpParams;
+
+import java.net.Socket;
+import java.net.SocketException;
+
+/**
+ * Factory of sockets for {@code http} scheme which applies {@link SocketOptions}
+ * of connection before socket is connected and creates unix domain sockets
+ * for hosts routed by {@link UnixSocketRoutes}
+ *
+ * @author Sergey Prilukin
+ */
+public class ConfigurablePlainSocketFactory extends PlainSocketFactory {
+
+    @Override
+    public Socket createSocket(HttpParams params) {
+        String unixSocketPath = UnixDomainSocket.getPath(params);
+        Socket socket = unixSocketPath != null ? new UnixDomainSocket(unixSocketPath) : super.createSocket(params);
+        SocketOptions options = SocketOptions.fromParams(params);
+        if (options != null) {
+            try {
+                options.applyTo(socket);
+            } catch (SocketException e) {
+                //Options are applied again after connect by connection operator
+            }
+        }
+
+        return socket;
+    }
+}
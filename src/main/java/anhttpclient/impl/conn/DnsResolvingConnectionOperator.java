@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpclient.impl.conn;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.OperatedClientConnection;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.conn.DefaultClientConnectionOperator;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.DefaultedHttpParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+
+/**
+ * Connection operator which resolves host names by {@link DnsResolver}
+ * and applies {@link SocketOptions} of {@link SocketOptionsProfile} to sockets.
+ * Hosts routed by {@link UnixSocketRoutes} are not resolved and connected over unix domain sockets.
+ *
+ * @author Sergey Prilukin
+ */
+public class DnsResolvingConnectionOperator extends DefaultClientConnectionOperator {
+    private volatile DnsResolver dnsResolver = new SystemDnsResolver();
+    private volatile SocketOptionsProfile socketOptionsProfile = new SocketOptionsProfile();
+    private volatile UnixSocketRoutes unixSocketRoutes = new UnixSocketRoutes();
+
+    public DnsResolvingConnectionOperator(SchemeRegistry schemeRegistry) {
+        super(schemeRegistry);
+    }
+
+    public DnsResolver getDnsResolver() {
+        return dnsResolver;
+    }
+
+    public void setDnsResolver(DnsResolver dnsResolver) {
+        this.dnsResolver = dnsResolver;
+    }
+
+    public UnixSocketRoutes getUnixSocketRoutes() {
+        return unixSocketRoutes;
+    }
+
+    public void setUnixSocketRoutes(UnixSocketRoutes unixSocketRoutes) {
+        this.unixSocketRoutes = unixSocketRoutes;
+    }
+
+    @Override
+    protected InetAddress[] resolveHostname(String host) throws UnknownHostException {
+        if (unixSocketRoutes.getPath(host) != null) {
+            return new InetAddress[] {UnixDomainSocket.getHostAddress(host)};
+        }
+
+        return dnsResolver.resolve(host);
+    }
+
+    public SocketOptionsProfile getSocketOptionsProfile() {
+        return socketOptionsProfile;
+    }
+
+    public void setSocketOptionsProfile(SocketOptionsProfile socketOptionsProfile) {
+        this.socketOptionsProfile = socketOptionsProfile;
+    }
+
+    @Override
+    public void openConnection(OperatedClientConnection conn, HttpHost target, InetAddress local,
+            HttpContext context, HttpParams params) throws IOException {
+        //Options, unix socket and name of target host are passed to socket factory and to prepareSocket
+        HttpParams connectionParams = new BasicHttpParams();
+        connectionParams.setParameter(TlsContext.TARGET_HOST, target.getHostName());
+        connectionParams.setParameter(SocketOptions.SOCKET_OPTIONS, socketOptionsProfile.getOptions(target.getHostName()));
+        connectionParams.setParameter(UnixDomainSocket.UNIX_SOCKET_PATH, unixSocketRoutes.getPath(target.getHostName()));
+        super.openConnection(conn, target, local, context, new DefaultedHttpParams(connectionParams, params));
+    }
+
+    @Override
+    protected void prepareSocket(Socket sock, HttpContext context, HttpParams params) throws IOException {
+        super.prepareSocket(sock, context, params);
+
+        //Options override TCP_NODELAY and SO_LINGER set by parameters of http client
+        SocketOptions options = SocketOptions.fromParams(params);
+        if (options != null) {
+            options.applyTo(sock);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpclient.impl.conn;
+
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.routing.HttpRoutePlanner;
+import org.apache.http.impl.client.AbstractHttpClient;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+
+/**
+ * <p>Route planner which opens connections to logical host of request
+ * to the endpoint set by {@link #setEndpoint}.</p>
+ * <p>Request keeps URL of the logical host: cookies are matched and stored for it,
+ * {@code Host} header contains it unless endpoint host is requested.
+ * Redirects to other hosts are routed as usual.</p>
+ *
+ * @author Sergey Prilukin
+ */
+public class EndpointRoutePlanner implements HttpRoutePlanner {
+
+    /* parameter of request with its endpoint route */
+    private static final String ENDPOINT_ROUTE = "anhttpclient.endpoint-route";
+
+    private final HttpRoutePlanner routePlanner;
+
+    private static final class EndpointRoute {
+        private final HttpHost target;
+        private final HttpHost endpoint;
+        private final boolean preserveHost;
+
+        private EndpointRoute(HttpHost target, HttpHost endpoint, boolean preserveHost) {
+            this.target = target;
+            this.endpoint = endpoint;
+            this.preserveHost = preserveHost;
+        }
+    }
+
+    /**
+     * Creates planner which delegates planning of routes to passed planner
+     *
+     * @param routePlanner planner of routes to target hosts
+     */
+    public EndpointRoutePlanner(HttpRoutePlanner routePlanner) {
+        this.routePlanner = routePlanner;
+    }
+
+    /**
+     * Installs endpoint route planner to passed client
+     *
+     * @param httpClient http client
+     */
+    public static void install(AbstractHttpClient httpClient) {
+        if (httpClient.getRoutePlanner() instanceof EndpointRoutePlanner) {
+            return;
+        }
+
+        httpClient.setRoutePlanner(new EndpointRoutePlanner(httpClient.getRoutePlanner()));
+
+        //should be executed before interceptors which use target host: cookies, Host header, authentication
+        httpClient.addRequestInterceptor(new HttpRequestInterceptor() {
+            public void process(HttpRequest request, HttpContext context) throws HttpException, IOException {
+                EndpointRoute route = getRoute(request.getParams());
+                if (route == null || !route.endpoint.equals(context.getAttribute(ExecutionContext.HTTP_TARGET_HOST))) {
+                    return;
+                }
+
+                if (!route.preserveHost && !request.containsHeader(HTTP.TARGET_HOST)) {
+                    request.addHeader(HTTP.TARGET_HOST, route.endpoint.toHostString());
+                }
+
+                context.setAttribute(ExecutionContext.HTTP_TARGET_HOST, route.target);
+            }
+        }, 0);
+    }
+
+    /**
+     * Routes connections of request to its logical host to endpoint
+     *
+     * @param params parameters of request
+     * @param target scheme, host and port of logical host
+     * @param endpoint scheme, host and port of endpoint
+     * @param preserveHost if {@code true} logical host is sent in {@code Host} header,
+     *  if {@code false} host of endpoint is sent
+     */
+    public static void setEndpoint(HttpParams params, HttpHost target, HttpHost endpoint, boolean preserveHost) {
+        params.setParameter(ENDPOINT_ROUTE, new EndpointRoute(target, endpoint, preserveHost));
+    }
+
+    /**
+     * Removes endpoint of request
+     *
+     * @param params parameters of request
+     */
+    public static void removeEndpoint(HttpParams params) {
+        params.removeParameter(ENDPOINT_ROUTE);
+    }
+
+    /**
+     * Return endpoint of request
+     *
+     * @param params parameters of request
+     * @return scheme, host and port of endpoint or {@code null} if request is not routed to endpoint
+     */
+    public static HttpHost getEndpoint(HttpParams params) {
+        EndpointRoute route = getRoute(params);
+        return route != null ? route.endpoint : null;
+    }
+
+    private static EndpointRoute getRoute(HttpParams params) {
+        return params != null ? (EndpointRoute) params.getParameter(ENDPOINT_ROUTE) : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public HttpRoute determineRoute(HttpHost target, HttpRequest request, HttpContext context) throws HttpException {
+        EndpointRoute route = getRoute(request.getParams());
+        if (route != null && route.target.getHostName().equalsIgnoreCase(target.getHostName())) {
+            return routePlanner.determineRoute(route.endpoint, request, context);
+        }
+
+        return routePlanner.determineRoute(target, request, context);
+    }
+}
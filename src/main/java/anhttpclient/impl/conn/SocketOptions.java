@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpclient.impl.conn;
+
+import org.apache.http.params.HttpParams;
+
+import java.net.Socket;
+import java.net.SocketException;
+
+/**
+ * <p>Options of sockets of connections. Options which are not set ({@code null})
+ * are left as defined by parameters of http client or by OS.</p>
+ * <p>Buffer sizes are set before socket is connected, so large receive buffer
+ * is taken into account in TCP window scaling.</p>
+ *
+ * @author Sergey Prilukin
+ */
+public class SocketOptions {
+
+    /* name of parameter of connection which contains options of its socket */
+    static final String SOCKET_OPTIONS = "socket.options";
+
+    private Boolean tcpNoDelay;
+    private Boolean keepAlive;
+    private Integer receiveBufferSize;
+    private Integer sendBufferSize;
+    private Integer linger;
+
+    public Boolean getTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    /**
+     * Set whether Nagle's algorithm should be disabled, what
+     * decreases latency of small requests
+     *
+     * @param tcpNoDelay value of {@code TCP_NODELAY} or {@code null} to use default one
+     */
+    public void setTcpNoDelay(Boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    public Boolean getKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * Set whether TCP keep-alive probes are sent on idle connection
+     *
+     * @param keepAlive value of {@code SO_KEEPALIVE} or {@code null} to use default one
+     */
+    public void setKeepAlive(Boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    public Integer getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    /**
+     * Set size of receive buffer of socket. Large buffer increases throughput
+     * of downloads from distant hosts.
+     *
+     * @param receiveBufferSize value of {@code SO_RCVBUF} in bytes or {@code null} to use default one
+     */
+    public void setReceiveBufferSize(Integer receiveBufferSize) {
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    public Integer getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    /**
+     * Set size of send buffer of socket
+     *
+     * @param sendBufferSize value of {@code SO_SNDBUF} in bytes or {@code null} to use default one
+     */
+    public void setSendBufferSize(Integer sendBufferSize) {
+        this.sendBufferSize = sendBufferSize;
+    }
+
+    public Integer getLinger() {
+        return linger;
+    }
+
+    /**
+     * Set time for which closing of socket waits for sending of remaining data
+     *
+     * @param linger value of {@code SO_LINGER} in seconds, negative value disables linger,
+     * {@code null} to use default one
+     */
+    public void setLinger(Integer linger) {
+        this.linger = linger;
+    }
+
+    /**
+     * Return options where options set in {@code overrides} replace these ones
+     *
+     * @param overrides options which take precedence, could be {@code null}
+     * @return new options
+     */
+    public SocketOptions merge(SocketOptions overrides) {
+        SocketOptions merged = new SocketOptions();
+        merged.tcpNoDelay = tcpNoDelay;
+        merged.keepAlive = keepAlive;
+        merged.receiveBufferSize = receiveBufferSize;
+        merged.sendBufferSize = sendBufferSize;
+        merged.linger = linger;
+        if (overrides != null) {
+            if (overrides.tcpNoDelay != null) {
+                merged.tcpNoDelay = overrides.tcpNoDelay;
+            }
+            if (overrides.keepAlive != null) {
+                merged.keepAlive = overrides.keepAlive;
+            }
+            if (overrides.receiveBufferSize != null) {
+                merged.receiveBufferSize = overrides.receiveBufferSize;
+            }
+            if (overrides.sendBufferSize != null) {
+                merged.sendBufferSize = overrides.sendBufferSize;
+            }
+            if (overrides.linger != null) {
+                merged.linger = overrides.linger;
+            }
+        }
+
+        return merged;
+    }
+
+    static SocketOptions fromParams(HttpParams params) {
+        return params != null ? (SocketOptions) params.getParameter(SOCKET_OPTIONS) : null;
+    }
+
+    void applyTo(Socket socket) throws SocketException {
+        if (tcpNoDelay != null) {
+            socket.setTcpNoDelay(tcpNoDelay);
+        }
+        if (keepAlive != null) {
+            socket.setKeepAlive(keepAlive);
+        }
+        if (receiveBufferSize != null) {
+            socket.setReceiveBufferSize(receiveBufferSize);
+        }
+        if (sendBufferSize != null) {
+            socket.setSendBufferSize(sendBufferSize);
+        }
+        if (linger != null) {
+            socket.setSoLinger(linger >= 0, Math.max(linger, 0));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SocketOptions[tcpNoDelay=%s, keepAlive=%s, receiveBufferSize=%s, sendBufferSize=%s, linger=%s]",
+                tcpNoDelay, keepAlive, receiveBufferSize, sendBufferSize, linger);
+    }
+}
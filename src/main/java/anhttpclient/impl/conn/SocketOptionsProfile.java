@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpclient.impl.conn;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>{@link SocketOptions} of connections: default options and options of particular hosts
+ * which override default ones. E.g. large receive buffer for host of bulk downloads
+ * and disabled Nagle's algorithm for host of small RPC calls.</p>
+ * <p>Profile could be shared between browsers and threads,
+ * its changes affect connections opened after them.</p>
+ *
+ * @author Sergey Prilukin
+ */
+public class SocketOptionsProfile {
+
+    private volatile SocketOptions defaultOptions = new SocketOptions();
+    private final ConcurrentMap<String, SocketOptions> hostOptions = new ConcurrentHashMap<String, SocketOptions>();
+
+    public SocketOptions getDefaultOptions() {
+        return defaultOptions;
+    }
+
+    /**
+     * Set options of connections to all hosts
+     *
+     * @param defaultOptions options or {@code null} to use defaults of http client and OS
+     */
+    public void setDefaultOptions(SocketOptions defaultOptions) {
+        this.defaultOptions = defaultOptions != null ? defaultOptions : new SocketOptions();
+    }
+
+    public SocketOptions getHostOptions(String host) {
+        return hostOptions.get(host.toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Set options of connections to host which override default options
+     *
+     * @param host name of the host
+     * @param options options of host or {@code null} to use default options
+     */
+    public void setHostOptions(String host, SocketOptions options) {
+        if (options != null) {
+            hostOptions.put(host.toLowerCase(Locale.ENGLISH), options);
+        } else {
+            hostOptions.remove(host.toLowerCase(Locale.ENGLISH));
+        }
+    }
+
+    /**
+     * Return options which are applied to sockets of connections to host
+     *
+     * @param host name of the host
+     * @return default options merged with options of host
+     */
+    public SocketOptions getOptions(String host) {
+        return defaultOptions.merge(host != null ? getHostOptions(host) : null);
+    }
+}
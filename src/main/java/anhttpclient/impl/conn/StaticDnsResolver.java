@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpclient.impl.conn;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * {@link DnsResolver} with fixed addresses of hosts, like {@code hosts} file.
+ * Hosts which addresses are not set are resolved by delegate resolver.
+ * Could be used to pin hosts to local servers in tests.
+ *
+ * @author Sergey Prilukin
+ */
+public class StaticDnsResolver implements DnsResolver {
+    private final ConcurrentMap<String, InetAddress[]> hosts = new ConcurrentHashMap<String, InetAddress[]>();
+    private final DnsResolver delegate;
+
+    /**
+     * Creates resolver which resolves only hosts with set addresses
+     */
+    public StaticDnsResolver() {
+        this(null);
+    }
+
+    /**
+     * Creates resolver
+     *
+     * @param delegate resolver of hosts without set addresses or {@code null}
+     */
+    public StaticDnsResolver(DnsResolver delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Set addresses of host
+     *
+     * @param host host name
+     * @param addresses IP addresses like {@code 127.0.0.1}, host names are resolved by JVM once
+     * @throws UnknownHostException if address could not be parsed or resolved
+     */
+    public void addHost(String host, String... addresses) throws UnknownHostException {
+        InetAddress[] inetAddresses = new InetAddress[addresses.length];
+        for (int i = 0; i < addresses.length; i++) {
+            inetAddresses[i] = InetAddress.getByAddress(host, InetAddress.getByName(addresses[i]).getAddress());
+        }
+
+        hosts.put(host.toLowerCase(Locale.ENGLISH), inetAddresses);
+    }
+
+    /**
+     * Removes addresses of host
+     *
+     * @param host host name
+     */
+    public void removeHost(String host) {
+        hosts.remove(host.toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public InetAddress[] resolve(String host) throws UnknownHostException {
+        InetAddress[] addresses = hosts.get(host.toLowerCase(Locale.ENGLISH));
+        if (addresses != null) {
+            return addresses.clone();
+        }
+
+        if (delegate == null) {
+            throw new UnknownHostException(host);
+        }
+
+        return delegate.resolve(host);
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpclient.impl.conn;
+
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.scheme.LayeredSchemeSocketFactory;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.conn.ssl.X509HostnameVerifier;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>TLS configuration which could be shared between browsers, so they use one
+ * {@link SSLContext} and its session cache. By default all browsers use {@link #getDefault}.</p>
+ * <p>Sockets are created with name of the target host and port of the server, so JSSE could resume
+ * cached sessions (including session tickets if they are enabled in JVM)
+ * instead of full handshakes. Name of the target host is also sent in SNI and verified by
+ * {@link #getHostnameVerifier}, it is passed by {@link DnsResolvingConnectionOperator}
+ * because resolved address could have no name or name of other host.</p>
+ *
+ * @author Sergey Prilukin
+ */
+public class TlsContext {
+
+    /* name of parameter of connection which contains name of the target host */
+    static final String TARGET_HOST = "anhttpclient.target.host";
+
+    private static volatile TlsContext defaultContext;
+
+    private final SSLContext sslContext;
+    private final LayeredSchemeSocketFactory socketFactory = new TlsSocketFactory();
+    private volatile X509HostnameVerifier hostnameVerifier = SSLSocketFactory.BROWSER_COMPATIBLE_HOSTNAME_VERIFIER;
+
+    private final AtomicLong fullHandshakes = new AtomicLong();
+    private final AtomicLong resumedHandshakes = new AtomicLong();
+
+    /**
+     * Return context shared by all browsers which TLS context was not set
+     *
+     * @return default context
+     */
+    public static TlsContext getDefault() {
+        if (defaultContext == null) {
+            synchronized (TlsContext.class) {
+                if (defaultContext == null) {
+                    defaultContext = new TlsContext();
+                }
+            }
+        }
+
+        return defaultContext;
+    }
+
+    /**
+     * Creates context with default key and trust managers of JVM
+     */
+    public TlsContext() {
+        this(newDefaultSSLContext());
+    }
+
+    /**
+     * Creates context
+     *
+     * @param sslContext initialized SSL context
+     */
+    public TlsContext(SSLContext sslContext) {
+        this.sslContext = sslContext;
+    }
+
+    private static SSLContext newDefaultSSLContext() {
+        try {
+            SSLContext sslContext = SSLContext.getInstance(SSLSocketFactory.TLS);
+            sslContext.init(null, null, null);
+            return sslContext;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("ANHTTPCLIENT. Can't initialize SSL context", e);
+        }
+    }
+
+    public SSLContext getSSLContext() {
+        return sslContext;
+    }
+
+    /**
+     * Return factory of sockets for {@code https} scheme
+     *
+     * @return socket factory
+     */
+    public LayeredSchemeSocketFactory getSocketFactory() {
+        return socketFactory;
+    }
+
+    public int getSessionCacheSize() {
+        return sslContext.getClientSessionContext().getSessionCacheSize();
+    }
+
+    /**
+     * Set maximal number of cached sessions
+     *
+     * @param sessionCacheSize number of sessions, {@code 0} means no limit
+     */
+    public void setSessionCacheSize(int sessionCacheSize) {
+        sslContext.getClientSessionContext().setSessionCacheSize(sessionCacheSize);
+    }
+
+    public int getSessionTimeout() {
+        return sslContext.getClientSessionContext().getSessionTimeout();
+    }
+
+    /**
+     * Set time after which cached session could not be resumed
+     *
+     * @param sessionTimeout time in seconds, {@code 0} means no limit
+     */
+    public void setSessionTimeout(int sessionTimeout) {
+        sslContext.getClientSessionContext().setSessionTimeout(sessionTimeout);
+    }
+
+    public X509HostnameVerifier getHostnameVerifier() {
+        return hostnameVerifier;
+    }
+
+    public void setHostnameVerifier(X509HostnameVerifier hostnameVerifier) {
+        this.hostnameVerifier = hostnameVerifier;
+    }
+
+    /**
+     * Return number of handshakes which created new session
+     *
+     * @return number of handshakes
+     */
+    public long getFullHandshakes() {
+        return fullHandshakes.get();
+    }
+
+    /**
+     * Return number of handshakes which resumed cached session
+     *
+     * @return number of handshakes
+     */
+    public long getResumedHandshakes() {
+        return resumedHandshakes.get();
+    }
+
+    private final class TlsSocketFactory implements LayeredSchemeSocketFactory {
+
+        public Socket createSocket(HttpParams params) {
+            //Socket is layered after connect when host of server is known
+            String unixSocketPath = UnixDomainSocket.getPath(params);
+            Socket socket = unixSocketPath != null ? new UnixDomainSocket(unixSocketPath) : new Socket();
+            SocketOptions options = SocketOptions.fromParams(params);
+            if (options != null) {
+                try {
+                    options.applyTo(socket);
+                } catch (SocketException e) {
+                    //Options are applied again after connect by connection operator
+                }
+            }
+
+            return socket;
+        }
+
+        public Socket connectSocket(Socket sock, InetSocketAddress remoteAddress,
+                InetSocketAddress localAddress, HttpParams params) throws IOException {
+            Socket socket = sock != null ? sock : createSocket(params);
+            if (localAddress != null) {
+                socket.setReuseAddress(HttpConnectionParams.getSoReuseaddr(params));
+                socket.bind(localAddress);
+            }
+
+            socket.setSoTimeout(HttpConnectionParams.getSoTimeout(params));
+            try {
+                socket.connect(remoteAddress, HttpConnectionParams.getConnectionTimeout(params));
+            } catch (SocketTimeoutException e) {
+                throw new ConnectTimeoutException(String.format("ANHTTPCLIENT. Connect to %s timed out", remoteAddress));
+            }
+
+            if (socket instanceof SSLSocket) {
+                return socket;
+            }
+
+            String targetHost = params != null ? (String) params.getParameter(TARGET_HOST) : null;
+            return createLayeredSocket(socket, targetHost != null ? targetHost : remoteAddress.getHostName(),
+                    remoteAddress.getPort(), true);
+        }
+
+        public boolean isSecure(Socket sock) {
+            return sock instanceof SSLSocket;
+        }
+
+        public Socket createLayeredSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+            SSLSocket sslSocket = (SSLSocket) sslContext.getSocketFactory().createSocket(socket, host, port, autoClose);
+            try {
+                long handshakeStart = System.currentTimeMillis();
+                sslSocket.startHandshake();
+                if (sslSocket.getSession().getCreationTime() < handshakeStart) {
+                    resumedHandshakes.incrementAndGet();
+                } else {
+                    fullHandshakes.incrementAndGet();
+                }
+
+                hostnameVerifier.verify(host, sslSocket);
+            } catch (IOException e) {
+                sslSocket.close();
+                throw e;
+            }
+
+            return sslSocket;
+        }
+    }
+}
@@ -0,0 +1,447 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpclient.impl.conn;
+
+import org.apache.http.params.HttpParams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * <p>{@link Socket} which is connected to Unix domain socket instead of TCP address,
+ * so http connections could use it without changes.</p>
+ * <p>Unix domain socket channels are available since Java 16 only,
+ * so they are created by reflection. Channel is used in non-blocking mode
+ * with one selector to support socket timeout, so reads and writes are serialized
+ * like they are by http connection anyway. TCP options are ignored.</p>
+ *
+ * @author Sergey Prilukin
+ */
+class UnixDomainSocket extends Socket {
+
+    /* name of parameter of connection which contains path of unix domain socket */
+    static final String UNIX_SOCKET_PATH = "unix.socket.path";
+
+    private static final Method openChannel;
+    private static final Method newAddress;
+    private static final Object unixFamily;
+
+    static {
+        Method open = null;
+        Method address = null;
+        Object family = null;
+        try {
+            open = SocketChannel.class.getMethod("open", Class.forName("java.net.ProtocolFamily"));
+            address = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class);
+            family = Class.forName("java.net.StandardProtocolFamily").getField("UNIX").get(null);
+        } catch (Exception e) {
+            //Unix domain sockets are not supported by JVM
+            open = null;
+        }
+
+        openChannel = open;
+        newAddress = address;
+        unixFamily = family;
+    }
+
+    private final String path;
+    private volatile InetSocketAddress remoteAddress;
+    private volatile SocketChannel channel;
+    private volatile int soTimeout;
+    private Selector selector;
+    private SelectionKey selectionKey;
+    private InputStream inputStream;
+    private OutputStream outputStream;
+    private volatile boolean closed;
+
+    UnixDomainSocket(String path) {
+        this.path = path;
+    }
+
+    static boolean isSupported() {
+        return openChannel != null;
+    }
+
+    static String getPath(HttpParams params) {
+        return params != null ? (String) params.getParameter(UNIX_SOCKET_PATH) : null;
+    }
+
+    /**
+     * Return address which is used instead of address of host connected by unix domain socket
+     *
+     * @param host name of the host
+     * @return loopback address with name of the host
+     * @throws UnknownHostException never
+     */
+    static InetAddress getHostAddress(String host) throws UnknownHostException {
+        return InetAddress.getByAddress(host, new byte[] {127, 0, 0, 1});
+    }
+
+    @Override
+    public void connect(SocketAddress endpoint) throws IOException {
+        connect(endpoint, 0);
+    }
+
+    /**
+     * Connects to unix domain socket. TCP address of the host is only reported
+     * as remote address of the socket, timeout is ignored.
+     */
+    @Override
+    public synchronized void connect(SocketAddress endpoint, int timeout) throws IOException {
+        if (!isSupported()) {
+            throw new SocketException(String.format(
+                    "ANHTTPCLIENT. Can't connect to %s: unix domain sockets require Java 16 or later", path));
+        }
+        if (closed) {
+            throw new SocketException("ANHTTPCLIENT. Socket is closed");
+        }
+
+        SocketChannel socketChannel;
+        try {
+            socketChannel = (SocketChannel) openChannel.invoke(null, unixFamily);
+        } catch (IllegalAccessException e) {
+            throw new SocketException(String.format("ANHTTPCLIENT. Can't open unix domain socket: %s", e));
+        } catch (InvocationTargetException e) {
+            throw unwrap(e);
+        }
+
+        try {
+            socketChannel.connect((SocketAddress) newAddress.invoke(null, path));
+            socketChannel.configureBlocking(false);
+            selector = Selector.open();
+            selectionKey = socketChannel.register(selector, 0);
+        } catch (IOException e) {
+            closeQuietly(socketChannel);
+            if (selector != null) {
+                selector.close();
+            }
+            throw e;
+        } catch (Exception e) {
+            closeQuietly(socketChannel);
+            throw unwrap(e);
+        }
+
+        if (endpoint instanceof InetSocketAddress) {
+            remoteAddress = (InetSocketAddress) endpoint;
+        }
+        channel = socketChannel;
+        inputStream = new ChannelInputStream();
+        outputStream = new ChannelOutputStream();
+    }
+
+    private IOException unwrap(Exception e) {
+        Throwable cause = e instanceof InvocationTargetException ? e.getCause() : e;
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+
+        IOException ioe = new SocketException(String.format("ANHTTPCLIENT. Can't connect to %s: %s", path, cause));
+        ioe.initCause(cause);
+        return ioe;
+    }
+
+    private void closeQuietly(SocketChannel socketChannel) {
+        try {
+            socketChannel.close();
+        } catch (IOException e) {
+            //Nothing to do
+        }
+    }
+
+    private SocketChannel connectedChannel() throws SocketException {
+        SocketChannel socketChannel = channel;
+        if (closed) {
+            throw new SocketException("ANHTTPCLIENT. Socket is closed");
+        }
+        if (socketChannel == null) {
+            throw new SocketException("ANHTTPCLIENT. Socket is not connected");
+        }
+
+        return socketChannel;
+    }
+
+    /* waits until channel is ready for operation during socket timeout, should be called under lock on selector */
+    private void await(int operation) throws IOException {
+        long deadline = soTimeout > 0 ? System.currentTimeMillis() + soTimeout : 0;
+        try {
+            selectionKey.interestOps(operation);
+            while (true) {
+                long timeout = 0;
+                if (deadline > 0) {
+                    timeout = deadline - System.currentTimeMillis();
+                    if (timeout <= 0) {
+                        throw new SocketTimeoutException(String.format("ANHTTPCLIENT. Unix domain socket %s timed out", path));
+                    }
+                }
+
+                int selected = selector.select(timeout);
+                if (closed) {
+                    throw new SocketException("ANHTTPCLIENT. Socket is closed");
+                }
+                if (selected > 0) {
+                    selector.selectedKeys().clear();
+                    return;
+                }
+
+                //Selector could wake up before timeout without ready channel
+            }
+        } catch (ClosedSelectorException e) {
+            throw new SocketException("ANHTTPCLIENT. Socket is closed");
+        } catch (CancelledKeyException e) {
+            throw new SocketException("ANHTTPCLIENT. Socket is closed");
+        }
+    }
+
+    private final class ChannelInputStream extends InputStream {
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return n > 0 ? b[0] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            synchronized (selector) {
+                while (true) {
+                    int n = connectedChannel().read(buffer);
+                    if (n != 0) {
+                        return n;
+                    }
+                    await(SelectionKey.OP_READ);
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            UnixDomainSocket.this.close();
+        }
+    }
+
+    private final class ChannelOutputStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            synchronized (selector) {
+                while (buffer.hasRemaining()) {
+                    if (connectedChannel().write(buffer) == 0) {
+                        await(SelectionKey.OP_WRITE);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            UnixDomainSocket.this.close();
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        connectedChannel();
+        return inputStream;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        connectedChannel();
+        return outputStream;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        if (channel != null) {
+            try {
+                channel.close();
+            } finally {
+                //Wakes up thread which waits for channel
+                selector.close();
+            }
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        return channel != null;
+    }
+
+    @Override
+    public boolean isBound() {
+        return channel != null;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public InetAddress getInetAddress() {
+        InetSocketAddress address = remoteAddress;
+        return address != null ? address.getAddress() : null;
+    }
+
+    @Override
+    public InetAddress getLocalAddress() {
+        return null;
+    }
+
+    @Override
+    public int getPort() {
+        InetSocketAddress address = remoteAddress;
+        return address != null ? address.getPort() : 0;
+    }
+
+    @Override
+    public int getLocalPort() {
+        return -1;
+    }
+
+    @Override
+    public SocketAddress getRemoteSocketAddress() {
+        return remoteAddress;
+    }
+
+    @Override
+    public SocketAddress getLocalSocketAddress() {
+        return null;
+    }
+
+    @Override
+    public void bind(SocketAddress bindpoint) {
+        //Local address is not used by unix domain socket
+    }
+
+    @Override
+    public void setSoTimeout(int timeout) {
+        this.soTimeout = timeout;
+    }
+
+    @Override
+    public int getSoTimeout() {
+        return soTimeout;
+    }
+
+    @Override
+    public void setTcpNoDelay(boolean on) {
+        //Not applicable to unix domain socket
+    }
+
+    @Override
+    public boolean getTcpNoDelay() {
+        return false;
+    }
+
+    @Override
+    public void setSoLinger(boolean on, int linger) {
+        //Not applicable to unix domain socket
+    }
+
+    @Override
+    public int getSoLinger() {
+        return -1;
+    }
+
+    @Override
+    public void setKeepAlive(boolean on) {
+        //Not applicable to unix domain socket
+    }
+
+    @Override
+    public boolean getKeepAlive() {
+        return false;
+    }
+
+    @Override
+    public void setReuseAddress(boolean on) {
+        //Not applicable to unix domain socket
+    }
+
+    @Override
+    public void setReceiveBufferSize(int size) {
+        //Buffers of unix domain socket are not tuned
+    }
+
+    @Override
+    public int getReceiveBufferSize() {
+        return 8192;
+    }
+
+    @Override
+    public void setSendBufferSize(int size) {
+        //Buffers of unix domain socket are not tuned
+    }
+
+    @Override
+    public int getSendBufferSize() {
+        return 8192;
+    }
+
+    @Override
+    public void shutdownInput() {
+        //Connection is shut down on close
+    }
+
+    @Override
+    public void shutdownOutput() {
+        //Connection is shut down on close
+    }
+
+    @Override
+    public String toString() {
+        return String.format("UnixDomainSocket[path=%s]", path);
+    }
+}
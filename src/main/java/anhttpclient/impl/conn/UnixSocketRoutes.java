@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpclient.impl.conn;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>Routes of connections over unix domain sockets instead of TCP,
+ * e.g. to sidecar proxy which listens on local socket file.
+ * Either all hosts or particular hosts could be routed to socket path.
+ * Requests are sent as usual with URL of the host, which is not resolved.</p>
+ * <p>Unix domain sockets require Java 16 or later, see {@link #isSupported}.
+ * Routes could be shared between browsers and threads,
+ * their changes affect connections opened after them.</p>
+ *
+ * @author Sergey Prilukin
+ */
+public class UnixSocketRoutes {
+
+    private volatile String defaultPath;
+    private final ConcurrentMap<String, String> hostPaths = new ConcurrentHashMap<String, String>();
+
+    /**
+     * Return whether JVM supports unix domain sockets
+     *
+     * @return {@code true} if unix domain sockets could be used
+     */
+    public static boolean isSupported() {
+        return UnixDomainSocket.isSupported();
+    }
+
+    public String getDefaultPath() {
+        return defaultPath;
+    }
+
+    /**
+     * Set path of socket which is used for connections to all hosts
+     * which are not routed to other paths
+     *
+     * @param defaultPath path of socket file or {@code null} to use TCP
+     */
+    public void setDefaultPath(String defaultPath) {
+        this.defaultPath = defaultPath;
+    }
+
+    public String getHostPath(String host) {
+        return hostPaths.get(host.toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Set path of socket which is used for connections to host
+     *
+     * @param host name of the host
+     * @param path path of socket file or {@code null} to use default path
+     */
+    public void setHostPath(String host, String path) {
+        if (path != null) {
+            hostPaths.put(host.toLowerCase(Locale.ENGLISH), path);
+        } else {
+            hostPaths.remove(host.toLowerCase(Locale.ENGLISH));
+        }
+    }
+
+    /**
+     * Return path of socket which is used for connections to host
+     *
+     * @param host name of the host
+     * @return path of socket file or {@code null} if TCP is used
+     */
+    public String getPath(String host) {
+        String path = host != null ? getHostPath(host) : null;
+        return path != null ? path : defaultPath;
+    }
+}
@@ -0,0 +1,380 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpclient.impl.cookie;
+
+import org.apache.http.client.CookieStore;
+import org.apache.http.cookie.Cookie;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>Thread safe {@link CookieStore} which indexes cookies by domain and by name.</p>
+ * <p>Reads do not block each other. {@link #forHost} returns view of the store
+ * which contains only cookies of the host and its parent domains, so cookie matching
+ * for request does not scan all cookies of the store.
+ * {@link #getCookieByName} does not scan cookies either: index by name contains only keys
+ * of cookies and cookies themselves are taken from index by domain, so both lookups
+ * always agree.</p>
+ * <p>Expired cookies are removed lazily when they are met during lookup
+ * or by {@link #clearExpired}. Maps of domains and names without cookies are removed too,
+ * so indexes do not grow with number of ever seen domains.</p>
+ *
+ * @author Sergey Prilukin
+ */
+public class ConcurrentCookieStore implements CookieStore {
+
+    /* normalized domain -> (cookie identity -> cookie) */
+    private final ConcurrentMap<String, ConcurrentMap<String, Cookie>> cookiesByDomain =
+            new ConcurrentHashMap<String, ConcurrentMap<String, Cookie>>();
+
+    /* cookie name -> keys of cookies in cookiesByDomain */
+    private final ConcurrentMap<String, ConcurrentMap<CookieKey, Boolean>> cookiesByName =
+            new ConcurrentHashMap<String, ConcurrentMap<CookieKey, Boolean>>();
+
+    /**
+     * Key of cookie in index by domain
+     */
+    private static final class CookieKey {
+        private final String domain;
+        private final String identity;
+
+        private CookieKey(String domain, String identity) {
+            this.domain = domain;
+            this.identity = identity;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CookieKey)) {
+                return false;
+            }
+
+            CookieKey key = (CookieKey) o;
+            return domain.equals(key.domain) && identity.equals(key.identity);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * domain.hashCode() + identity.hashCode();
+        }
+    }
+
+    /**
+     * Lower-case domain without leading dot, empty string if domain is not set
+     *
+     * @param domain domain of cookie or host name
+     * @return normalized domain
+     */
+    private static String normalizeDomain(String domain) {
+        if (domain == null) {
+            return "";
+        }
+
+        String normalized = domain.toLowerCase(Locale.ENGLISH);
+        return normalized.startsWith(".") ? normalized.substring(1) : normalized;
+    }
+
+    /**
+     * Identity of cookie: cookies with same name, domain and path replace each other
+     *
+     * @param cookie cookie
+     * @return identity key
+     */
+    private static String getIdentity(Cookie cookie) {
+        String path = cookie.getPath();
+        if (path == null) {
+            path = "/";
+        }
+
+        return new StringBuilder(cookie.getName().length() + path.length() + 1)
+                .append(cookie.getName()).append(';').append(path).toString();
+    }
+
+    private static <K, V> ConcurrentMap<K, V> getOrCreate(
+            ConcurrentMap<String, ConcurrentMap<K, V>> index, String key) {
+
+        ConcurrentMap<K, V> values = index.get(key);
+        if (values == null) {
+            values = new ConcurrentHashMap<K, V>(4);
+            ConcurrentMap<K, V> existing = index.putIfAbsent(key, values);
+            if (existing != null) {
+                values = existing;
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * Puts value to the map of the index. Value is put only while map is in the index,
+     * map is removed from the index only while it is empty, both under lock on the map.
+     */
+    private static <K, V> void putIndexed(
+            ConcurrentMap<String, ConcurrentMap<K, V>> index, String key, K valueKey, V value) {
+
+        while (true) {
+            ConcurrentMap<K, V> values = getOrCreate(index, key);
+            synchronized (values) {
+                if (index.get(key) == values) {
+                    values.put(valueKey, value);
+                    return;
+                }
+            }
+        }
+    }
+
+    private static <K, V> void removeIfEmpty(
+            ConcurrentMap<String, ConcurrentMap<K, V>> index, String key, ConcurrentMap<K, V> values) {
+
+        synchronized (values) {
+            if (values.isEmpty()) {
+                index.remove(key, values);
+            }
+        }
+    }
+
+    /**
+     * Adds cookie replacing existing one with the same name, domain and path.
+     * If passed cookie is already expired existing cookie is just removed.
+     *
+     * @param cookie cookie to add
+     */
+    public void addCookie(Cookie cookie) {
+        if (cookie == null) {
+            return;
+        }
+
+        String domain = normalizeDomain(cookie.getDomain());
+        String identity = getIdentity(cookie);
+
+        if (cookie.isExpired(new Date())) {
+            remove(domain, identity, null);
+            return;
+        }
+
+        putIndexed(cookiesByDomain, domain, identity, cookie);
+        putIndexed(cookiesByName, cookie.getName(), new CookieKey(domain, identity), Boolean.TRUE);
+    }
+
+    /**
+     * Removes cookie from both indexes
+     *
+     * @param domain normalized domain of cookie
+     * @param identity identity of cookie
+     * @param cookie cookie to remove or {@code null} to remove any cookie with the same identity
+     */
+    private void remove(String domain, String identity, Cookie cookie) {
+        ConcurrentMap<String, Cookie> domainCookies = cookiesByDomain.get(domain);
+        if (domainCookies == null) {
+            return;
+        }
+
+        Cookie removed = cookie != null
+                ? (domainCookies.remove(identity, cookie) ? cookie : null)
+                : domainCookies.remove(identity);
+        if (removed == null) {
+            return;
+        }
+        removeIfEmpty(cookiesByDomain, domain, domainCookies);
+
+        String name = removed.getName();
+        ConcurrentMap<CookieKey, Boolean> namedCookies = cookiesByName.get(name);
+        if (namedCookies != null) {
+            CookieKey key = new CookieKey(domain, identity);
+            namedCookies.remove(key);
+            removeIfEmpty(cookiesByName, name, namedCookies);
+
+            //Cookie with the same identity could be added concurrently, its key should stay
+            ConcurrentMap<String, Cookie> currentCookies = cookiesByDomain.get(domain);
+            if (currentCookies != null && currentCookies.containsKey(identity)) {
+                putIndexed(cookiesByName, name, key, Boolean.TRUE);
+            }
+        }
+    }
+
+    /**
+     * Return all not expired cookies of the store
+     *
+     * @return list of cookies
+     */
+    public List<Cookie> getCookies() {
+        Date now = new Date();
+        List<Cookie> cookies = new ArrayList<Cookie>();
+        for (Map.Entry<String, ConcurrentMap<String, Cookie>> entry : cookiesByDomain.entrySet()) {
+            collectCookies(entry.getKey(), entry.getValue(), now, cookies);
+        }
+
+        return cookies;
+    }
+
+    /**
+     * Return not expired cookies of domain
+     * and all its parent domains which could be sent to this host
+     *
+     * @param host host name
+     * @return list of cookies which could be sent to host
+     */
+    public List<Cookie> getCookies(String host) {
+        Date now = new Date();
+        List<Cookie> cookies = new ArrayList<Cookie>();
+
+        String domain = normalizeDomain(host);
+        while (true) {
+            ConcurrentMap<String, Cookie> domainCookies = cookiesByDomain.get(domain);
+            if (domainCookies != null) {
+                collectCookies(domain, domainCookies, now, cookies);
+            }
+
+            int dotIndex = domain.indexOf('.');
+            if (dotIndex < 0) {
+                break;
+            }
+            domain = domain.substring(dotIndex + 1);
+        }
+
+        //Cookies without domain
+        ConcurrentMap<String, Cookie> domainCookies = cookiesByDomain.get("");
+        if (domainCookies != null) {
+            collectCookies("", domainCookies, now, cookies);
+        }
+
+        return cookies;
+    }
+
+    private void collectCookies(String domain, Map<String, Cookie> domainCookies, Date now, List<Cookie> cookies) {
+        for (Map.Entry<String, Cookie> entry : domainCookies.entrySet()) {
+            Cookie cookie = entry.getValue();
+            if (cookie.isExpired(now)) {
+                remove(domain, entry.getKey(), cookie);
+            } else {
+                cookies.add(cookie);
+            }
+        }
+    }
+
+    /**
+     * Return not expired cookie with passed name.
+     * If there are several cookies with such name for different domains or paths
+     * any of them could be returned.
+     *
+     * @param name name of the cookie
+     * @return cookie with passed name or {@code null} if there is no such cookie
+     */
+    public Cookie getCookieByName(String name) {
+        Map<CookieKey, Boolean> namedCookies = cookiesByName.get(name);
+        if (namedCookies == null) {
+            return null;
+        }
+
+        Date now = new Date();
+        for (CookieKey key : namedCookies.keySet()) {
+            ConcurrentMap<String, Cookie> domainCookies = cookiesByDomain.get(key.domain);
+            Cookie cookie = domainCookies != null ? domainCookies.get(key.identity) : null;
+            if (cookie == null) {
+                continue;
+            }
+
+            if (cookie.isExpired(now)) {
+                remove(key.domain, key.identity, cookie);
+            } else {
+                return cookie;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean clearExpired(Date date) {
+        if (date == null) {
+            return false;
+        }
+
+        boolean removed = false;
+        for (Map.Entry<String, ConcurrentMap<String, Cookie>> domainEntry : cookiesByDomain.entrySet()) {
+            Iterator<Map.Entry<String, Cookie>> iterator = domainEntry.getValue().entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Cookie> entry = iterator.next();
+                if (entry.getValue().isExpired(date)) {
+                    remove(domainEntry.getKey(), entry.getKey(), entry.getValue());
+                    removed = true;
+                }
+            }
+        }
+
+        return removed;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void clear() {
+        cookiesByDomain.clear();
+        cookiesByName.clear();
+    }
+
+    /**
+     * Return view of this store for request to passed host.
+     * {@link CookieStore#getCookies} of the view returns only cookies
+     * which could be sent to this host, all other methods change this store.
+     *
+     * @param host host name of request
+     * @return view of this store
+     */
+    public CookieStore forHost(final String host) {
+        return new CookieStore() {
+            public void addCookie(Cookie cookie) {
+                ConcurrentCookieStore.this.addCookie(cookie);
+            }
+
+            public List<Cookie> getCookies() {
+                return ConcurrentCookieStore.this.getCookies(host);
+            }
+
+            public boolean clearExpired(Date date) {
+                return ConcurrentCookieStore.this.clearExpired(date);
+            }
+
+            public void clear() {
+                ConcurrentCookieStore.this.clear();
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return getCookies().toString();
+    }
+}
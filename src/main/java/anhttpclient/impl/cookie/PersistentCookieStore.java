@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpclient.impl.cookie;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.impl.cookie.BasicClientCookie;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * <p>{@link ConcurrentCookieStore} which persists cookies to the file,
+ * so they survive restart of application.</p>
+ * <p>Every added cookie is appended to the binary log file, clearing the store rewrites the file.
+ * When log grows much bigger than number of live cookies
+ * it is compacted: live cookies are written to the temporary file
+ * which then replaces the log by atomic rename.
+ * On creation store restores cookies by reading the log.</p>
+ * <p>Cookies removed because of expiration are not logged,
+ * they are just skipped during restore.</p>
+ *
+ * @author Sergey Prilukin
+ */
+public class PersistentCookieStore extends ConcurrentCookieStore {
+    public static final Log log = LogFactory.getLog(PersistentCookieStore.class);
+
+    private static final int MAGIC = 0x414E4331; // "ANC1"
+
+    private static final byte ADD_RECORD = 1;
+
+    /* log is not compacted until it has at least this number of records */
+    private static final int MIN_COMPACTION_THRESHOLD = 1000;
+
+    private final File file;
+    private final File tempFile;
+    private final File backupFile;
+    private final Object writeMonitor = new Object();
+
+    private DataOutputStream out;
+    private int logRecords;
+    private int compactionThreshold = MIN_COMPACTION_THRESHOLD;
+
+    /**
+     * Creates store and restores cookies from passed file.
+     * If file does not exist it will be created.
+     *
+     * @param file file to persist cookies
+     * @throws IOException if file could not be read or created
+     */
+    public PersistentCookieStore(File file) throws IOException {
+        this.file = file;
+        this.tempFile = new File(file.getPath() + ".tmp");
+        this.backupFile = new File(file.getPath() + ".bak");
+
+        synchronized (writeMonitor) {
+            recover();
+            boolean truncated = restore();
+            if (truncated || !file.exists()) {
+                compact();
+            } else {
+                openLog();
+                updateCompactionThreshold();
+            }
+        }
+    }
+
+    /**
+     * Finishes compaction interrupted by application crash.
+     * Temporary file is written completely before log is moved to backup,
+     * so if log is missing while backup exists temporary file contains all live cookies.
+     *
+     * @throws IOException if log could not be restored
+     */
+    private void recover() throws IOException {
+        if (!file.exists()) {
+            if (tempFile.exists() && backupFile.exists()) {
+                rename(tempFile, file);
+            } else if (backupFile.exists()) {
+                rename(backupFile, file);
+            }
+        }
+
+        //Leftovers of compaction are either incomplete or already applied
+        tempFile.delete();
+        backupFile.delete();
+    }
+
+    private static void rename(File from, File to) throws IOException {
+        if (!from.renameTo(to)) {
+            throw new IOException(String.format("ANHTTPCLIENT. Can not rename %s to %s", from, to));
+        }
+    }
+
+    /**
+     * Reads cookies from the log file
+     *
+     * @return {@code true} if log ends with incomplete record and should be rewritten
+     * @throws IOException if log could not be read
+     */
+    private boolean restore() throws IOException {
+        if (!file.exists() || file.length() == 0) {
+            return false;
+        }
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(String.format("ANHTTPCLIENT. %s is not a cookie store file", file));
+            }
+
+            while (true) {
+                int record = in.read();
+                if (record < 0) {
+                    return false;
+                }
+
+                if (record == ADD_RECORD) {
+                    super.addCookie(readCookie(in));
+                } else {
+                    log.warn(String.format("ANHTTPCLIENT. Unknown record in cookie store file %s, rest of file is skipped", file));
+                    return true;
+                }
+
+                logRecords++;
+            }
+        } catch (EOFException e) {
+            log.warn(String.format("ANHTTPCLIENT. Cookie store file %s ends with incomplete record", file));
+            return true;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    private void openLog() throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+    }
+
+    private void updateCompactionThreshold() {
+        compactionThreshold = Math.max(MIN_COMPACTION_THRESHOLD, logRecords * 2);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void addCookie(Cookie cookie) {
+        if (cookie == null) {
+            return;
+        }
+
+        synchronized (writeMonitor) {
+            super.addCookie(cookie);
+
+            try {
+                if (out != null) {
+                    out.writeByte(ADD_RECORD);
+                    writeCookie(out, cookie);
+                    out.flush();
+                    logRecords++;
+                }
+
+                if (logRecords >= compactionThreshold) {
+                    compact();
+                }
+            } catch (IOException e) {
+                log.error(String.format("ANHTTPCLIENT. Can not write cookie to %s", file), e);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() {
+        synchronized (writeMonitor) {
+            super.clear();
+
+            try {
+                compact();
+            } catch (IOException e) {
+                log.error(String.format("ANHTTPCLIENT. Can not clear cookies in %s", file), e);
+            }
+        }
+    }
+
+    /**
+     * Rewrites log file with live cookies only
+     *
+     * @throws IOException if log file could not be written
+     */
+    public void compact() throws IOException {
+        synchronized (writeMonitor) {
+            close();
+
+            List<Cookie> cookies = getCookies();
+            DataOutputStream snapshot = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tempFile)));
+            try {
+                snapshot.writeInt(MAGIC);
+                for (Cookie cookie: cookies) {
+                    snapshot.writeByte(ADD_RECORD);
+                    writeCookie(snapshot, cookie);
+                }
+            } finally {
+                snapshot.close();
+            }
+
+            //Rename over existing file is atomic on POSIX systems, but fails on some others
+            if (!tempFile.renameTo(file)) {
+                if (file.exists()) {
+                    backupFile.delete();
+                    rename(file, backupFile);
+                }
+
+                rename(tempFile, file);
+                backupFile.delete();
+            }
+
+            logRecords = cookies.size();
+            updateCompactionThreshold();
+            openLog();
+        }
+    }
+
+    /**
+     * Closes log file. Changes of the store made after closing are not persisted.
+     */
+    public void close() {
+        synchronized (writeMonitor) {
+            if (out != null) {
+                IOUtils.closeQuietly(out);
+                out = null;
+            }
+        }
+    }
+
+    private static void writeCookie(DataOutputStream out, Cookie cookie) throws IOException {
+        out.writeUTF(cookie.getName());
+        writeString(out, cookie.getValue());
+        writeString(out, cookie.getDomain());
+        writeString(out, cookie.getPath());
+        writeString(out, cookie.getComment());
+        out.writeLong(cookie.getExpiryDate() != null ? cookie.getExpiryDate().getTime() : -1);
+        out.writeBoolean(cookie.isSecure());
+        out.writeInt(cookie.getVersion());
+    }
+
+    private static Cookie readCookie(DataInputStream in) throws IOException {
+        BasicClientCookie cookie = new BasicClientCookie(in.readUTF(), readString(in));
+        cookie.setDomain(readString(in));
+        cookie.setPath(readString(in));
+        cookie.setComment(readString(in));
+        long expiryDate = in.readLong();
+        if (expiryDate >= 0) {
+            cookie.setExpiryDate(new Date(expiryDate));
+        }
+        cookie.setSecure(in.readBoolean());
+        cookie.setVersion(in.readInt());
+
+        return cookie;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpclient.impl.entity;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Repeatable entity which content is the remaining bytes of {@link ByteBuffer}.
+ * Buffer position is never changed so entity could be sent several times.
+ * Heap buffers are written directly from backing array, direct buffers are copied
+ * to output stream by chunks, so content is never duplicated in heap as a whole.
+ *
+ * @author Sergey Prilukin
+ */
+public class ByteBufferEntity extends AbstractHttpEntity implements Cloneable {
+
+    private final ByteBuffer buffer;
+
+    /**
+     * Constructor
+     *
+     * @param buffer buffer which remaining bytes will be sent as entity content
+     * @param contentType MIME type of the content, may be {@code null}
+     */
+    public ByteBufferEntity(ByteBuffer buffer, String contentType) {
+        if (buffer == null) {
+            throw new IllegalArgumentException("Source buffer may not be null");
+        }
+
+        this.buffer = buffer.slice();
+        setContentType(contentType);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getContentLength() {
+        return buffer.remaining();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public InputStream getContent() throws IOException {
+        if (buffer.hasArray()) {
+            return new ByteArrayInputStream(buffer.array(), buffer.arrayOffset(), buffer.remaining());
+        }
+
+        byte[] content = new byte[buffer.remaining()];
+        buffer.duplicate().get(content);
+        return new ByteArrayInputStream(content);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeTo(OutputStream outstream) throws IOException {
+        if (outstream == null) {
+            throw new IllegalArgumentException("Output stream may not be null");
+        }
+
+        if (buffer.hasArray()) {
+            outstream.write(buffer.array(), buffer.arrayOffset(), buffer.remaining());
+        } else {
+            ByteBuffer content = buffer.duplicate();
+            byte[] chunk = new byte[Math.min(FileRegionEntity.BUFFER_SIZE, content.remaining())];
+            while (content.hasRemaining()) {
+                int length = Math.min(chunk.length, content.remaining());
+                content.get(chunk, 0, length);
+                outstream.write(chunk, 0, length);
+            }
+        }
+
+        outstream.flush();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isStreaming() {
+        return false;
+    }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        return super.clone();
+    }
+}
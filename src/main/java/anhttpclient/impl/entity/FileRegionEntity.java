@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpclient.impl.entity;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Repeatable entity which content is the whole file or region of the file.
+ * Region is read from the file when entity is written, so the file is never
+ * loaded to memory as a whole.
+ *
+ * @author Sergey Prilukin
+ */
+public class FileRegionEntity extends AbstractHttpEntity implements Cloneable {
+
+    /* size of buffer used to copy the file to output stream */
+    static final int BUFFER_SIZE = 8192;
+
+    private final File file;
+    private final long offset;
+    private final long length;
+
+    /**
+     * Creates entity with whole file as content
+     *
+     * @param file file to send
+     * @param contentType MIME type of the content, may be {@code null}
+     * @throws FileNotFoundException if file does not exist
+     */
+    public FileRegionEntity(File file, String contentType) throws FileNotFoundException {
+        this(file, 0, file.length(), contentType);
+    }
+
+    /**
+     * Creates entity with region of the file as content
+     *
+     * @param file file to send
+     * @param offset position of the first byte of region
+     * @param length count of bytes in region
+     * @param contentType MIME type of the content, may be {@code null}
+     * @throws FileNotFoundException if file does not exist
+     */
+    public FileRegionEntity(File file, long offset, long length, String contentType) throws FileNotFoundException {
+        if (file == null) {
+            throw new IllegalArgumentException("File may not be null");
+        }
+        if (!file.isFile()) {
+            throw new FileNotFoundException(file.getAbsolutePath());
+        }
+        if (offset < 0 || length < 0 || offset + length > file.length()) {
+            throw new IllegalArgumentException(String.format(
+                    "Region [%d, %d) is out of file bounds: %s", offset, offset + length, file.getAbsolutePath()));
+        }
+
+        this.file = file;
+        this.offset = offset;
+        this.length = length;
+        setContentType(contentType);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getContentLength() {
+        return length;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public InputStream getContent() throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            in.getChannel().position(offset);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+
+        return new RegionInputStream(in, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeTo(OutputStream outstream) throws IOException {
+        if (outstream == null) {
+            throw new IllegalArgumentException("Output stream may not be null");
+        }
+
+        FileInputStream in = new FileInputStream(file);
+        try {
+            in.getChannel().position(offset);
+            copy(in, length, outstream);
+            outstream.flush();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Copy bytes of input stream to output stream
+     *
+     * @param in source stream
+     * @param length count of bytes to copy
+     * @param outstream target stream
+     * @throws IOException if source has less bytes than expected or I/O error occurs
+     */
+    static void copy(InputStream in, long length, OutputStream outstream) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(length, 1))];
+        long remaining = length;
+        while (remaining > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0) {
+                throw new IOException("Unexpected end of file, " + remaining + " bytes are missing");
+            }
+            outstream.write(buffer, 0, read);
+            remaining -= read;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isStreaming() {
+        return false;
+    }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        return super.clone();
+    }
+
+    /**
+     * Input stream which returns not more than specified count of bytes
+     */
+    private static class RegionInputStream extends FilterInputStream {
+        private long remaining;
+
+        RegionInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+
+            int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+
+            int count = super.read(b, off, (int)Math.min(len, remaining));
+            if (count > 0) {
+                remaining -= count;
+            }
+
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int)Math.min(super.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
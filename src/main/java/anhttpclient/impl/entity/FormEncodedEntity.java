@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpclient.impl.entity;
+
+import anhttpclient.HttpConstants;
+import org.apache.http.entity.AbstractHttpEntity;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+/**
+ * Repeatable entity with {@code application/x-www-form-urlencoded} form params.
+ * Params are encoded once, directly into byte buffer
+ * using charset which is declared in {@code Content-Type} of the entity,
+ * so content length is known exactly and entity could be resent without re-encoding.
+ *
+ * @author Sergey Prilukin
+ */
+public class FormEncodedEntity extends AbstractHttpEntity implements Cloneable {
+
+    private static final byte[] HEX_DIGITS = "0123456789ABCDEF".getBytes();
+
+    private final Charset charset;
+    private byte[] content;
+    private int length;
+
+    /**
+     * Constructor
+     *
+     * @param formParams (name, value) pairs of form params
+     * @param charset charset which is used to encode params
+     * @throws java.nio.charset.UnsupportedCharsetException if charset is not supported
+     */
+    public FormEncodedEntity(Map<String, String> formParams, String charset) {
+        this.charset = Charset.forName(charset);
+        setContentType(HttpConstants.MIME_FORM_ENCODED + "; charset=" + charset);
+
+        int estimatedLength = 0;
+        for (Map.Entry<String, String> entry : formParams.entrySet()) {
+            estimatedLength += entry.getKey().length() + 2;
+            if (entry.getValue() != null) {
+                estimatedLength += entry.getValue().length();
+            }
+        }
+
+        //Leave some space for escaped characters
+        content = new byte[estimatedLength + (estimatedLength >> 1)];
+
+        for (Map.Entry<String, String> entry : formParams.entrySet()) {
+            if (length > 0) {
+                append((byte)'&');
+            }
+
+            encode(entry.getKey());
+            append((byte)'=');
+            if (entry.getValue() != null) {
+                encode(entry.getValue());
+            }
+        }
+    }
+
+    private static boolean isSafe(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '.' || c == '-' || c == '*' || c == '_';
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > content.length) {
+            byte[] newContent = new byte[Math.max(capacity, content.length << 1)];
+            System.arraycopy(content, 0, newContent, 0, length);
+            content = newContent;
+        }
+    }
+
+    private void append(byte b) {
+        ensureCapacity(length + 1);
+        content[length++] = b;
+    }
+
+    /**
+     * Encode string the same way as {@link java.net.URLEncoder} does
+     * and append it to content
+     *
+     * @param value string to encode
+     */
+    private void encode(String value) {
+        int i = 0;
+        while (i < value.length()) {
+            char c = value.charAt(i);
+            if (isSafe(c)) {
+                append((byte)c);
+                i++;
+            } else if (c == ' ') {
+                append((byte)'+');
+                i++;
+            } else {
+                //Encode all subsequent unsafe characters at once
+                int end = i + 1;
+                while (end < value.length() && !isSafe(value.charAt(end)) && value.charAt(end) != ' ') {
+                    end++;
+                }
+
+                byte[] bytes = value.substring(i, end).getBytes(charset);
+                ensureCapacity(length + bytes.length * 3);
+                for (byte b : bytes) {
+                    content[length++] = '%';
+                    content[length++] = HEX_DIGITS[(b >> 4) & 0xF];
+                    content[length++] = HEX_DIGITS[b & 0xF];
+                }
+
+                i = end;
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getContentLength() {
+        return length;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public InputStream getContent() throws IOException {
+        return new ByteArrayInputStream(content, 0, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeTo(OutputStream outstream) throws IOException {
+        if (outstream == null) {
+            throw new IllegalArgumentException("Output stream may not be null");
+        }
+
+        outstream.write(content, 0, length);
+        outstream.flush();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isStreaming() {
+        return false;
+    }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        return super.clone();
+    }
+}
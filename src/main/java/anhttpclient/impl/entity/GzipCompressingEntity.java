@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpclient.impl.entity;
+
+import anhttpclient.HttpConstants;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.protocol.HTTP;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Wrapper entity which compresses content of the wrapped entity
+ * with gzip while it is written. Compressed content is never buffered,
+ * so its length is unknown and it is sent using chunked transfer encoding.
+ *
+ * @author Sergey Prilukin
+ */
+public class GzipCompressingEntity extends HttpEntityWrapper {
+
+    /**
+     * Size of the buffer used by gzip compressor
+     */
+    public static final int BUFFER_SIZE = 8192;
+
+    private static final Header CONTENT_ENCODING_GZIP = new BasicHeader(HTTP.CONTENT_ENCODING, HttpConstants.GZIP);
+
+    public GzipCompressingEntity(final HttpEntity entity) {
+        super(entity);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Header getContentEncoding() {
+        return CONTENT_ENCODING_GZIP;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getContentLength() {
+        // length of gzipped content is not known
+        return -1;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isChunked() {
+        return true;
+    }
+
+    /**
+     * Compressed content could be only written, see {@link #writeTo}
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeTo(OutputStream outstream) throws IOException {
+        if (outstream == null) {
+            throw new IllegalArgumentException("Output stream may not be null");
+        }
+
+        //Transport stream should stay open, so gzip stream is finished and not closed
+        GzipOutputStream gzip = new GzipOutputStream(outstream);
+        try {
+            wrappedEntity.writeTo(gzip);
+            gzip.finish();
+        } finally {
+            gzip.end();
+        }
+        outstream.flush();
+    }
+
+    /**
+     * Gzip stream which native resources of compressor could be released without closing underlying stream
+     */
+    private static final class GzipOutputStream extends GZIPOutputStream {
+        GzipOutputStream(OutputStream out) throws IOException {
+            super(out, BUFFER_SIZE);
+        }
+
+        void end() {
+            def.end();
+        }
+    }
+}
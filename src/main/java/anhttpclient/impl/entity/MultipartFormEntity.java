@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpclient.impl.entity;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.mime.content.ContentBody;
+import org.apache.http.entity.mime.content.FileBody;
+import org.apache.http.entity.mime.content.InputStreamBody;
+import org.apache.http.protocol.HTTP;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * <p>{@code multipart/form-data} entity which parts are written in order of the passed map.</p>
+ * <p>Headers of all parts are formatted once when entity is created,
+ * so exact content length is known up front if lengths of all parts are known
+ * and request could be sent without chunked transfer encoding.
+ * Content of {@link FileBody} parts is streamed from the file, exactly the length
+ * which was counted in content length is written.</p>
+ *
+ * @author Sergey Prilukin
+ */
+public class MultipartFormEntity extends AbstractHttpEntity {
+
+    public static final String MULTIPART_FORM_DATA = "multipart/form-data";
+
+    private static final String CRLF = "\r\n";
+    private static final String TWO_DASHES = "--";
+    private static final char[] BOUNDARY_CHARS =
+            "-_1234567890abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray();
+    private static final Random random = new Random();
+
+    private final List<Part> parts;
+    private final byte[] closingBoundary;
+    private final long contentLength;
+    private final boolean repeatable;
+
+    /**
+     * Creates entity with random boundary
+     *
+     * @param parts (part name, part body) pairs, parts are written in order of map iteration
+     */
+    public MultipartFormEntity(Map<String, ContentBody> parts) {
+        this(parts, generateBoundary());
+    }
+
+    /**
+     * Creates entity
+     *
+     * @param parts (part name, part body) pairs, parts are written in order of map iteration
+     * @param boundary boundary which delimits parts
+     */
+    public MultipartFormEntity(Map<String, ContentBody> parts, String boundary) {
+        setContentType(MULTIPART_FORM_DATA + "; boundary=" + boundary);
+
+        this.parts = new ArrayList<Part>(parts.size());
+        this.closingBoundary = getBytes(TWO_DASHES + boundary + TWO_DASHES + CRLF);
+
+        long length = closingBoundary.length;
+        boolean allPartsRepeatable = true;
+        for (Map.Entry<String, ContentBody> entry : parts.entrySet()) {
+            Part part = new Part(boundary, entry.getKey(), entry.getValue());
+            this.parts.add(part);
+
+            long bodyLength = part.body.getContentLength();
+            if (length >= 0 && bodyLength >= 0) {
+                length += part.header.length + bodyLength + CRLF.length();
+            } else {
+                length = -1;
+            }
+
+            if (part.body instanceof InputStreamBody) {
+                allPartsRepeatable = false;
+            }
+        }
+
+        this.contentLength = length;
+        this.repeatable = allPartsRepeatable;
+        setChunked(length < 0);
+    }
+
+    private static String generateBoundary() {
+        int length = 30 + random.nextInt(11);
+        StringBuilder boundary = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            boundary.append(BOUNDARY_CHARS[random.nextInt(BOUNDARY_CHARS.length)]);
+        }
+
+        return boundary.toString();
+    }
+
+    private static byte[] getBytes(String value) {
+        try {
+            return value.getBytes(HTTP.UTF_8);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isRepeatable() {
+        return repeatable;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * Multipart content could be only written, see {@link #writeTo}
+     *
+     * @throws UnsupportedOperationException always
+     */
+    public InputStream getContent() throws IOException {
+        throw new UnsupportedOperationException("Multipart form entity does not implement #getContent()");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeTo(OutputStream outstream) throws IOException {
+        if (outstream == null) {
+            throw new IllegalArgumentException("Output stream may not be null");
+        }
+
+        byte[] crlf = getBytes(CRLF);
+
+        for (Part part : parts) {
+            outstream.write(part.header);
+
+            if (part.body instanceof FileBody) {
+                FileInputStream in = new FileInputStream(((FileBody)part.body).getFile());
+                try {
+                    FileRegionEntity.copy(in, part.body.getContentLength(), outstream);
+                } finally {
+                    in.close();
+                }
+            } else {
+                part.body.writeTo(outstream);
+            }
+
+            outstream.write(crlf);
+        }
+
+        outstream.write(closingBoundary);
+        outstream.flush();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isStreaming() {
+        return !repeatable;
+    }
+
+    /**
+     * Part of multipart content with preformatted boundary and headers
+     */
+    private static final class Part {
+        private final byte[] header;
+        private final ContentBody body;
+
+        private Part(String boundary, String name, ContentBody body) {
+            this.body = body;
+
+            StringBuilder header = new StringBuilder(256);
+            header.append(TWO_DASHES).append(boundary).append(CRLF);
+
+            header.append("Content-Disposition: form-data; name=\"").append(name).append("\"");
+            if (body.getFilename() != null) {
+                header.append("; filename=\"").append(body.getFilename()).append("\"");
+            }
+            header.append(CRLF);
+
+            header.append(HTTP.CONTENT_TYPE).append(": ").append(body.getMimeType());
+            if (body.getCharset() != null) {
+                header.append("; charset=").append(body.getCharset());
+            }
+            header.append(CRLF);
+
+            header.append("Content-Transfer-Encoding: ").append(body.getTransferEncoding()).append(CRLF);
+            header.append(CRLF);
+
+            this.header = getBytes(header.toString());
+        }
+    }
+}
@@ -0,0 +1,406 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpclient.impl.policy;
+
+import anhttpclient.WebResponse;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * <p>Per-host circuit breaker which could be shared between browsers and threads.</p>
+ * <p>While circuit of the host is {@link State#CLOSED closed} results of requests
+ * are recorded in the window of latest {@link #getWindowSize} requests. When at least
+ * {@link #getMinimumRequests} requests are recorded and part of failed ones reaches
+ * {@link #getFailureRateThreshold} circuit becomes {@link State#OPEN open}:
+ * requests to the host fail immediately with {@link CircuitBreakerOpenException}.
+ * After {@link #getOpenDuration} circuit becomes {@link State#HALF_OPEN half open}
+ * and lets {@link #getProbeRequests} probe requests through. If all of them succeed
+ * circuit is closed, if any fails circuit is opened again.</p>
+ * <p>Request is failed if I/O error occurs or if response has one of
+ * {@link #getFailureStatusCodes failure status codes}.</p>
+ *
+ * @author Sergey Prilukin
+ */
+public class CircuitBreaker {
+    public static final Log log = LogFactory.getLog(CircuitBreaker.class);
+
+    public static final double DEFAULT_FAILURE_RATE_THRESHOLD = 0.5;
+    public static final int DEFAULT_WINDOW_SIZE = 20;
+    public static final int DEFAULT_MINIMUM_REQUESTS = 10;
+    public static final long DEFAULT_OPEN_DURATION = 10000;
+    public static final int DEFAULT_PROBE_REQUESTS = 1;
+
+    /**
+     * State of the circuit
+     */
+    public enum State {
+        /**
+         * Requests are sent, results are recorded
+         */
+        CLOSED,
+
+        /**
+         * Requests fail without sending
+         */
+        OPEN,
+
+        /**
+         * Only probe requests are sent
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * Listener of circuit state changes
+     */
+    public interface Listener {
+
+        /**
+         * Called after circuit of the host changed its state
+         *
+         * @param host host name
+         * @param from previous state
+         * @param to new state
+         */
+        public void onStateChange(String host, State from, State to);
+    }
+
+    private volatile double failureRateThreshold = DEFAULT_FAILURE_RATE_THRESHOLD;
+    private volatile int windowSize = DEFAULT_WINDOW_SIZE;
+    private volatile int minimumRequests = DEFAULT_MINIMUM_REQUESTS;
+    private volatile long openDuration = DEFAULT_OPEN_DURATION;
+    private volatile int probeRequests = DEFAULT_PROBE_REQUESTS;
+
+    private final Set<Integer> failureStatusCodes = new CopyOnWriteArraySet<Integer>(Arrays.asList(502, 503, 504));
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    private final ConcurrentMap<String, Circuit> circuits = new ConcurrentHashMap<String, Circuit>();
+
+    private final class Circuit {
+        private final String host;
+        private State state = State.CLOSED;
+
+        /* results of latest requests in closed state, true means failure */
+        private boolean[] results = new boolean[windowSize];
+        private int resultCount;
+        private int failureCount;
+        private int resultIndex;
+
+        private long openedAt;
+        private int activeProbes;
+        private int successfulProbes;
+
+        Circuit(String host) {
+            this.host = host;
+        }
+
+        synchronized State getState() {
+            return state;
+        }
+
+        /**
+         * @return {@code true} if request is probe, {@code false} if it is ordinary request
+         * @throws CircuitBreakerOpenException if request is not permitted
+         */
+        boolean acquirePermission() throws CircuitBreakerOpenException {
+            State from;
+            synchronized (this) {
+                from = state;
+                if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openDuration) {
+                    state = State.HALF_OPEN;
+                    activeProbes = 0;
+                    successfulProbes = 0;
+                }
+
+                if (state == State.CLOSED) {
+                    return false;
+                }
+
+                if (state == State.OPEN || activeProbes + successfulProbes >= probeRequests) {
+                    throw new CircuitBreakerOpenException(host);
+                }
+
+                activeProbes++;
+            }
+
+            notifyListeners(host, from, State.HALF_OPEN);
+            return true;
+        }
+
+        void onResult(boolean probe, boolean failure) {
+            State from;
+            State to;
+            synchronized (this) {
+                from = state;
+                if (probe && state == State.HALF_OPEN) {
+                    activeProbes--;
+                    if (failure) {
+                        open();
+                    } else if (++successfulProbes >= probeRequests) {
+                        close();
+                    }
+                } else if (!probe && state == State.CLOSED) {
+                    record(failure);
+                    if (resultCount >= minimumRequests && failureCount >= failureRateThreshold * resultCount) {
+                        open();
+                    }
+                }
+                to = state;
+            }
+
+            notifyListeners(host, from, to);
+        }
+
+        synchronized void onIgnored(boolean probe) {
+            if (probe && state == State.HALF_OPEN) {
+                activeProbes--;
+            }
+        }
+
+        private void record(boolean failure) {
+            if (results.length != windowSize) {
+                results = new boolean[windowSize];
+                resultCount = 0;
+                failureCount = 0;
+                resultIndex = 0;
+            }
+
+            if (resultCount == results.length) {
+                if (results[resultIndex]) {
+                    failureCount--;
+                }
+            } else {
+                resultCount++;
+            }
+
+            results[resultIndex] = failure;
+            if (failure) {
+                failureCount++;
+            }
+            resultIndex = (resultIndex + 1) % results.length;
+        }
+
+        private void open() {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+
+        private void close() {
+            state = State.CLOSED;
+            Arrays.fill(results, false);
+            resultCount = 0;
+            failureCount = 0;
+            resultIndex = 0;
+        }
+    }
+
+    private Circuit getCircuit(String host) {
+        Circuit circuit = circuits.get(host);
+        if (circuit == null) {
+            circuit = new Circuit(host);
+            Circuit existing = circuits.putIfAbsent(host, circuit);
+            if (existing != null) {
+                circuit = existing;
+            }
+        }
+
+        return circuit;
+    }
+
+    private void notifyListeners(String host, State from, State to) {
+        if (from == to) {
+            return;
+        }
+
+        if (to == State.OPEN) {
+            log.warn(String.format("ANHTTPCLIENT. Circuit breaker for host %s is open", host));
+        } else if (log.isInfoEnabled()) {
+            log.info(String.format("ANHTTPCLIENT. Circuit breaker for host %s changed state from %s to %s", host, from, to));
+        }
+
+        for (Listener listener : listeners) {
+            try {
+                listener.onStateChange(host, from, to);
+            } catch (RuntimeException e) {
+                log.error("ANHTTPCLIENT. Circuit breaker listener failed", e);
+            }
+        }
+    }
+
+    /**
+     * Should be called before request is sent
+     *
+     * @param host host of request
+     * @return {@code true} if request is probe request of half open circuit.
+     *  This value should be passed to {@link #onSuccess}, {@link #onFailure} or {@link #onIgnored}
+     * @throws CircuitBreakerOpenException if circuit of the host does not permit request
+     */
+    public boolean acquirePermission(String host) throws CircuitBreakerOpenException {
+        return getCircuit(host).acquirePermission();
+    }
+
+    /**
+     * Should be called when response is received
+     *
+     * @param host host of request
+     * @param probe value returned by {@link #acquirePermission}
+     * @param response received response
+     */
+    public void onResponse(String host, boolean probe, WebResponse response) {
+        if (failureStatusCodes.contains(response.getResponseCode())) {
+            onFailure(host, probe);
+        } else {
+            onSuccess(host, probe);
+        }
+    }
+
+    /**
+     * Should be called when request succeeded
+     *
+     * @param host host of request
+     * @param probe value returned by {@link #acquirePermission}
+     */
+    public void onSuccess(String host, boolean probe) {
+        getCircuit(host).onResult(probe, false);
+    }
+
+    /**
+     * Should be called when request failed
+     *
+     * @param host host of request
+     * @param probe value returned by {@link #acquirePermission}
+     */
+    public void onFailure(String host, boolean probe) {
+        getCircuit(host).onResult(probe, true);
+    }
+
+    /**
+     * Should be called when request was aborted, its result does not change circuit
+     *
+     * @param host host of request
+     * @param probe value returned by {@link #acquirePermission}
+     */
+    public void onIgnored(String host, boolean probe) {
+        getCircuit(host).onIgnored(probe);
+    }
+
+    /**
+     * Return state of the host circuit
+     *
+     * @param host host name
+     * @return state of circuit
+     */
+    public State getState(String host) {
+        Circuit circuit = circuits.get(host);
+        return circuit != null ? circuit.getState() : State.CLOSED;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public double getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    /**
+     * Set part of failed requests in the window which opens circuit, e.g. {@code 0.5} for 50%
+     *
+     * @param failureRateThreshold part of failed requests
+     */
+    public void setFailureRateThreshold(double failureRateThreshold) {
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * Set number of latest requests which results are used to calculate failure rate
+     *
+     * @param windowSize number of requests
+     */
+    public void setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    public int getMinimumRequests() {
+        return minimumRequests;
+    }
+
+    /**
+     * Set minimal number of recorded requests needed to open circuit
+     *
+     * @param minimumRequests number of requests
+     */
+    public void setMinimumRequests(int minimumRequests) {
+        this.minimumRequests = minimumRequests;
+    }
+
+    public long getOpenDuration() {
+        return openDuration;
+    }
+
+    /**
+     * Set time during which open circuit fails requests before letting probe requests through
+     *
+     * @param openDuration time in milliseconds
+     */
+    public void setOpenDuration(long openDuration) {
+        this.openDuration = openDuration;
+    }
+
+    public int getProbeRequests() {
+        return probeRequests;
+    }
+
+    /**
+     * Set number of successful probe requests needed to close half open circuit
+     *
+     * @param probeRequests number of requests
+     */
+    public void setProbeRequests(int probeRequests) {
+        this.probeRequests = probeRequests;
+    }
+
+    /**
+     * Return status codes of responses which are treated as failures
+     *
+     * @return modifiable set of status codes
+     */
+    public Set<Integer> getFailureStatusCodes() {
+        return failureStatusCodes;
+    }
+}
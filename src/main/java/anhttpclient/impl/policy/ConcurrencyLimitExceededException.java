@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpclient.impl.policy;
+
+import java.io.IOException;
+
+/**
+ * Thrown when request is not sent because limit of concurrent requests to its host is reached
+ *
+ * @author Sergey Prilukin
+ */
+public class ConcurrencyLimitExceededException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final String host;
+
+    public ConcurrencyLimitExceededException(String host, int limit) {
+        super(String.format("ANHTTPCLIENT. Limit of %d concurrent requests is reached for host %s", limit, host));
+        this.host = host;
+    }
+
+    /**
+     * Return host which concurrency limit is reached
+     *
+     * @return host name
+     */
+    public String getHost() {
+        return host;
+    }
+}
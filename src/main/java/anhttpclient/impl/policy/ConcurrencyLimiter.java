@@ -0,0 +1,373 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpclient.impl.policy;
+
+import anhttpclient.WebResponse;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * <p>Adaptive per-host limit of concurrent requests which could be shared between browsers and threads.</p>
+ * <p>Limit is adjusted by AIMD algorithm: every successful request increases limit of its host
+ * by {@code 1/limit} (so limit grows by one per round of requests), every dropped request
+ * multiplies limit by {@link #getBackoffRatio}. Request is dropped if it failed by timeout,
+ * its response has one of {@link #getDroppedStatusCodes} or its latency is
+ * more than {@link #getLatencyTolerance} times higher than minimal latency observed recently.
+ * Limit grows only if it is actually used, i.e. at least half of it is in flight.</p>
+ * <p>If limit is reached request either waits (up to {@link #getMaxWait}) until other request
+ * completes or fails with {@link ConcurrencyLimitExceededException}, see {@link #setBlocking}.</p>
+ * <p>Every {@link #acquire} should be followed by exactly one call of
+ * {@link #onResponse}, {@link #onSuccess}, {@link #onFailure}, {@link #onDropped} or {@link #onIgnored}.</p>
+ *
+ * @author Sergey Prilukin
+ */
+public class ConcurrencyLimiter {
+
+    /* number of latency samples after which minimal latency is measured again */
+    private static final int LATENCY_WINDOW = 100;
+
+    /* increase of latency in milliseconds which is always treated as noise */
+    private static final long MIN_LATENCY_INCREASE = 20;
+
+    private final ConcurrentMap<String, Limit> limits = new ConcurrentHashMap<String, Limit>();
+
+    private volatile int initialLimit = 10;
+    private volatile int minLimit = 1;
+    private volatile int maxLimit = 100;
+    private volatile double backoffRatio = 0.9;
+    private volatile double latencyTolerance = 2.0;
+    private volatile boolean blocking = true;
+    private volatile long maxWait = Long.MAX_VALUE;
+    private final Set<Integer> droppedStatusCodes = new CopyOnWriteArraySet<Integer>(Arrays.asList(429, 503));
+
+    /* state of one host, all access is synchronized on it */
+    private final class Limit {
+        double limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        int inFlight;
+
+        /* minimal latency in current and previous windows */
+        long minLatency = Long.MAX_VALUE;
+        long previousMinLatency = Long.MAX_VALUE;
+        int samples;
+
+        synchronized boolean acquire(long timeout) throws InterruptedIOException {
+            long waitUntil = timeout == Long.MAX_VALUE ? Long.MAX_VALUE : System.currentTimeMillis() + timeout;
+            while (inFlight >= (int) limit) {
+                long wait = waitUntil == Long.MAX_VALUE ? 0 : waitUntil - System.currentTimeMillis();
+                if (waitUntil != Long.MAX_VALUE && wait <= 0) {
+                    return false;
+                }
+
+                try {
+                    wait(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("ANHTTPCLIENT. Interrupted while waiting for concurrency limit");
+                }
+            }
+
+            inFlight++;
+            return true;
+        }
+
+        synchronized void release(long latency, boolean dropped) {
+            int oldLimit = (int) limit;
+            if (latency >= 0) {
+                dropped = dropped || isOverloaded(latency);
+                if (!dropped && inFlight * 2 >= limit) {
+                    limit = Math.min(maxLimit, limit + 1 / limit);
+                }
+            }
+
+            if (dropped) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+            }
+
+            inFlight--;
+            if ((int) limit > oldLimit) {
+                notifyAll();
+            } else {
+                notify();
+            }
+        }
+
+        private boolean isOverloaded(long latency) {
+            long baseline = Math.min(minLatency, previousMinLatency);
+
+            minLatency = Math.min(minLatency, latency);
+            if (++samples >= LATENCY_WINDOW) {
+                previousMinLatency = minLatency;
+                minLatency = Long.MAX_VALUE;
+                samples = 0;
+            }
+
+            return baseline != Long.MAX_VALUE
+                    && latency > baseline * latencyTolerance
+                    && latency - baseline > MIN_LATENCY_INCREASE;
+        }
+    }
+
+    private Limit getHostLimit(String host) {
+        Limit limit = limits.get(host);
+        if (limit == null) {
+            limit = new Limit();
+            Limit existing = limits.putIfAbsent(host, limit);
+            if (existing != null) {
+                limit = existing;
+            }
+        }
+
+        return limit;
+    }
+
+    /**
+     * Takes permission to send request to the host.
+     * Waits if limit is reached and limiter is blocking.
+     *
+     * @param host host of request
+     * @throws ConcurrencyLimitExceededException if limit is reached and limiter is not blocking
+     *  or other request was not completed during {@link #getMaxWait}
+     * @throws InterruptedIOException if thread was interrupted while waiting
+     */
+    public void acquire(String host) throws ConcurrencyLimitExceededException, InterruptedIOException {
+        acquire(host, Long.MAX_VALUE);
+    }
+
+    /**
+     * Takes permission to send request to the host.
+     * Waits if limit is reached and limiter is blocking, but not longer than passed timeout.
+     *
+     * @param host host of request
+     * @param timeout maximal time to wait in milliseconds
+     * @throws ConcurrencyLimitExceededException if limit is reached and limiter is not blocking
+     *  or other request was not completed during timeout or {@link #getMaxWait}
+     * @throws InterruptedIOException if thread was interrupted while waiting
+     */
+    public void acquire(String host, long timeout) throws ConcurrencyLimitExceededException, InterruptedIOException {
+        Limit limit = getHostLimit(host);
+        if (!limit.acquire(blocking ? Math.max(0, Math.min(timeout, maxWait)) : 0)) {
+            throw new ConcurrencyLimitExceededException(host, getLimit(host));
+        }
+    }
+
+    /**
+     * Should be called when response is received
+     *
+     * @param host host of request
+     * @param latency time of request in milliseconds
+     * @param response received response
+     */
+    public void onResponse(String host, long latency, WebResponse response) {
+        if (droppedStatusCodes.contains(response.getResponseCode())) {
+            onDropped(host);
+        } else {
+            onSuccess(host, latency);
+        }
+    }
+
+    /**
+     * Should be called when request succeeded
+     *
+     * @param host host of request
+     * @param latency time of request in milliseconds
+     */
+    public void onSuccess(String host, long latency) {
+        getHostLimit(host).release(latency, false);
+    }
+
+    /**
+     * Should be called when request failed.
+     * Timeouts are treated as dropped requests, other errors including timeout
+     * of waiting for connection from local pool are ignored.
+     *
+     * @param host host of request
+     * @param e error of request
+     */
+    public void onFailure(String host, IOException e) {
+        if (e instanceof InterruptedIOException && !(e instanceof ConnectionPoolTimeoutException)) {
+            onDropped(host);
+        } else {
+            onIgnored(host);
+        }
+    }
+
+    /**
+     * Should be called when request was dropped by the host because of overload
+     *
+     * @param host host of request
+     */
+    public void onDropped(String host) {
+        getHostLimit(host).release(-1, true);
+    }
+
+    /**
+     * Should be called when request completed without information about load of host,
+     * e.g. it was aborted
+     *
+     * @param host host of request
+     */
+    public void onIgnored(String host) {
+        getHostLimit(host).release(-1, false);
+    }
+
+    /**
+     * Return current limit of concurrent requests to the host
+     *
+     * @param host host name
+     * @return current limit
+     */
+    public int getLimit(String host) {
+        Limit limit = getHostLimit(host);
+        synchronized (limit) {
+            return (int) limit.limit;
+        }
+    }
+
+    /**
+     * Return number of requests to the host which are in flight
+     *
+     * @param host host name
+     * @return number of acquired and not released permissions
+     */
+    public int getInFlight(String host) {
+        Limit limit = getHostLimit(host);
+        synchronized (limit) {
+            return limit.inFlight;
+        }
+    }
+
+    public int getInitialLimit() {
+        return initialLimit;
+    }
+
+    /**
+     * Set limit of hosts for which no requests were sent yet
+     *
+     * @param initialLimit number of concurrent requests
+     */
+    public void setInitialLimit(int initialLimit) {
+        this.initialLimit = initialLimit;
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public void setMinLimit(int minLimit) {
+        if (minLimit < 1) {
+            throw new IllegalArgumentException("ANHTTPCLIENT. Minimal limit should be positive");
+        }
+
+        this.minLimit = minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    /**
+     * Set maximal limit of concurrent requests to one host.
+     * Browser makes its connection pool big enough for this limit.
+     *
+     * @param maxLimit number of concurrent requests
+     */
+    public void setMaxLimit(int maxLimit) {
+        this.maxLimit = maxLimit;
+    }
+
+    public double getBackoffRatio() {
+        return backoffRatio;
+    }
+
+    /**
+     * Set ratio by which limit is multiplied when request is dropped
+     *
+     * @param backoffRatio value between 0 and 1
+     */
+    public void setBackoffRatio(double backoffRatio) {
+        if (backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("ANHTTPCLIENT. Backoff ratio should be between 0 and 1");
+        }
+
+        this.backoffRatio = backoffRatio;
+    }
+
+    public double getLatencyTolerance() {
+        return latencyTolerance;
+    }
+
+    /**
+     * Set how many times latency of request could be higher than minimal latency
+     * of the host before request is treated as dropped
+     *
+     * @param latencyTolerance ratio of latencies or {@link Double#POSITIVE_INFINITY}
+     *  to not take latency into account
+     */
+    public void setLatencyTolerance(double latencyTolerance) {
+        this.latencyTolerance = latencyTolerance;
+    }
+
+    public boolean isBlocking() {
+        return blocking;
+    }
+
+    /**
+     * Set behaviour when limit is reached
+     *
+     * @param blocking if {@code true} request waits until other request completes,
+     *  if {@code false} request fails with {@link ConcurrencyLimitExceededException}
+     */
+    public void setBlocking(boolean blocking) {
+        this.blocking = blocking;
+    }
+
+    public long getMaxWait() {
+        return maxWait;
+    }
+
+    /**
+     * Set maximal time which blocking limiter waits,
+     * if limit is still reached request fails with {@link ConcurrencyLimitExceededException}
+     *
+     * @param maxWait time in milliseconds
+     */
+    public void setMaxWait(long maxWait) {
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * Return status codes of responses which mean that host is overloaded
+     *
+     * @return modifiable set of status codes
+     */
+    public Set<Integer> getDroppedStatusCodes() {
+        return droppedStatusCodes;
+    }
+}
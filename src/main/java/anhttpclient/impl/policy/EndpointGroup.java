@@ -0,0 +1,465 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpclient.impl.policy;
+
+import anhttpclient.RequestMethod;
+import anhttpclient.WebResponse;
+import org.apache.http.HttpHost;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Logical host served by several endpoints. Requests to the logical host
+ * (e.g. {@code http://backend/path}) are sent to one of endpoints
+ * (e.g. {@code http://10.0.0.1:8080/path}), so usual urls could be used in requests.
+ * Only connection is opened to the endpoint, request keeps url of the logical host,
+ * so cookies of the logical host are sent and received.
+ * Group could be shared between browsers and threads.</p>
+ * <p>Endpoint is selected by {@link Selection} strategy from endpoints which are not ejected.
+ * Endpoint is ejected for {@link #getEjectionTime} after {@link #getConsecutiveFailures}
+ * failures in a row, every next ejection of the same endpoint lasts longer.
+ * Not more than {@link #getMaxEjectionPercent} of endpoints could be ejected at once.</p>
+ * <p>Failed idempotent requests are retried on other endpoints of the group.</p>
+ * <p>Every {@link #select} should be followed by exactly one call of
+ * {@link #onResponse}, {@link #onSuccess}, {@link #onFailure} or {@link #onIgnored} for selected endpoint.</p>
+ *
+ * @author Sergey Prilukin
+ */
+public class EndpointGroup {
+
+    /**
+     * Strategy of endpoint selection
+     */
+    public static enum Selection {
+        /** endpoint with the least number of requests in flight */
+        LEAST_OUTSTANDING,
+
+        /** endpoint with the least exponentially weighted moving average of latency
+         * multiplied by number of requests in flight */
+        EWMA
+    }
+
+    /**
+     * Target of requests to the group
+     */
+    public final class Endpoint {
+        private final HttpHost target;
+        private final String basePath;
+        private final String uri;
+
+        private final AtomicInteger outstanding = new AtomicInteger();
+
+        /* all fields below are changed under lock on endpoint */
+        private volatile double latency;
+        private long lastSampleTime;
+        private int consecutiveFailures;
+        private int ejections;
+        private volatile long ejectedUntil;
+
+        Endpoint(String uri) {
+            try {
+                URI parsed = new URI(uri);
+                if (parsed.getScheme() == null || parsed.getRawAuthority() == null) {
+                    throw new IllegalArgumentException(String.format("ANHTTPCLIENT. Endpoint should be absolute url: %s", uri));
+                }
+
+                this.target = new HttpHost(parsed.getHost(), parsed.getPort(), parsed.getScheme());
+                String path = parsed.getRawPath() != null ? parsed.getRawPath() : "";
+                this.basePath = path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+                this.uri = uri;
+            } catch (URISyntaxException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+
+        /**
+         * Return url of request to this endpoint
+         *
+         * @param requestUri uri of request to the logical host
+         * @return uri of the logical host with path prefixed with path of endpoint
+         */
+        public URI resolve(URI requestUri) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(requestUri.getScheme()).append("://").append(requestUri.getRawAuthority()).append(basePath);
+            sb.append(requestUri.getRawPath() != null ? requestUri.getRawPath() : "");
+            if (requestUri.getRawQuery() != null) {
+                sb.append('?').append(requestUri.getRawQuery());
+            }
+
+            return URI.create(sb.toString());
+        }
+
+        public String getUri() {
+            return uri;
+        }
+
+        /**
+         * Return target of connections to this endpoint
+         *
+         * @return scheme, host and port of endpoint
+         */
+        public HttpHost getTarget() {
+            return target;
+        }
+
+        /**
+         * Return number of requests to this endpoint which are in flight
+         *
+         * @return number of requests
+         */
+        public int getOutstanding() {
+            return outstanding.get();
+        }
+
+        /**
+         * Return moving average of latency
+         *
+         * @return latency in milliseconds
+         */
+        public double getLatency() {
+            return latency;
+        }
+
+        /**
+         * Return if endpoint is ejected from selection
+         *
+         * @return {@code true} if endpoint is ejected
+         */
+        public boolean isEjected() {
+            return ejectedUntil - System.currentTimeMillis() > 0;
+        }
+
+        double getCost() {
+            return selection == Selection.EWMA ? latency * (outstanding.get() + 1) : outstanding.get();
+        }
+
+        @Override
+        public String toString() {
+            return uri;
+        }
+    }
+
+    private final String host;
+    private final List<Endpoint> endpoints = new CopyOnWriteArrayList<Endpoint>();
+    private final Random random = new Random();
+
+    private volatile Selection selection = Selection.LEAST_OUTSTANDING;
+    private volatile long decayTime = 10000;
+    private volatile int consecutiveFailures = 5;
+    private volatile long ejectionTime = 30000;
+    private volatile long maxEjectionTime = 300000;
+    private volatile int maxEjectionPercent = 50;
+    private volatile boolean preserveHost = true;
+    private final Set<Integer> failureStatusCodes = new CopyOnWriteArraySet<Integer>(Arrays.asList(502, 503, 504));
+
+    /**
+     * Creates group for logical host
+     *
+     * @param host host name which is used in urls of requests
+     * @param endpoints urls of endpoints like {@code http://10.0.0.1:8080}
+     */
+    public EndpointGroup(String host, String... endpoints) {
+        this.host = host.toLowerCase(Locale.ENGLISH);
+        for (String endpoint : endpoints) {
+            addEndpoint(endpoint);
+        }
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Adds endpoint to the group
+     *
+     * @param uri url of endpoint, could contain path which will prefix paths of requests
+     */
+    public void addEndpoint(String uri) {
+        endpoints.add(new Endpoint(uri));
+    }
+
+    /**
+     * Removes endpoint from the group
+     *
+     * @param uri url of endpoint
+     */
+    public void removeEndpoint(String uri) {
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.getUri().equals(uri)) {
+                endpoints.remove(endpoint);
+            }
+        }
+    }
+
+    /**
+     * Return endpoints of the group
+     *
+     * @return unmodifiable list of endpoints
+     */
+    public List<Endpoint> getEndpoints() {
+        return Collections.unmodifiableList(endpoints);
+    }
+
+    /**
+     * Selects endpoint for request. Ejected endpoints are selected only if all other
+     * endpoints are excluded.
+     *
+     * @param excluded endpoints which should not be selected, e.g. already failed for this request
+     * @return endpoint or {@code null} if all endpoints are excluded
+     */
+    public Endpoint select(Set<Endpoint> excluded) {
+        List<Endpoint> candidates = new ArrayList<Endpoint>(endpoints);
+        candidates.removeAll(excluded);
+        if (candidates.isEmpty()) {
+            return null;
+        }
+
+        List<Endpoint> available = new ArrayList<Endpoint>(candidates.size());
+        for (Endpoint endpoint : candidates) {
+            if (!endpoint.isEjected()) {
+                available.add(endpoint);
+            }
+        }
+
+        Endpoint selected = selectFrom(available.isEmpty() ? candidates : available);
+        selected.outstanding.incrementAndGet();
+        return selected;
+    }
+
+    /* endpoint with the least cost, ties are broken randomly to spread load */
+    private Endpoint selectFrom(List<Endpoint> candidates) {
+        int offset = random.nextInt(candidates.size());
+        Endpoint selected = null;
+        double minCost = Double.MAX_VALUE;
+        for (int i = 0; i < candidates.size(); i++) {
+            Endpoint endpoint = candidates.get((offset + i) % candidates.size());
+            double cost = endpoint.getCost();
+            if (selected == null || cost < minCost) {
+                selected = endpoint;
+                minCost = cost;
+            }
+        }
+
+        return selected;
+    }
+
+    /**
+     * Return if request with passed method could be retried on other endpoint
+     *
+     * @param requestMethod method of request
+     * @return {@code true} for idempotent methods
+     */
+    public boolean isRetryable(RequestMethod requestMethod) {
+        return requestMethod != RequestMethod.POST;
+    }
+
+    /**
+     * Should be called when response is received from endpoint
+     *
+     * @param endpoint selected endpoint
+     * @param latency time of request in milliseconds
+     * @param response received response
+     */
+    public void onResponse(Endpoint endpoint, long latency, WebResponse response) {
+        if (failureStatusCodes.contains(response.getResponseCode())) {
+            onFailure(endpoint);
+        } else {
+            onSuccess(endpoint, latency);
+        }
+    }
+
+    /**
+     * Should be called when request to endpoint succeeded
+     *
+     * @param endpoint selected endpoint
+     * @param latency time of request in milliseconds
+     */
+    public void onSuccess(Endpoint endpoint, long latency) {
+        endpoint.outstanding.decrementAndGet();
+        synchronized (endpoint) {
+            long now = System.currentTimeMillis();
+            if (endpoint.lastSampleTime == 0 || latency > endpoint.latency) {
+                //Peaks of latency are taken into account immediately
+                endpoint.latency = latency;
+            } else {
+                double weight = Math.exp(-(now - endpoint.lastSampleTime) / (double) decayTime);
+                endpoint.latency = endpoint.latency * weight + latency * (1 - weight);
+            }
+
+            endpoint.lastSampleTime = now;
+            endpoint.consecutiveFailures = 0;
+            if (!endpoint.isEjected()) {
+                endpoint.ejections = 0;
+            }
+        }
+    }
+
+    /**
+     * Should be called when request to endpoint failed
+     *
+     * @param endpoint selected endpoint
+     */
+    public void onFailure(Endpoint endpoint) {
+        endpoint.outstanding.decrementAndGet();
+        synchronized (endpoint) {
+            if (++endpoint.consecutiveFailures < consecutiveFailures || endpoint.isEjected()) {
+                return;
+            }
+        }
+
+        eject(endpoint);
+    }
+
+    /**
+     * Should be called when request to endpoint completed without information
+     * about endpoint health, e.g. it was aborted
+     *
+     * @param endpoint selected endpoint
+     */
+    public void onIgnored(Endpoint endpoint) {
+        endpoint.outstanding.decrementAndGet();
+    }
+
+    private synchronized void eject(Endpoint endpoint) {
+        int ejected = 0;
+        for (Endpoint e : endpoints) {
+            if (e.isEjected()) {
+                ejected++;
+            }
+        }
+
+        if ((ejected + 1) * 100 > endpoints.size() * maxEjectionPercent) {
+            return;
+        }
+
+        synchronized (endpoint) {
+            endpoint.ejections++;
+            endpoint.consecutiveFailures = 0;
+            endpoint.ejectedUntil = System.currentTimeMillis()
+                    + Math.min(maxEjectionTime, ejectionTime * endpoint.ejections);
+        }
+    }
+
+    public Selection getSelection() {
+        return selection;
+    }
+
+    public void setSelection(Selection selection) {
+        this.selection = selection;
+    }
+
+    public long getDecayTime() {
+        return decayTime;
+    }
+
+    /**
+     * Set time after which old latency samples have weight {@code 1/e} in moving average
+     *
+     * @param decayTime time in milliseconds
+     */
+    public void setDecayTime(long decayTime) {
+        this.decayTime = decayTime;
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * Set number of failures in a row after which endpoint is ejected
+     *
+     * @param consecutiveFailures number of failures
+     */
+    public void setConsecutiveFailures(int consecutiveFailures) {
+        this.consecutiveFailures = consecutiveFailures;
+    }
+
+    public long getEjectionTime() {
+        return ejectionTime;
+    }
+
+    /**
+     * Set time of first ejection of endpoint, every next ejection
+     * without successful requests between them lasts one time more
+     *
+     * @param ejectionTime time in milliseconds
+     */
+    public void setEjectionTime(long ejectionTime) {
+        this.ejectionTime = ejectionTime;
+    }
+
+    public long getMaxEjectionTime() {
+        return maxEjectionTime;
+    }
+
+    public void setMaxEjectionTime(long maxEjectionTime) {
+        this.maxEjectionTime = maxEjectionTime;
+    }
+
+    public int getMaxEjectionPercent() {
+        return maxEjectionPercent;
+    }
+
+    /**
+     * Set maximal percent of endpoints which could be ejected at once
+     *
+     * @param maxEjectionPercent percent from 0 to 100
+     */
+    public void setMaxEjectionPercent(int maxEjectionPercent) {
+        this.maxEjectionPercent = maxEjectionPercent;
+    }
+
+    public boolean isPreserveHost() {
+        return preserveHost;
+    }
+
+    /**
+     * Set which {@code Host} header is sent to endpoints
+     *
+     * @param preserveHost if {@code true} logical host is sent,
+     *  if {@code false} host of endpoint is sent
+     */
+    public void setPreserveHost(boolean preserveHost) {
+        this.preserveHost = preserveHost;
+    }
+
+    /**
+     * Return status codes of responses which are treated as failures of endpoint
+     *
+     * @return modifiable set of status codes
+     */
+    public Set<Integer> getFailureStatusCodes() {
+        return failureStatusCodes;
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpclient.impl.policy;
+
+import anhttpclient.RequestMethod;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Policy of hedged requests.</p>
+ * <p>If response to idempotent request did not arrive during hedge delay
+ * the same request is sent again by another connection, the response which arrives first is used
+ * and another request is aborted.</p>
+ * <p>Hedge delay is either fixed or equals to observed percentile
+ * ({@code 95} by default) of the response time. Number of hedged requests
+ * is limited by the budget: every request adds {@link #getHedgeBudgetRatio} tokens to it
+ * and every hedged request takes one token.</p>
+ * <p>Requests are executed by threads of the policy, call {@link #shutdown}
+ * when policy is not needed anymore.</p>
+ *
+ * @author Sergey Prilukin
+ */
+public class HedgingPolicy {
+
+    public static final double DEFAULT_PERCENTILE = 0.95;
+    public static final double DEFAULT_HEDGE_BUDGET_RATIO = 0.05;
+    public static final int DEFAULT_HEDGE_BUDGET_BURST = 10;
+
+    /* number of latest response times used to calculate percentile */
+    private static final int LATENCY_SAMPLES = 256;
+
+    /* percentile is not used until this number of response times is recorded */
+    private static final int MIN_LATENCY_SAMPLES = 20;
+
+    /* percentile is recalculated after this number of recorded response times */
+    private static final int RECALCULATION_INTERVAL = 16;
+
+    private volatile long hedgeDelay = -1;
+    private volatile double percentile = DEFAULT_PERCENTILE;
+    private volatile double hedgeBudgetRatio = DEFAULT_HEDGE_BUDGET_RATIO;
+    private volatile int hedgeBudgetBurst = DEFAULT_HEDGE_BUDGET_BURST;
+
+    private final TokenBucket hedgeBudget = new TokenBucket(DEFAULT_HEDGE_BUDGET_BURST);
+
+    /* ring of latest response times, all fields below are changed under lock on it */
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private int latencyIndex;
+    private int latencyCount;
+    private int recordedSinceRecalculation;
+    private volatile long percentileLatency = -1;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "anhttpclient-hedging-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Creates policy which uses observed percentile of response time as hedge delay
+     */
+    public HedgingPolicy() {
+    }
+
+    /**
+     * Creates policy with fixed hedge delay
+     *
+     * @param hedgeDelay delay in milliseconds
+     */
+    public HedgingPolicy(long hedgeDelay) {
+        this.hedgeDelay = hedgeDelay;
+    }
+
+    /**
+     * Return if requests with passed method could be hedged.
+     * Only idempotent requests without body are hedged.
+     *
+     * @param requestMethod method of request
+     * @return {@code true} if request could be hedged
+     */
+    public boolean isHedgeable(RequestMethod requestMethod) {
+        return requestMethod == RequestMethod.GET
+                || requestMethod == RequestMethod.HEAD
+                || requestMethod == RequestMethod.OPTIONS;
+    }
+
+    /**
+     * Return delay after which hedged request should be sent
+     *
+     * @return delay in milliseconds or -1 if there is not enough response times
+     *  to calculate percentile
+     */
+    public long getHedgeDelay() {
+        long delay = hedgeDelay;
+        return delay >= 0 ? delay : percentileLatency;
+    }
+
+    /**
+     * Set fixed hedge delay
+     *
+     * @param hedgeDelay delay in milliseconds or -1 to use observed percentile of response time
+     */
+    public void setHedgeDelay(long hedgeDelay) {
+        this.hedgeDelay = hedgeDelay;
+    }
+
+    public double getPercentile() {
+        return percentile;
+    }
+
+    /**
+     * Set percentile of response time used as hedge delay if it is not fixed
+     *
+     * @param percentile percentile, e.g. {@code 0.95}
+     */
+    public void setPercentile(double percentile) {
+        this.percentile = percentile;
+    }
+
+    public double getHedgeBudgetRatio() {
+        return hedgeBudgetRatio;
+    }
+
+    /**
+     * Set part of requests which could be hedged, e.g. {@code 0.05} for 5%
+     *
+     * @param hedgeBudgetRatio part of requests
+     */
+    public void setHedgeBudgetRatio(double hedgeBudgetRatio) {
+        this.hedgeBudgetRatio = hedgeBudgetRatio;
+    }
+
+    public int getHedgeBudgetBurst() {
+        return hedgeBudgetBurst;
+    }
+
+    /**
+     * Set maximal number of hedged requests which could be sent
+     * without requests which were not hedged
+     *
+     * @param hedgeBudgetBurst number of requests
+     */
+    public void setHedgeBudgetBurst(int hedgeBudgetBurst) {
+        this.hedgeBudgetBurst = hedgeBudgetBurst;
+    }
+
+    /**
+     * Should be called once for each hedgeable request
+     */
+    public void onRequest() {
+        hedgeBudget.deposit(hedgeBudgetRatio, hedgeBudgetBurst);
+    }
+
+    /**
+     * Takes one hedged request from the budget
+     *
+     * @return {@code true} if hedged request is allowed by budget
+     */
+    public boolean acquireHedge() {
+        return hedgeBudget.withdraw();
+    }
+
+    /**
+     * Records response time of successful request
+     *
+     * @param latency response time in milliseconds
+     */
+    public void recordLatency(long latency) {
+        long[] samples = null;
+
+        synchronized (latencies) {
+            latencies[latencyIndex] = latency;
+            latencyIndex = (latencyIndex + 1) % LATENCY_SAMPLES;
+            if (latencyCount < LATENCY_SAMPLES) {
+                latencyCount++;
+            }
+            recordedSinceRecalculation++;
+
+            if (latencyCount >= MIN_LATENCY_SAMPLES && recordedSinceRecalculation >= RECALCULATION_INTERVAL) {
+                recordedSinceRecalculation = 0;
+                samples = new long[latencyCount];
+                System.arraycopy(latencies, 0, samples, 0, latencyCount);
+            }
+        }
+
+        if (samples != null) {
+            Arrays.sort(samples);
+            int index = (int) Math.ceil(percentile * samples.length) - 1;
+            percentileLatency = samples[Math.max(0, Math.min(samples.length - 1, index))];
+        }
+    }
+
+    /**
+     * Return executor which runs hedged requests
+     *
+     * @return executor
+     */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Stops threads of the policy. Policy could not be used after shutdown.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpclient.impl.policy;
+
+import java.io.InterruptedIOException;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Per-host request rate limiter which could be shared between browsers and threads.</p>
+ * <p>Limit is defined by rate (requests per second) and burst (number of requests
+ * which could be sent at once after idle period). Limits are set for host name or for
+ * wildcard pattern: {@code *.example.com} matches all subdomains of {@code example.com}
+ * and {@code *} matches any host. The most specific limit is used. Hosts without limit
+ * are not limited.</p>
+ * <p>Each host has token bucket implemented as generic cell rate algorithm
+ * over single atomic value, so threads do not block each other.
+ * If limit is exhausted request either waits (up to {@link #getMaxWait})
+ * or fails with {@link RateLimitExceededException}, see {@link #setBlocking}.</p>
+ *
+ * @author Sergey Prilukin
+ */
+public class RateLimiter {
+
+    public static final String ANY_HOST = "*";
+
+    private static final String WILDCARD_PREFIX = "*.";
+
+    private final ConcurrentMap<String, Limit> limits = new ConcurrentHashMap<String, Limit>();
+    private final ConcurrentMap<String, Bucket> buckets = new ConcurrentHashMap<String, Bucket>();
+
+    private volatile boolean blocking = true;
+    private volatile long maxWait = Long.MAX_VALUE;
+
+    private static final class Limit {
+        /* interval between requests in nanoseconds */
+        final long emissionInterval;
+
+        /* how much earlier than its theoretical time request could be sent, in nanoseconds */
+        final long burstTolerance;
+
+        Limit(double requestsPerSecond, int burst) {
+            emissionInterval = (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecond);
+            burstTolerance = emissionInterval * (Math.max(1, burst) - 1);
+        }
+    }
+
+    private static final class Bucket {
+        final Limit limit;
+
+        /* theoretical arrival time of the next request */
+        final AtomicLong arrivalTime = new AtomicLong(System.nanoTime());
+
+        Bucket(Limit limit) {
+            this.limit = limit;
+        }
+    }
+
+    /* bucket of hosts without limit */
+    private static final Bucket UNLIMITED = new Bucket(null);
+
+    /**
+     * Set limit for host or host pattern
+     *
+     * @param hostPattern host name, {@code *.domain} or {@code *}
+     * @param requestsPerSecond allowed rate of requests
+     * @param burst number of requests which could be sent at once
+     */
+    public void setLimit(String hostPattern, double requestsPerSecond, int burst) {
+        if (requestsPerSecond <= 0) {
+            throw new IllegalArgumentException("ANHTTPCLIENT. Request rate should be positive");
+        }
+
+        limits.put(hostPattern.toLowerCase(Locale.ENGLISH), new Limit(requestsPerSecond, burst));
+        buckets.clear();
+    }
+
+    /**
+     * Removes limit of host or host pattern
+     *
+     * @param hostPattern host name, {@code *.domain} or {@code *}
+     */
+    public void removeLimit(String hostPattern) {
+        limits.remove(hostPattern.toLowerCase(Locale.ENGLISH));
+        buckets.clear();
+    }
+
+    private Limit findLimit(String host) {
+        Limit limit = limits.get(host);
+        if (limit != null) {
+            return limit;
+        }
+
+        for (int dotIndex = host.indexOf('.'); dotIndex >= 0; dotIndex = host.indexOf('.', dotIndex + 1)) {
+            limit = limits.get(WILDCARD_PREFIX + host.substring(dotIndex + 1));
+            if (limit != null) {
+                return limit;
+            }
+        }
+
+        return limits.get(ANY_HOST);
+    }
+
+    /* host names are case insensitive, hosts without limit are not cached */
+    private Bucket getBucket(String host) {
+        String key = host.toLowerCase(Locale.ENGLISH);
+        Bucket bucket = buckets.get(key);
+        if (bucket == null) {
+            Limit limit = findLimit(key);
+            if (limit == null) {
+                return UNLIMITED;
+            }
+
+            bucket = new Bucket(limit);
+            Bucket existing = buckets.putIfAbsent(key, bucket);
+            if (existing != null) {
+                bucket = existing;
+            }
+        }
+
+        return bucket;
+    }
+
+    /**
+     * Takes permission to send request to the host.
+     * Waits if limit is exhausted and limiter is blocking.
+     *
+     * @param host host of request
+     * @throws RateLimitExceededException if limit is exhausted and limiter is not blocking
+     *  or required wait is longer than {@link #getMaxWait}
+     * @throws InterruptedIOException if thread was interrupted while waiting
+     */
+    public void acquire(String host) throws RateLimitExceededException, InterruptedIOException {
+        acquire(host, Long.MAX_VALUE);
+    }
+
+    /**
+     * Takes permission to send request to the host.
+     * Waits if limit is exhausted and limiter is blocking, but not longer than passed timeout.
+     *
+     * @param host host of request
+     * @param timeout maximal time to wait in milliseconds
+     * @throws RateLimitExceededException if limit is exhausted and limiter is not blocking
+     *  or required wait is longer than timeout or {@link #getMaxWait}
+     * @throws InterruptedIOException if thread was interrupted while waiting
+     */
+    public void acquire(String host, long timeout) throws RateLimitExceededException, InterruptedIOException {
+        Bucket bucket = getBucket(host);
+        if (bucket.limit == null) {
+            return;
+        }
+
+        long wait = reserve(bucket, blocking ? toNanos(Math.min(timeout, maxWait)) : 0);
+        if (wait < 0) {
+            throw new RateLimitExceededException(host);
+        }
+
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("ANHTTPCLIENT. Interrupted while waiting for rate limit");
+            }
+        }
+    }
+
+    /**
+     * Takes permission to send request to the host without waiting
+     *
+     * @param host host of request
+     * @return {@code true} if request could be sent now
+     */
+    public boolean tryAcquire(String host) {
+        Bucket bucket = getBucket(host);
+        return bucket.limit == null || reserve(bucket, 0) == 0;
+    }
+
+    private static long toNanos(long millis) {
+        return millis >= Long.MAX_VALUE / 1000000 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Reserves time slot for request
+     *
+     * @param bucket bucket of host
+     * @param maxWait maximal wait in nanoseconds
+     * @return time to wait before sending request in nanoseconds or -1 if wait is longer than maxWait
+     */
+    private long reserve(Bucket bucket, long maxWait) {
+        Limit limit = bucket.limit;
+        while (true) {
+            long now = System.nanoTime();
+            long arrivalTime = bucket.arrivalTime.get();
+            long start = arrivalTime - now > 0 ? arrivalTime : now;
+            long wait = Math.max(0, start - limit.burstTolerance - now);
+            if (wait > maxWait) {
+                return -1;
+            }
+
+            if (bucket.arrivalTime.compareAndSet(arrivalTime, start + limit.emissionInterval)) {
+                return wait;
+            }
+        }
+    }
+
+    public boolean isBlocking() {
+        return blocking;
+    }
+
+    /**
+     * Set behaviour when limit is exhausted
+     *
+     * @param blocking if {@code true} request waits until it could be sent,
+     *  if {@code false} request fails with {@link RateLimitExceededException}
+     */
+    public void setBlocking(boolean blocking) {
+        this.blocking = blocking;
+    }
+
+    public long getMaxWait() {
+        return maxWait;
+    }
+
+    /**
+     * Set maximal time which blocking limiter waits,
+     * if longer wait is needed request fails with {@link RateLimitExceededException}
+     *
+     * @param maxWait time in milliseconds
+     */
+    public void setMaxWait(long maxWait) {
+        this.maxWait = maxWait;
+    }
+}
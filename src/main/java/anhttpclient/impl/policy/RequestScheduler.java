@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpclient.impl.policy;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Limits number of requests executed at once and decides which of waiting
+ * requests is executed next. Scheduler could be shared between browsers and threads,
+ * so interactive and bulk requests could use the same connection pool.</p>
+ * <p>Requests with higher priority are executed first. To prevent starvation priority
+ * of waiting request grows by one every {@link #getAgingInterval} milliseconds.
+ * If {@link #isEarliestDeadlineFirst} requests of the same priority are ordered by
+ * deadline, otherwise in order of arrival.</p>
+ * <p>Every successful {@link #acquire} should be followed by {@link #release}.</p>
+ *
+ * @author Sergey Prilukin
+ */
+public class RequestScheduler {
+
+    private static final class Entry {
+        final int priority;
+        final long arrivalTime;
+        final long deadline;
+        final long sequence;
+        boolean granted;
+
+        Entry(int priority, long arrivalTime, long deadline, long sequence) {
+            this.priority = priority;
+            this.arrivalTime = arrivalTime;
+            this.deadline = deadline;
+            this.sequence = sequence;
+        }
+    }
+
+    /* all fields below are guarded by lock on scheduler */
+    private final List<Entry> queue = new ArrayList<Entry>();
+    private int running;
+    private long sequence;
+
+    private volatile int maxConcurrentRequests;
+    private volatile long agingInterval = 1000;
+    private volatile boolean earliestDeadlineFirst = false;
+
+    /**
+     * Creates scheduler
+     *
+     * @param maxConcurrentRequests number of requests which could be executed at once,
+     *  should not be greater than size of connection pool
+     */
+    public RequestScheduler(int maxConcurrentRequests) {
+        setMaxConcurrentRequests(maxConcurrentRequests);
+    }
+
+    /**
+     * Waits until request could be executed
+     *
+     * @param priority priority of request, higher priority is executed first
+     * @throws InterruptedIOException if thread was interrupted while waiting
+     */
+    public void acquire(int priority) throws InterruptedIOException {
+        acquire(priority, Long.MAX_VALUE);
+    }
+
+    /**
+     * Waits until request could be executed, but not longer than passed timeout.
+     *
+     * @param priority priority of request, higher priority is executed first
+     * @param timeout maximal time to wait in milliseconds, also used as deadline of request
+     * @return {@code true} if request could be executed,
+     *  {@code false} if it was not scheduled during timeout
+     * @throws InterruptedIOException if thread was interrupted while waiting
+     */
+    public synchronized boolean acquire(int priority, long timeout) throws InterruptedIOException {
+        if (queue.isEmpty() && running < maxConcurrentRequests) {
+            running++;
+            return true;
+        }
+
+        long now = System.currentTimeMillis();
+        long deadline = timeout == Long.MAX_VALUE ? Long.MAX_VALUE : now + timeout;
+        Entry entry = new Entry(priority, now, deadline, sequence++);
+        queue.add(entry);
+
+        try {
+            while (!entry.granted) {
+                long wait = deadline == Long.MAX_VALUE ? 0 : deadline - System.currentTimeMillis();
+                if (deadline != Long.MAX_VALUE && wait <= 0) {
+                    queue.remove(entry);
+                    return false;
+                }
+
+                wait(wait);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (entry.granted) {
+                release();
+            } else {
+                queue.remove(entry);
+            }
+            throw new InterruptedIOException("ANHTTPCLIENT. Interrupted while waiting for request scheduling");
+        }
+
+        return true;
+    }
+
+    /**
+     * Should be called when request acquired by {@link #acquire} is completed
+     */
+    public synchronized void release() {
+        running--;
+        dispatch();
+    }
+
+    /* grants execution to the best waiting requests while there are free slots */
+    private void dispatch() {
+        boolean granted = false;
+        long now = System.currentTimeMillis();
+        while (!queue.isEmpty() && running < maxConcurrentRequests) {
+            Entry next = queue.get(0);
+            for (int i = 1; i < queue.size(); i++) {
+                if (compare(queue.get(i), next, now) < 0) {
+                    next = queue.get(i);
+                }
+            }
+
+            queue.remove(next);
+            next.granted = true;
+            running++;
+            granted = true;
+        }
+
+        if (granted) {
+            notifyAll();
+        }
+    }
+
+    private int compare(Entry first, Entry second, long now) {
+        long agingInterval = Math.max(1, this.agingInterval);
+        long firstPriority = first.priority + (now - first.arrivalTime) / agingInterval;
+        long secondPriority = second.priority + (now - second.arrivalTime) / agingInterval;
+        if (firstPriority != secondPriority) {
+            return firstPriority > secondPriority ? -1 : 1;
+        }
+
+        if (earliestDeadlineFirst && first.deadline != second.deadline) {
+            return first.deadline < second.deadline ? -1 : 1;
+        }
+
+        return first.sequence < second.sequence ? -1 : 1;
+    }
+
+    /**
+     * Return number of requests which are being executed
+     *
+     * @return number of requests
+     */
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    /**
+     * Return number of requests which wait for execution
+     *
+     * @return number of requests
+     */
+    public synchronized int getWaiting() {
+        return queue.size();
+    }
+
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+        if (maxConcurrentRequests < 1) {
+            throw new IllegalArgumentException("ANHTTPCLIENT. Number of concurrent requests should be positive");
+        }
+
+        synchronized (this) {
+            this.maxConcurrentRequests = maxConcurrentRequests;
+            dispatch();
+        }
+    }
+
+    public long getAgingInterval() {
+        return agingInterval;
+    }
+
+    /**
+     * Set time after which priority of waiting request is increased by one
+     *
+     * @param agingInterval time in milliseconds or {@link Long#MAX_VALUE} to disable aging
+     */
+    public void setAgingInterval(long agingInterval) {
+        this.agingInterval = agingInterval;
+    }
+
+    public boolean isEarliestDeadlineFirst() {
+        return earliestDeadlineFirst;
+    }
+
+    /**
+     * Set order of requests with the same priority
+     *
+     * @param earliestDeadlineFirst if {@code true} request with the earliest deadline is executed first,
+     *  requests without deadline are executed after them; if {@code false} requests are executed
+     *  in order of arrival
+     */
+    public void setEarliestDeadlineFirst(boolean earliestDeadlineFirst) {
+        this.earliestDeadlineFirst = earliestDeadlineFirst;
+    }
+}
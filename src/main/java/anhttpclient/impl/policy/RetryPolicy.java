@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpclient.impl.policy;
+
+import anhttpclient.HttpConstants;
+import anhttpclient.WebResponse;
+import anhttpclient.impl.WebBrowserConstants;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * <p>Policy of retrying failed requests which could be shared between browsers and threads.</p>
+ * <p>Request is retried after I/O error or if response has one of retryable status codes
+ * ({@code 429} and {@code 503} by default). Delay before retry grows exponentially with
+ * number of attempt and is randomized ("full jitter"), so clients which failed at the same time
+ * do not retry in lockstep. If response contains {@code Retry-After} header
+ * delay is not less than required by server.</p>
+ * <p>Retries are limited by per-host budget: every request adds {@link #getRetryBudgetRatio} tokens
+ * to the budget of its host and every retry takes one token, so in the long run retries
+ * make not more than this part of requests. Budget of each host can not exceed
+ * {@link #getRetryBudgetBurst} tokens, it is also initial budget of the host.</p>
+ *
+ * @author Sergey Prilukin
+ */
+public class RetryPolicy {
+
+    public static final long DEFAULT_BASE_DELAY = 100;
+    public static final long DEFAULT_MAX_DELAY = 10000;
+    public static final long DEFAULT_MAX_RETRY_AFTER = 60000;
+    public static final double DEFAULT_RETRY_BUDGET_RATIO = 0.1;
+    public static final int DEFAULT_RETRY_BUDGET_BURST = 10;
+
+    private volatile int maxRetries = WebBrowserConstants.DEFAULT_RETRY_COUNT;
+    private volatile long baseDelay = DEFAULT_BASE_DELAY;
+    private volatile long maxDelay = DEFAULT_MAX_DELAY;
+    private volatile long maxRetryAfter = DEFAULT_MAX_RETRY_AFTER;
+    private volatile double retryBudgetRatio = DEFAULT_RETRY_BUDGET_RATIO;
+    private volatile int retryBudgetBurst = DEFAULT_RETRY_BUDGET_BURST;
+
+    private final Set<Integer> retryableStatusCodes = new CopyOnWriteArraySet<Integer>(Arrays.asList(429, 503));
+    private final ConcurrentMap<String, TokenBucket> retryBudgets = new ConcurrentHashMap<String, TokenBucket>();
+    private final Random random = new Random();
+
+    private TokenBucket getRetryBudget(String host) {
+        TokenBucket retryBudget = retryBudgets.get(host);
+        if (retryBudget == null) {
+            retryBudget = new TokenBucket(retryBudgetBurst);
+            TokenBucket existing = retryBudgets.putIfAbsent(host, retryBudget);
+            if (existing != null) {
+                retryBudget = existing;
+            }
+        }
+
+        return retryBudget;
+    }
+
+    /**
+     * Should be called once for each request (not for its retries)
+     *
+     * @param host host of request
+     */
+    public void onRequest(String host) {
+        getRetryBudget(host).deposit(retryBudgetRatio, retryBudgetBurst);
+    }
+
+    /**
+     * Takes one retry from budget of the host
+     *
+     * @param host host of request
+     * @return {@code true} if retry is allowed by budget, {@code false} if budget is exhausted
+     */
+    public boolean acquireRetry(String host) {
+        return getRetryBudget(host).withdraw();
+    }
+
+    /**
+     * Return delay before next retry of request which failed with I/O error
+     *
+     * @param attempt number of failed attempt starting from 0
+     * @param e error of failed attempt
+     * @return delay in milliseconds or -1 if request should not be retried
+     */
+    public long getRetryDelay(int attempt, IOException e) {
+        if (attempt >= maxRetries || !isRetryable(e)) {
+            return -1;
+        }
+
+        return getBackoffDelay(attempt);
+    }
+
+    /**
+     * Return delay before next retry of request which received passed response
+     *
+     * @param attempt number of failed attempt starting from 0
+     * @param response response of failed attempt
+     * @return delay in milliseconds or -1 if request should not be retried
+     */
+    public long getRetryDelay(int attempt, WebResponse response) {
+        if (attempt >= maxRetries || !retryableStatusCodes.contains(response.getResponseCode())) {
+            return -1;
+        }
+
+        long retryAfter = getRetryAfter(response.getHeader(HttpConstants.RETRY_AFTER_HEADER));
+        if (retryAfter > maxRetryAfter) {
+            return -1;
+        }
+
+        return Math.max(getBackoffDelay(attempt), retryAfter);
+    }
+
+    /**
+     * Return if request which failed with passed error could be retried.
+     * Errors which most likely will be repeated are not retried.
+     *
+     * @param e error of failed attempt
+     * @return {@code true} if request could be retried
+     */
+    protected boolean isRetryable(IOException e) {
+        if (e instanceof UnknownHostException || e instanceof SSLException
+                || e instanceof CircuitBreakerOpenException || e instanceof RateLimitExceededException
+                || e instanceof ConcurrencyLimitExceededException) {
+            return false;
+        }
+
+        //Interrupted requests are not retried, but timeouts are
+        return !(e instanceof InterruptedIOException) || e instanceof SocketTimeoutException;
+    }
+
+    /**
+     * Random delay between 0 and {@code min(maxDelay, baseDelay * 2^attempt)}
+     *
+     * @param attempt number of failed attempt starting from 0
+     * @return delay in milliseconds
+     */
+    protected long getBackoffDelay(int attempt) {
+        long delay = maxDelay;
+        if (attempt < 30) {
+            delay = Math.min(maxDelay, baseDelay << attempt);
+        }
+
+        return (long) (random.nextDouble() * delay);
+    }
+
+    /**
+     * Parses value of {@code Retry-After} header which could be
+     * number of seconds or HTTP date
+     *
+     * @param retryAfter value of header
+     * @return delay in milliseconds, 0 if header is absent or invalid
+     */
+    private long getRetryAfter(String retryAfter) {
+        if (retryAfter == null) {
+            return 0;
+        }
+
+        retryAfter = retryAfter.trim();
+        try {
+            return Math.max(0, Long.parseLong(retryAfter) * 1000);
+        } catch (NumberFormatException e) {
+            try {
+                return Math.max(0, DateUtils.parseDate(retryAfter).getTime() - System.currentTimeMillis());
+            } catch (DateParseException e1) {
+                return 0;
+            }
+        }
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Set maximal number of retries of one request
+     *
+     * @param maxRetries maximal number of retries
+     */
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public long getBaseDelay() {
+        return baseDelay;
+    }
+
+    /**
+     * Set upper bound of delay before first retry
+     *
+     * @param baseDelay delay in milliseconds
+     */
+    public void setBaseDelay(long baseDelay) {
+        this.baseDelay = baseDelay;
+    }
+
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    /**
+     * Set upper bound of delay before any retry
+     *
+     * @param maxDelay delay in milliseconds
+     */
+    public void setMaxDelay(long maxDelay) {
+        this.maxDelay = maxDelay;
+    }
+
+    public long getMaxRetryAfter() {
+        return maxRetryAfter;
+    }
+
+    /**
+     * Set maximal delay required by {@code Retry-After} header which client agrees to wait.
+     * If server requires longer delay request is not retried.
+     *
+     * @param maxRetryAfter delay in milliseconds
+     */
+    public void setMaxRetryAfter(long maxRetryAfter) {
+        this.maxRetryAfter = maxRetryAfter;
+    }
+
+    public double getRetryBudgetRatio() {
+        return retryBudgetRatio;
+    }
+
+    /**
+     * Set part of requests to the host which could be retried, e.g. {@code 0.1} for 10%
+     *
+     * @param retryBudgetRatio part of requests
+     */
+    public void setRetryBudgetRatio(double retryBudgetRatio) {
+        this.retryBudgetRatio = retryBudgetRatio;
+    }
+
+    public int getRetryBudgetBurst() {
+        return retryBudgetBurst;
+    }
+
+    /**
+     * Set maximal number of retries to the host which could be made
+     * without requests which were not retried
+     *
+     * @param retryBudgetBurst number of retries
+     */
+    public void setRetryBudgetBurst(int retryBudgetBurst) {
+        this.retryBudgetBurst = retryBudgetBurst;
+    }
+
+    /**
+     * Return status codes of responses which are retried
+     *
+     * @return modifiable set of status codes
+     */
+    public Set<Integer> getRetryableStatusCodes() {
+        return retryableStatusCodes;
+    }
+}
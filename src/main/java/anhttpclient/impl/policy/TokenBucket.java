@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpclient.impl.policy;
+
+/**
+ * Bucket of tokens used to limit number of additional requests (retries, hedged requests)
+ * by the part of ordinary requests
+ *
+ * @author Sergey Prilukin
+ */
+final class TokenBucket {
+    private double tokens;
+
+    /**
+     * Creates bucket
+     *
+     * @param tokens initial number of tokens
+     */
+    TokenBucket(double tokens) {
+        this.tokens = tokens;
+    }
+
+    /**
+     * Adds tokens to the bucket
+     *
+     * @param amount number of tokens to add
+     * @param capacity maximal number of tokens in the bucket
+     */
+    synchronized void deposit(double amount, double capacity) {
+        tokens = Math.min(capacity, tokens + amount);
+    }
+
+    /**
+     * Takes one token from the bucket
+     *
+     * @return {@code true} if token was taken, {@code false} if bucket has less than one token
+     */
+    synchronized boolean withdraw() {
+        if (tokens < 1) {
+            return false;
+        }
+
+        tokens--;
+        return true;
+    }
+}
@@ -23,13 +23,24 @@
 package anhttpclient.impl.request;
 
 import anhttpclient.HttpConstants;
+import anhttpclient.RequestHandle;
 import anhttpclient.WebResponse;
 import anhttpclient.RequestMethod;
 import anhttpclient.WebRequest;
+import org.apache.http.NameValuePair;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.protocol.HTTP;
 
+import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -42,12 +53,52 @@ public class HttpGetWebRequest implements WebRequest {
     public static final String ESCAPED_QUERY_SIGN = "\\?";
     public static final String AMPERSAND_SIGN = "&";
     public static final String EQUALS_SIGN = "=";
+    public static final String FRAGMENT_SIGN = "#";
 
+    /**
+     * Charset which is used to encode and decode query parameters
+     */
+    public static final String QUERY_PARAMS_CHARSET = HTTP.UTF_8;
+
+    protected Map<String, String> headers;
+
+    /* Url without query and fragment */
+    private String baseUrl;
+
+    /* Fragment of the url including leading '#' or null */
+    private String fragment;
+
+    /* Decoded query parameters in order of their appearance in url */
+    private List<NameValuePair> params;
+
+    /* Url-encoded query string without leading '?' or null */
+    private StringBuilder query;
+
+    /* Full url, built lazily from parts above and reset after every change, parsed again if assigned by subclass */
     protected String url;
-    protected Map<String, String> headers = new HashMap<String, String>();
+    private URI uri;
+
+    /* Url which parts above were parsed from or built into */
+    private String partsUrl;
+
+    /* Template this request was derived from, or null */
+    private WebRequestTemplate template;
+
+    /* true while params and query are shared with template and should be copied before change */
+    private boolean sharedParams;
+
+    /* Total time of request in milliseconds or null to use time defined by browser */
+    private Integer requestTimeout;
+
+    /* Priority of request or null to use default priority */
+    private Integer priority;
+
+    /* Handle which allows to abort this request from another thread */
+    private final WebRequestHandle handle = new WebRequestHandle(this);
 
     public HttpGetWebRequest() {
-        /* Default constructor */
+        this.headers = new HashMap<String, String>();
+        this.params = new ArrayList<NameValuePair>();
     }
 
     /**
@@ -56,32 +107,211 @@ public class HttpGetWebRequest implements WebRequest {
      * @param url url for request
      */
     public HttpGetWebRequest(String url) {
-        this.url = url;
+        this.headers = new HashMap<String, String>();
+        setUrl(url);
+    }
+
+    /**
+     * Creates request which shares url, params and headers with passed template.
+     * Shared state is copied only when this request is changed.
+     *
+     * @param template template to derive request from
+     * @param pathSegment already encoded path segment to append to template url, may be {@code null}
+     */
+    HttpGetWebRequest(WebRequestTemplate template, String pathSegment) {
+        HttpGetWebRequest prototype = template.getPrototype();
+
+        this.template = template;
+        this.headers = template.getHeaders();
+        this.fragment = prototype.fragment;
+        this.params = prototype.params;
+        this.query = prototype.query;
+        this.sharedParams = true;
+
+        if (pathSegment == null) {
+            this.baseUrl = prototype.baseUrl;
+            this.url = prototype.url;
+            this.uri = prototype.uri;
+            this.partsUrl = prototype.partsUrl;
+        } else {
+            StringBuilder path = new StringBuilder(prototype.baseUrl.length() + pathSegment.length() + 1);
+            path.append(prototype.baseUrl);
+            if (prototype.baseUrl.charAt(prototype.baseUrl.length() - 1) != '/') {
+                path.append('/');
+            }
+
+            this.baseUrl = path.append(pathSegment).toString();
+        }
     }
 
     /**
      * {@inheritDoc}
      */
     public String getUrl() {
+        syncUrl();
+        if (url == null && baseUrl != null) {
+            int length = baseUrl.length()
+                    + (query != null ? query.length() + 1 : 0)
+                    + (fragment != null ? fragment.length() : 0);
+
+            StringBuilder fullUrl = new StringBuilder(length);
+            fullUrl.append(baseUrl);
+            if (query != null) {
+                fullUrl.append(QUERY_SIGN).append(query);
+            }
+            if (fragment != null) {
+                fullUrl.append(fragment);
+            }
+
+            url = fullUrl.toString();
+            partsUrl = url;
+        }
+
         return url;
     }
 
+    /* parses url assigned directly by subclass, references are compared as url is not changed otherwise */
+    private void syncUrl() {
+        if (url != null && url != partsUrl) {
+            setUrl(url);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
     public void setUrl(String url) {
+        this.sharedParams = false;
         this.url = url;
+        this.partsUrl = url;
+        this.uri = null;
+        this.baseUrl = null;
+        this.fragment = null;
+        this.query = null;
+        this.params = new ArrayList<NameValuePair>();
+
+        if (url == null) {
+            return;
+        }
+
+        String urlWithoutFragment = url;
+        int fragmentIndex = url.indexOf(FRAGMENT_SIGN);
+        if (fragmentIndex >= 0) {
+            fragment = url.substring(fragmentIndex);
+            urlWithoutFragment = url.substring(0, fragmentIndex);
+        }
+
+        int queryIndex = urlWithoutFragment.indexOf(QUERY_SIGN);
+        if (queryIndex < 0) {
+            baseUrl = urlWithoutFragment;
+            return;
+        }
+
+        baseUrl = urlWithoutFragment.substring(0, queryIndex);
+        if (queryIndex < urlWithoutFragment.length() - 1) {
+            String queryString = urlWithoutFragment.substring(queryIndex + 1);
+            query = new StringBuilder(queryString);
+            parseQuery(queryString);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <br/>
+     * Parsed {@link URI} is cached until url or request params are changed
+     */
+    public URI getURI() {
+        syncUrl();
+        if (uri == null && getUrl() != null) {
+            uri = URI.create(getUrl());
+        }
+
+        return uri;
+    }
+
+    /**
+     * Split url-encoded query string into decoded (name, value) pairs.
+     * Only first {@code =} sign separates name from value
+     * so values which contains {@code =} are kept untouched.
+     *
+     * @param queryString url-encoded query string without leading {@code ?}
+     */
+    private void parseQuery(String queryString) {
+        int start = 0;
+        while (start <= queryString.length()) {
+            int end = queryString.indexOf(AMPERSAND_SIGN, start);
+            if (end < 0) {
+                end = queryString.length();
+            }
+
+            if (end > start) {
+                int equalsIndex = queryString.indexOf(EQUALS_SIGN, start);
+                if (equalsIndex < 0 || equalsIndex > end) {
+                    params.add(new BasicNameValuePair(decode(queryString.substring(start, end)), null));
+                } else {
+                    params.add(new BasicNameValuePair(
+                            decode(queryString.substring(start, equalsIndex)),
+                            decode(queryString.substring(equalsIndex + 1, end))));
+                }
+            }
+
+            start = end + 1;
+        }
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, QUERY_PARAMS_CHARSET);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        } catch (IllegalArgumentException e) {
+            //Not a valid url-encoded string - keep it as is
+            return value;
+        }
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, QUERY_PARAMS_CHARSET);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Return template from which this request was derived
+     *
+     * @return template of this request or {@code null} if request was not created from template
+     */
+    public WebRequestTemplate getTemplate() {
+        return template;
+    }
+
+    /**
+     * Copy headers shared with template before changing them
+     *
+     * @return headers of this request which could be changed
+     */
+    private Map<String, String> getOwnHeaders() {
+        if (template != null && headers == template.getHeaders()) {
+            headers = new HashMap<String, String>(headers);
+        }
+
+        return headers;
     }
 
     /**
      * {@inheritDoc}
      */
     public void addHeaders(Map<String, String> headers) {
-        this.headers.putAll(headers);
+        getOwnHeaders().putAll(headers);
     }
 
     /**
      * {@inheritDoc}
      */
     public void addHeader(String name, String value) {
-        headers.put(name, value);
+        getOwnHeaders().put(name, value);
     }
 
     /**
@@ -95,38 +325,33 @@ public class HttpGetWebRequest implements WebRequest {
      * {@inheritDoc}
      */
     public void setReferer(String referer) {
-        headers.put(HttpConstants.REFERER_HEADER, referer);
+        getOwnHeaders().put(HttpConstants.REFERER_HEADER, referer);
     }
 
     /**
      * {@inheritDoc}
      */
     public void setReferer(WebResponse response)  throws MalformedURLException {
-        headers.put(HttpConstants.REFERER_HEADER, response.getUrl().toString());
+        getOwnHeaders().put(HttpConstants.REFERER_HEADER, response.getUrl().toString());
     }
 
     /**
      * {@inheritDoc}
      * <br/>
-     * Because this is GET request parameters should be putted to url
+     * Because this is GET request parameters should be putted to url.
+     * Returned values are url-decoded
      *
      * @return collection of request params from request url
      */
     public Map<String, String> getRequestParams() {
-        String[] urlWithParamsArray = url.split(ESCAPED_QUERY_SIGN);
-
-        if (urlWithParamsArray.length < 2) {
+        syncUrl();
+        if (params.isEmpty()) {
             return Collections.emptyMap();
         }
 
-        String paramsString = url.split(ESCAPED_QUERY_SIGN)[1];
-        String paramsArray[] = paramsString.split(AMPERSAND_SIGN);
-        Map<String, String> paramsMap = new HashMap<String, String>(paramsArray.length);
-
-        for (String paramsEntry : paramsArray) {
-            String paramName = paramsEntry.split(EQUALS_SIGN)[0];
-            String paramValue = paramsEntry.split(EQUALS_SIGN)[1];
-            paramsMap.put(paramName, paramValue);
+        Map<String, String> paramsMap = new LinkedHashMap<String, String>(params.size() * 2);
+        for (NameValuePair param : params) {
+            paramsMap.put(param.getName(), param.getValue());
         }
 
         return paramsMap;
@@ -135,44 +360,54 @@ public class HttpGetWebRequest implements WebRequest {
     /**
      * {@inheritDoc}
      * <br/>
-     * because this is GET request we should add params to request URL
+     * because this is GET request we should add params to request URL.
+     * Names and values are url-encoded using {@link #QUERY_PARAMS_CHARSET}
      *
      * @param requestParams collection of (name, value) pairs of request params
      */
     public void addParams(Map<String, String> requestParams) {
-        StringBuilder urlWithParams = new StringBuilder();
-        urlWithParams.append(url);
-
-        if (!url.contains(QUERY_SIGN)) {
-            urlWithParams.append(QUERY_SIGN);
-        }
-
         for (Map.Entry<String, String> requestParam : requestParams.entrySet()) {
-            if (!urlWithParams.toString().endsWith(QUERY_SIGN)) {
-                urlWithParams.append(AMPERSAND_SIGN);
-            }
-
-            urlWithParams.append(requestParam.getKey());
-            urlWithParams.append(EQUALS_SIGN);
-            urlWithParams.append(requestParam.getValue());
+            addParam(requestParam.getKey(), requestParam.getValue());
         }
-
-        url = urlWithParams.toString();
     }
 
     /**
      * {@inheritDoc}
      * <br/>
-     * because this is GET request we should add parameter to request URL
+     * because this is GET request we should add parameter to request URL.
+     * Name and value are url-encoded using {@link #QUERY_PARAMS_CHARSET}
      *
      * @param name  name of request parameter
      * @param value value of request parameter
      */
     public void addParam(String name, String value) {
-        Map<String, String> singleParam = new HashMap<String, String>(1);
+        syncUrl();
+        if (baseUrl == null) {
+            throw new IllegalStateException("ANHTTPCLIENT. Request url should be set before adding request params");
+        }
+
+        if (sharedParams) {
+            params = new ArrayList<NameValuePair>(params);
+            query = query != null ? new StringBuilder(query) : null;
+            sharedParams = false;
+        }
 
-        singleParam.put(name, value);
-        addParams(singleParam);
+        params.add(new BasicNameValuePair(name, value));
+
+        if (query == null) {
+            query = new StringBuilder();
+        } else if (query.length() > 0) {
+            query.append(AMPERSAND_SIGN);
+        }
+
+        query.append(encode(name));
+        if (value != null) {
+            query.append(EQUALS_SIGN).append(encode(value));
+        }
+
+        url = null;
+        partsUrl = null;
+        uri = null;
     }
 
     /**
@@ -184,4 +419,39 @@ public class HttpGetWebRequest implements WebRequest {
     public RequestMethod getRequestMethod() {
         return RequestMethod.GET;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Integer getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setRequestTimeout(Integer requestTimeout) {
+        this.requestTimeout = requestTimeout;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Integer getPriority() {
+        return priority;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setPriority(Integer priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public RequestHandle getHandle() {
+        return handle;
+    }
 }
@@ -41,6 +41,16 @@ public final class HttpOptionsWebRequest extends HttpGetWebRequest {
         super(url);
     }
 
+    /**
+     * Creates request derived from template, see {@link WebRequestTemplate}
+     *
+     * @param template template to derive request from
+     * @param pathSegment encoded path segment to append to template url or {@code null}
+     */
+    HttpOptionsWebRequest(WebRequestTemplate template, String pathSegment) {
+        super(template, pathSegment);
+    }
+
     /**
      * {@inheritDoc}
      * <br/>
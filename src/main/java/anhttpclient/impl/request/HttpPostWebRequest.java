@@ -24,6 +24,12 @@ package anhttpclient.impl.request;
 
 import anhttpclient.RequestMethod;
 import anhttpclient.EntityEnclosingWebRequest;
+import anhttpclient.impl.entity.ByteBufferEntity;
+import anhttpclient.impl.entity.FileRegionEntity;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.entity.mime.content.ByteArrayBody;
 import org.apache.http.entity.mime.content.ContentBody;
 import org.apache.http.entity.mime.content.FileBody;
@@ -34,9 +40,11 @@ import org.apache.http.protocol.HTTP;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -50,7 +58,9 @@ public class HttpPostWebRequest extends HttpGetWebRequest implements EntityEnclo
 
     protected String formParamsCharset = HTTP.UTF_8;
     protected Map<String, String> formParams = new HashMap<String, String>();
-    Map<String, ContentBody> parts = new HashMap<String, ContentBody>();
+    Map<String, ContentBody> parts = new LinkedHashMap<String, ContentBody>();
+    protected HttpEntity body;
+    protected long compressionThreshold = -1;
 
     private String getMimeTypeOrDefault(String mimeType) {
         return mimeType != null ? mimeType : OCTET_STREAM_MIME_TYPE;
@@ -66,7 +76,17 @@ public class HttpPostWebRequest extends HttpGetWebRequest implements EntityEnclo
      * @param url url for request
      */
     public HttpPostWebRequest(String url) {
-        this.url = url;
+        super(url);
+    }
+
+    /**
+     * Creates request derived from template, see {@link WebRequestTemplate}
+     *
+     * @param template template to derive request from
+     * @param pathSegment encoded path segment to append to template url or {@code null}
+     */
+    HttpPostWebRequest(WebRequestTemplate template, String pathSegment) {
+        super(template, pathSegment);
     }
 
     /**
@@ -88,6 +108,7 @@ public class HttpPostWebRequest extends HttpGetWebRequest implements EntityEnclo
      */
     public void addFormParams(Map<String, String> requestParams, String charset) {
         parts.clear();
+        body = null;
         formParamsCharset = charset != null ? charset : HTTP.UTF_8;
         formParams.putAll(requestParams);
     }
@@ -104,6 +125,7 @@ public class HttpPostWebRequest extends HttpGetWebRequest implements EntityEnclo
      */
     public void addFormParam(String name, String value, String charset) {
         parts.clear();
+        body = null;
         formParamsCharset = charset != null ? charset : HTTP.UTF_8;
         formParams.put(name, value);
     }
@@ -121,6 +143,7 @@ public class HttpPostWebRequest extends HttpGetWebRequest implements EntityEnclo
     public void addPart(String partName, File file, String mimeType, String charset, String name) throws IOException {
         parts.put(partName, new FileBody(file, name, getMimeTypeOrDefault(mimeType), charset));
         formParams.clear();
+        body = null;
     }
 
     /**
@@ -150,6 +173,7 @@ public class HttpPostWebRequest extends HttpGetWebRequest implements EntityEnclo
     public void addPart(String partName, InputStream inputStream, String name, String mimeType) throws IOException {
         parts.put(partName, new InputStreamBody(inputStream, getMimeTypeOrDefault(mimeType), name));
         formParams.clear();
+        body = null;
     }
 
     /**
@@ -172,6 +196,7 @@ public class HttpPostWebRequest extends HttpGetWebRequest implements EntityEnclo
     public void addPart(String partName, String string, String charset) {
         parts.put(partName, StringBody.create(string, TEXT_PLAIN_MIME_TYPE, charset != null ? Charset.forName(charset) : null));
         formParams.clear();
+        body = null;
     }
 
     /**
@@ -187,6 +212,7 @@ public class HttpPostWebRequest extends HttpGetWebRequest implements EntityEnclo
     public void addPart(String partName, byte[] byteArray, String mimeType, String name) {
         parts.put(partName, new ByteArrayBody(byteArray, getMimeTypeOrDefault(mimeType), name));
         formParams.clear();
+        body = null;
     }
 
     /**
@@ -207,6 +233,71 @@ public class HttpPostWebRequest extends HttpGetWebRequest implements EntityEnclo
         return Collections.unmodifiableMap(parts);
     }
 
+    private void setBody(AbstractHttpEntity entity, String mimeType) {
+        entity.setContentType(getMimeTypeOrDefault(mimeType));
+        parts.clear();
+        formParams.clear();
+        body = entity;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setBody(byte[] body, String mimeType) {
+        setBody(new ByteArrayEntity(body), mimeType);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setBody(ByteBuffer body, String mimeType) {
+        setBody(new ByteBufferEntity(body, null), mimeType);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setBody(File file, String mimeType) throws IOException {
+        setBody(new FileRegionEntity(file, null), mimeType);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setBody(File file, long offset, long length, String mimeType) throws IOException {
+        setBody(new FileRegionEntity(file, offset, length, null), mimeType);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setBody(InputStream inputStream, long length, String mimeType) {
+        InputStreamEntity entity = new InputStreamEntity(inputStream, length);
+        entity.setChunked(length < 0);
+        setBody(entity, mimeType);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public HttpEntity getBody() {
+        return body;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setCompressionThreshold(long threshold) {
+        this.compressionThreshold = threshold;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
     /**
      * {@inheritDoc}
      * <br/>
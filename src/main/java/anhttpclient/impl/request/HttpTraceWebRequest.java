@@ -42,6 +42,16 @@ public final class HttpTraceWebRequest extends HttpGetWebRequest {
         super(url);
     }
 
+    /**
+     * Creates request derived from template, see {@link WebRequestTemplate}
+     *
+     * @param template template to derive request from
+     * @param pathSegment encoded path segment to append to template url or {@code null}
+     */
+    HttpTraceWebRequest(WebRequestTemplate template, String pathSegment) {
+        super(template, pathSegment);
+    }
+
     /**
      * {@inheritDoc}
      * <br/>
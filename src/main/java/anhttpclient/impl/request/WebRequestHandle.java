@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpclient.impl.request;
+
+import anhttpclient.RequestHandle;
+import anhttpclient.RequestMethod;
+import anhttpclient.WebRequest;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * <p>Handle of particular {@link WebRequest} which could be obtained before request is sent
+ * and passed to another thread, so that thread could abort exactly this request
+ * whichever browser or thread executes it.</p>
+ * <p>Browsers attach their executions of the request to the handle.
+ * If handle is aborted before request is sent, request is aborted as soon as it starts.
+ * Abort is final: aborted request could not be sent again.</p>
+ *
+ * @author Sergey Prilukin
+ */
+public class WebRequestHandle implements RequestHandle {
+
+    private final WebRequest webRequest;
+
+    /* executions of request by browsers which are in progress */
+    private final Set<RequestHandle> executions = new CopyOnWriteArraySet<RequestHandle>();
+    private volatile boolean aborted;
+
+    public WebRequestHandle(WebRequest webRequest) {
+        this.webRequest = webRequest;
+    }
+
+    /**
+     * Attaches execution of request by browser to this handle
+     *
+     * @param execution handle of execution
+     */
+    public void attach(RequestHandle execution) {
+        executions.add(execution);
+        if (aborted) {
+            execution.abort();
+        }
+    }
+
+    /**
+     * Detaches completed execution of request
+     *
+     * @param execution handle of execution
+     */
+    public void detach(RequestHandle execution) {
+        executions.remove(execution);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getUrl() {
+        return webRequest.getUrl();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getHost() {
+        return webRequest.getURI().getHost();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public RequestMethod getRequestMethod() {
+        return webRequest.getRequestMethod();
+    }
+
+    /**
+     * Return thread which executes request
+     *
+     * @return thread or {@code null} if request is not being executed
+     */
+    public Thread getThread() {
+        Iterator<RequestHandle> iterator = executions.iterator();
+        return iterator.hasNext() ? iterator.next().getThread() : null;
+    }
+
+    /**
+     * Return time when execution of request started
+     *
+     * @return time in milliseconds or {@code 0} if request is not being executed
+     */
+    public long getStartTime() {
+        Iterator<RequestHandle> iterator = executions.iterator();
+        return iterator.hasNext() ? iterator.next().getStartTime() : 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void abort() {
+        aborted = true;
+        for (RequestHandle execution : executions) {
+            execution.abort();
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpclient.impl.request;
+
+import anhttpclient.RequestMethod;
+import anhttpclient.WebRequest;
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>Immutable prototype of web request: method, url, headers and request params.</p>
+ * <p>Use it when lots of similar requests which differ only in path segment
+ * or some request params should be executed. Url is parsed, params are encoded
+ * and headers are converted only once when template is created.
+ * Requests derived by {@link #newRequest} share this state
+ * and copy it only if they are changed.</p>
+ * <p>Template is thread safe and could be shared between threads.</p>
+ *
+ * @author Sergey Prilukin
+ */
+public final class WebRequestTemplate {
+
+    private final RequestMethod requestMethod;
+    private final HttpGetWebRequest prototype;
+    private final Map<String, String> headers;
+    private final Header[] headerArray;
+
+    /**
+     * Creates template without headers and request params
+     *
+     * @param requestMethod method of requests created from this template
+     * @param url url of requests created from this template
+     */
+    public WebRequestTemplate(RequestMethod requestMethod, String url) {
+        this(requestMethod, url, null, null);
+    }
+
+    /**
+     * Creates template
+     *
+     * @param requestMethod method of requests created from this template
+     * @param url url of requests created from this template
+     * @param headers headers which will be sent with every request created from this template,
+     * may be {@code null}
+     * @param requestParams request params which will be sent with every request created from this template,
+     * may be {@code null}
+     * @throws IllegalArgumentException if url has malformed syntax
+     */
+    public WebRequestTemplate(RequestMethod requestMethod, String url,
+                              Map<String, String> headers, Map<String, String> requestParams) {
+        if (requestMethod == null || url == null) {
+            throw new IllegalArgumentException("ANHTTPCLIENT. Request method and url should be specified");
+        }
+
+        this.requestMethod = requestMethod;
+
+        this.prototype = new HttpGetWebRequest(url);
+        if (requestParams != null) {
+            this.prototype.addParams(requestParams);
+        }
+
+        //Build url and URI now, so they are never changed after template is published
+        this.prototype.getUrl();
+        this.prototype.getURI();
+
+        if (headers != null) {
+            this.headers = Collections.unmodifiableMap(new HashMap<String, String>(headers));
+        } else {
+            this.headers = Collections.emptyMap();
+        }
+
+        this.headerArray = new Header[this.headers.size()];
+        int index = 0;
+        for (Map.Entry<String, String> entry : this.headers.entrySet()) {
+            this.headerArray[index++] = new BasicHeader(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Return method of requests created from this template
+     *
+     * @return method of requests created from this template
+     */
+    public RequestMethod getRequestMethod() {
+        return requestMethod;
+    }
+
+    /**
+     * Return url of requests created from this template
+     *
+     * @return url including template request params
+     */
+    public String getUrl() {
+        return prototype.getUrl();
+    }
+
+    /**
+     * Return unmodifiable map of template headers
+     *
+     * @return headers of this template
+     */
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Return headers of this template already converted to {@link Header} instances.
+     * Returned array should not be modified.
+     *
+     * @return headers of this template
+     */
+    public Header[] getHeaderArray() {
+        return headerArray;
+    }
+
+    HttpGetWebRequest getPrototype() {
+        return prototype;
+    }
+
+    /**
+     * Creates new request with url, headers and request params of this template
+     *
+     * @return new request
+     */
+    public WebRequest newRequest() {
+        return newRequestWithEncodedPath(null);
+    }
+
+    /**
+     * Creates new request with url, headers and request params of this template
+     * and appends passed path segment to template url path
+     *
+     * @param pathSegment path segment to append, will be url-encoded
+     * @return new request
+     */
+    public WebRequest newRequest(String pathSegment) {
+        return newRequestWithEncodedPath(encodePathSegment(pathSegment));
+    }
+
+    private WebRequest newRequestWithEncodedPath(String pathSegment) {
+        switch (requestMethod) {
+            case GET:
+                return new HttpGetWebRequest(this, pathSegment);
+            case HEAD:
+                return new HttpHeadWebRequest(this, pathSegment);
+            case OPTIONS:
+                return new HttpOptionsWebRequest(this, pathSegment);
+            case TRACE:
+                return new HttpTraceWebRequest(this, pathSegment);
+            case DELETE:
+                return new HttpDeleteWebRequest(this, pathSegment);
+            case POST:
+                return new HttpPostWebRequest(this, pathSegment);
+            case PUT:
+                return new HttpPutWebRequest(this, pathSegment);
+            default:
+                throw new RuntimeException("Method not yet supported: " + requestMethod);
+        }
+    }
+
+    /**
+     * Percent-encode all characters of path segment
+     * except unreserved ones and ones allowed in path by RFC 3986
+     *
+     * @param pathSegment path segment to encode
+     * @return encoded path segment
+     */
+    private static String encodePathSegment(String pathSegment) {
+        StringBuilder encoded = null;
+        for (int i = 0; i < pathSegment.length(); i++) {
+            char c = pathSegment.charAt(i);
+            if (isPathChar(c)) {
+                if (encoded != null) {
+                    encoded.append(c);
+                }
+                continue;
+            }
+
+            if (encoded == null) {
+                encoded = new StringBuilder(pathSegment.length() * 3);
+                encoded.append(pathSegment, 0, i);
+            }
+
+            int end = i + 1;
+            if (Character.isHighSurrogate(c) && end < pathSegment.length()) {
+                end++;
+            }
+
+            try {
+                for (byte b : pathSegment.substring(i, end).getBytes(HttpGetWebRequest.QUERY_PARAMS_CHARSET)) {
+                    encoded.append('%');
+                    encoded.append(Character.toUpperCase(Character.forDigit((b >> 4) & 0xF, 16)));
+                    encoded.append(Character.toUpperCase(Character.forDigit(b & 0xF, 16)));
+                }
+            } catch (UnsupportedEncodingException e) {
+                throw new RuntimeException(e);
+            }
+
+            i = end - 1;
+        }
+
+        return encoded != null ? encoded.toString() : pathSegment;
+    }
+
+    private static boolean isPathChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || "-._~!$&'()*+,;=:@".indexOf(c) >= 0;
+    }
+}
@@ -23,10 +23,36 @@
 package anhttpclient;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import anhttpclient.impl.ChunkedUploadProtocol;
 import anhttpclient.impl.DefaultWebBrowser;
+import anhttpclient.impl.MultiThreadWebBrowser;
+import anhttpclient.impl.ParallelUploader;
+import anhttpclient.impl.RequestTimeoutException;
+import anhttpclient.impl.conn.CachingDnsResolver;
+import anhttpclient.impl.conn.DnsResolver;
+import anhttpclient.impl.conn.SocketOptions;
+import anhttpclient.impl.conn.SocketOptionsProfile;
+import anhttpclient.impl.conn.StaticDnsResolver;
+import anhttpclient.impl.conn.TlsContext;
+import anhttpclient.impl.conn.UnixSocketRoutes;
+import anhttpclient.impl.cookie.ConcurrentCookieStore;
+import anhttpclient.impl.cookie.PersistentCookieStore;
+import anhttpclient.impl.policy.CircuitBreaker;
+import anhttpclient.impl.policy.CircuitBreakerOpenException;
+import anhttpclient.impl.policy.ConcurrencyLimitExceededException;
+import anhttpclient.impl.policy.ConcurrencyLimiter;
+import anhttpclient.impl.policy.EndpointGroup;
+import anhttpclient.impl.policy.HedgingPolicy;
+import anhttpclient.impl.policy.RateLimitExceededException;
+import anhttpclient.impl.policy.RateLimiter;
+import anhttpclient.impl.policy.RequestScheduler;
+import anhttpclient.impl.policy.RetryPolicy;
 import anhttpclient.impl.request.HttpDeleteWebRequest;
 import anhttpclient.impl.request.HttpGetWebRequest;
 import anhttpclient.impl.request.HttpHeadWebRequest;
@@ -34,26 +60,57 @@ import anhttpclient.impl.request.HttpOptionsWebRequest;
 import anhttpclient.impl.request.HttpPostWebRequest;
 import anhttpclient.impl.request.HttpPutWebRequest;
 import anhttpclient.impl.request.HttpTraceWebRequest;
+import anhttpclient.impl.request.WebRequestTemplate;
 import anhttpserver.ByteArrayHandlerAdapter;
 import anhttpserver.DefaultHttpServer;
 import anhttpserver.HttpRequestContext;
 import anhttpserver.HttpServer;
+import org.apache.commons.io.FileUtils;
 import org.apache.http.cookie.Cookie;
+import org.apache.http.impl.cookie.BasicClientCookie;
 import org.apache.http.protocol.HTTP;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
 import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 /**
@@ -99,6 +156,24 @@ public class AnhttpclientTest {
         server.stop();
     }
 
+    /* waits for the latch which should be released by test, so handler does not block server forever */
+    private static void awaitRelease(CountDownLatch release) {
+        try {
+            release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /* polls condition until it is met, fails if it is not met during timeout */
+    private static void waitFor(Callable<Boolean> condition, long timeout) throws Exception {
+        long start = System.currentTimeMillis();
+        while (!condition.call()) {
+            assertTrue(String.format("Condition is not met in %d ms", timeout), System.currentTimeMillis() - start < timeout);
+            Thread.sleep(10);
+        }
+    }
+
     @Test
     public void testRequestMethodsAndDefaultHeadersAndHostAndResponseText() throws Exception {
         final String methodParamName = "method";
@@ -202,6 +277,127 @@ public class AnhttpclientTest {
     }
 
 
+    @Test
+    public void testFormParamsCharset() throws Exception {
+        final String charset = "windows-1251";
+        final Map<String, String> params = new LinkedHashMap<String, String>();
+        params.put("russian", "привет");
+        params.put("space", "aaa bbb");
+
+        final StringBuilder expected = new StringBuilder();
+        for (Map.Entry<String, String> entry: params.entrySet()) {
+            if (expected.length() > 0) {
+                expected.append('&');
+            }
+            expected.append(entry.getKey()).append('=').append(java.net.URLEncoder.encode(entry.getValue(), charset));
+        }
+
+        server.addHandler("/formParamsCharset", new ByteArrayHandlerAdapter() {
+            public byte[] getResponseAsByteArray(HttpRequestContext httpRequestContext) throws IOException {
+                assertEquals("application/x-www-form-urlencoded; charset=" + charset,
+                        httpRequestContext.getRequestHeaders().get(HTTP.CONTENT_TYPE).get(0));
+
+                //Body is encoded with declared charset, not with UTF-8
+                byte[] body = httpRequestContext.getRequestBody();
+                assertEquals(expected.toString(), new String(body, "US-ASCII"));
+                assertTrue(expected.toString().contains("%EF%F0%E8%E2%E5%F2"));
+                assertEquals(body.length,
+                        Integer.valueOf(httpRequestContext.getRequestHeaders().get("Content-length").get(0)).intValue());
+
+                return "OK".getBytes();
+            }
+        });
+
+        HttpPostWebRequest req = new HttpPostWebRequest(server.getBaseUrl() + "/formParamsCharset");
+        req.addFormParams(params, charset);
+        assertEquals("OK", wb.getResponse(req).getText());
+    }
+
+    @Test
+    public void testRequestParams() throws Exception {
+        final Map<String, String> params = new LinkedHashMap<String, String>();
+        params.put("email", "sss@ggg.com");
+        params.put("space", "aaa bbb");
+        params.put("russian", "привет");
+        params.put("equals", "a=b&c=d");
+
+        server.addHandler("/requestParams", new ByteArrayHandlerAdapter() {
+            public byte[] getResponseAsByteArray(HttpRequestContext httpRequestContext) throws IOException {
+                String[] paramValuePairs = httpRequestContext.getRequestURI().getRawQuery().split("\\&");
+                assertEquals("incorrect params count", params.size() + 1, paramValuePairs.length);
+                for (String paramValuePair: paramValuePairs) {
+                    String[] paramValueArray = paramValuePair.split("\\=");
+                    String param = paramValueArray[0];
+                    String value = java.net.URLDecoder.decode(paramValueArray[1], "UTF-8");
+                    if (!"initial".equals(param)) {
+                        assertEquals("incorrect param value", params.get(param), value);
+                    }
+                }
+
+                return "OK".getBytes();
+            }
+        });
+
+        WebRequest req = new HttpGetWebRequest(server.getBaseUrl() + "/requestParams?initial=x%3Dy");
+        req.addParams(params);
+
+        Map<String, String> requestParams = req.getRequestParams();
+        assertEquals("x=y", requestParams.get("initial"));
+        for (Map.Entry<String, String> entry: params.entrySet()) {
+            assertEquals("incorrect param value", entry.getValue(), requestParams.get(entry.getKey()));
+        }
+
+        assertEquals(req.getUrl(), req.getURI().toString());
+        assertEquals("OK", wb.getResponse(req).getText());
+
+        //Url assigned directly by subclass is parsed
+        HttpGetWebRequest subclassReq = new HttpGetWebRequest() {
+            {
+                url = server.getBaseUrl() + "/requestParams?initial=x%3Dy";
+            }
+        };
+        assertEquals("x=y", subclassReq.getRequestParams().get("initial"));
+        subclassReq.addParams(params);
+        assertEquals(subclassReq.getUrl(), subclassReq.getURI().toString());
+        assertEquals("OK", wb.getResponse(subclassReq).getText());
+    }
+
+    @Test
+    public void testRequestTemplate() throws Exception {
+        final String headerName = "X-template";
+        final String headerValue = "template header";
+
+        server.addHandler("/template", new ByteArrayHandlerAdapter() {
+            public byte[] getResponseAsByteArray(HttpRequestContext httpRequestContext) throws IOException {
+                URI requestURI = httpRequestContext.getRequestURI();
+                assertEquals(headerValue, httpRequestContext.getRequestHeaders().get(headerName).get(0));
+                assertTrue(requestURI.getRawQuery().startsWith("static=value"));
+
+                String path = requestURI.getPath();
+                return path.substring(path.lastIndexOf('/') + 1).getBytes("UTF-8");
+            }
+        });
+
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put(headerName, headerValue);
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("static", "value");
+
+        WebRequestTemplate template = new WebRequestTemplate(
+                RequestMethod.GET, server.getBaseUrl() + "/template", headers, params);
+
+        for (int i = 0; i < 3; i++) {
+            WebRequest req = template.newRequest("item " + i);
+            req.addParam("dynamic", String.valueOf(i));
+            assertEquals("item " + i, wb.getResponse(req).getText());
+        }
+
+        WebRequest req = template.newRequest();
+        req.addHeader(headerName, "changed");
+        assertEquals(headerValue, template.getHeaders().get(headerName));
+        assertEquals(server.getBaseUrl() + "/template?static=value", template.newRequest().getUrl());
+    }
+
     @Test
     public void testGzipResponse() throws Exception {
 
@@ -278,6 +474,1135 @@ public class AnhttpclientTest {
         }
     }
 
+    @Test
+    public void testMultipartFileRequest() throws Exception {
+        final String fileContent = "Test multipart file content";
+
+        server.addHandler("/multipartFile", new ByteArrayHandlerAdapter() {
+            public byte[] getResponseAsByteArray(HttpRequestContext httpRequestContext) {
+                byte[] body = httpRequestContext.getRequestBody();
+                assertEquals("Content length should be known", body.length,
+                        Integer.valueOf(httpRequestContext.getRequestHeaders().get("Content-length").get(0)).intValue());
+
+                String bodyAsString = new String(body);
+                assertTrue(bodyAsString.contains(fileContent));
+                assertTrue("Parts should be sent in order they were added",
+                        bodyAsString.indexOf("name=\"z\"") < bodyAsString.indexOf("name=\"a\""));
+
+                return "OK".getBytes();
+            }
+        });
+
+        File file = File.createTempFile("anhttpclient", ".txt");
+        try {
+            OutputStream os = new FileOutputStream(file);
+            os.write(fileContent.getBytes());
+            os.close();
+
+            EntityEnclosingWebRequest req = new HttpPostWebRequest(server.getBaseUrl() + "/multipartFile");
+            req.addPart("z", "first part");
+            req.addPart("a", file, "text/plain");
+            assertEquals("OK", wb.getResponse(req).getText());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testRawBodyRequest() throws Exception {
+        final String requestBody = "{\"message\": \"Test raw request body\"}";
+        final byte[] body = requestBody.getBytes("UTF-8");
+
+        server.addHandler("/rawBody", new ByteArrayHandlerAdapter() {
+            public byte[] getResponseAsByteArray(HttpRequestContext httpRequestContext) {
+                assertEquals("application/json",
+                        httpRequestContext.getRequestHeaders().get(HTTP.CONTENT_TYPE).get(0));
+                return httpRequestContext.getRequestBody();
+            }
+        });
+
+        EntityEnclosingWebRequest req = new HttpPutWebRequest(server.getBaseUrl() + "/rawBody");
+
+        req.setBody(body, "application/json");
+        assertEquals(requestBody, wb.getResponse(req).getText());
+
+        ByteBuffer directBuffer = ByteBuffer.allocateDirect(body.length);
+        directBuffer.put(body).flip();
+        req.setBody(directBuffer, "application/json");
+        assertEquals(requestBody, wb.getResponse(req).getText());
+        assertEquals(requestBody, wb.getResponse(req).getText());
+
+        req.setBody(new ByteArrayInputStream(body), -1, "application/json");
+        assertEquals(requestBody, wb.getResponse(req).getText());
+
+        File file = File.createTempFile("anhttpclient", ".json");
+        try {
+            OutputStream os = new FileOutputStream(file);
+            os.write(body);
+            os.close();
+
+            req.setBody(file, "application/json");
+            assertEquals(requestBody, wb.getResponse(req).getText());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testCompressedRequestBody() throws Exception {
+        final StringBuilder requestBody = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            requestBody.append("{\"index\": ").append(i).append("}\n");
+        }
+
+        server.addHandler("/compressedBody", new ByteArrayHandlerAdapter() {
+            public byte[] getResponseAsByteArray(HttpRequestContext httpRequestContext) throws IOException {
+                List<String> contentEncoding = httpRequestContext.getRequestHeaders().get(HTTP.CONTENT_ENCODING);
+                if (contentEncoding == null) {
+                    return httpRequestContext.getRequestBody();
+                }
+
+                assertEquals(HttpConstants.GZIP, contentEncoding.get(0));
+                InputStream is = new GZIPInputStream(new ByteArrayInputStream(httpRequestContext.getRequestBody()));
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int count;
+                while ((count = is.read(buffer)) > 0) {
+                    baos.write(buffer, 0, count);
+                }
+
+                return baos.toByteArray();
+            }
+        });
+
+        EntityEnclosingWebRequest req = new HttpPostWebRequest(server.getBaseUrl() + "/compressedBody");
+        req.setBody(requestBody.toString().getBytes("UTF-8"), "application/json");
+        req.setCompressionThreshold(1024);
+        assertEquals(requestBody.toString(), wb.getResponse(req).getText());
+
+        req.setCompressionThreshold(requestBody.length() + 1);
+        assertEquals(requestBody.toString(), wb.getResponse(req).getText());
+    }
+
+    @Test
+    public void testParallelUpload() throws Exception {
+        final byte[] content = new byte[100 * 1024];
+        new Random().nextBytes(content);
+        final Map<Integer, byte[]> chunks = new ConcurrentHashMap<Integer, byte[]>();
+
+        server.addHandler("/upload", new ByteArrayHandlerAdapter() {
+            public byte[] getResponseAsByteArray(HttpRequestContext httpRequestContext) throws IOException {
+                if ("PUT".equals(httpRequestContext.getRequestMethod())) {
+                    String range = httpRequestContext.getRequestHeaders().get(ChunkedUploadProtocol.CONTENT_RANGE_HEADER).get(0);
+                    int offset = Integer.parseInt(range.substring("bytes ".length(), range.indexOf('-')));
+                    chunks.put(offset, httpRequestContext.getRequestBody());
+                    return String.valueOf(offset).getBytes();
+                }
+
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                for (byte[] chunk: new TreeMap<Integer, byte[]>(chunks).values()) {
+                    baos.write(chunk);
+                }
+                assertTrue("Uploaded content is incorrect", Arrays.equals(content, baos.toByteArray()));
+
+                return new String(httpRequestContext.getRequestBody()).getBytes();
+            }
+        });
+
+        File file = File.createTempFile("anhttpclient", ".bin");
+        try {
+            OutputStream os = new FileOutputStream(file);
+            os.write(content);
+            os.close();
+
+            ParallelUploader uploader = new ParallelUploader(new DefaultWebBrowser(true));
+            uploader.setChunkSize(16 * 1024);
+            WebResponse response = uploader.upload(file, new ChunkedUploadProtocol() {
+                public String getChunkUrl(int chunkIndex, long offset, long length, long totalLength) {
+                    return server.getBaseUrl() + "/upload";
+                }
+
+                public WebRequest createCompletionRequest(List<WebResponse> chunkResponses) {
+                    StringBuilder offsets = new StringBuilder();
+                    for (WebResponse chunkResponse: chunkResponses) {
+                        try {
+                            offsets.append(chunkResponse.getText()).append(",");
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+
+                    EntityEnclosingWebRequest req = new HttpPostWebRequest(server.getBaseUrl() + "/upload");
+                    req.setBody(offsets.toString().getBytes(), null);
+                    return req;
+                }
+            });
+
+            assertEquals(7, chunks.size());
+            assertEquals("0,16384,32768,49152,65536,81920,98304,", response.getText());
+        } finally {
+            file.delete();
+        }
+
+        //Chunks are sent from several threads, so browser should be thread safe
+        try {
+            new ParallelUploader(new DefaultWebBrowser());
+            fail("Not thread safe browser should be rejected");
+        } catch (IllegalArgumentException e) {
+            //Expected
+        }
+    }
+
+    @Test
+    public void testExpectContinue() throws Exception {
+        final String requestBody = "Test expect continue body";
+
+        server.addHandler("/expectContinue", new ByteArrayHandlerAdapter() {
+            public byte[] getResponseAsByteArray(HttpRequestContext httpRequestContext) {
+                assertEquals("100-continue", httpRequestContext.getRequestHeaders().get("Expect").get(0));
+                return httpRequestContext.getRequestBody();
+            }
+        });
+        final AtomicReference<List<String>> expectHeader = new AtomicReference<List<String>>();
+        server.addHandler("/expectContinueRejected", new ByteArrayHandlerAdapter() {
+            public byte[] getResponseAsByteArray(HttpRequestContext httpRequestContext) {
+                expectHeader.set(httpRequestContext.getRequestHeaders().get("Expect"));
+                throw new IllegalStateException("Server error");
+            }
+        });
+        server.addHandler("/expectContinueHeader", new ByteArrayHandlerAdapter() {
+            public byte[] getResponseAsByteArray(HttpRequestContext httpRequestContext) {
+                expectHeader.set(httpRequestContext.getRequestHeaders().get("Expect"));
+                return httpRequestContext.getRequestBody();
+            }
+        });
+
+        wb.setExpectContinueThreshold(10L);
+        EntityEnclosingWebRequest req = new HttpPostWebRequest(server.getBaseUrl() + "/expectContinue");
+        req.setBody(requestBody.getBytes(), null);
+        assertEquals(requestBody, wb.getResponse(req).getText());
+
+        //Error response of server which rejects request before reading its body is returned
+        req = new HttpPostWebRequest(server.getBaseUrl() + "/expectContinueRejected");
+        req.setBody(requestBody.getBytes(), null);
+        assertEquals(500, wb.getResponse(req).getResponseCode());
+        assertEquals("100-continue", expectHeader.get().get(0));
+
+        //Body shorter than threshold is sent without handshake
+        req = new HttpPostWebRequest(server.getBaseUrl() + "/expectContinueHeader");
+        req.setBody("123456789".getBytes(), null);
+        assertEquals("123456789", wb.getResponse(req).getText());
+        assertNull(expectHeader.get());
+
+        //Body of threshold length is sent with handshake
+        req = new HttpPostWebRequest(server.getBaseUrl() + "/expectContinueHeader");
+        req.setBody("1234567890".getBytes(), null);
+        assertEquals("1234567890", wb.getResponse(req).getText());
+        assertEquals("100-continue", expectHeader.get().get(0));
+    }
+
+    @Test
+    public void testCookieStoreDomainIndex() throws Exception {
+        server.addHandler("/domainCookies", new ByteArrayHandlerAdapter() {
+            public byte[] getResponseAsByteArray(HttpRequestContext httpRequestContext) {
+                assertEquals("local=1", httpRequestContext.getRequestHeaders().get("Cookie").get(0));
+                return "OK".getBytes();
+            }
+        });
+
+        BasicClientCookie localCookie = new BasicClientCookie("local", "1");
+        localCookie.setDomain(DefaultHttpServer.DEFAULT_HOST);
+        localCookie.setPath("/");
+        wb.addCookie(localCookie);
+
+        BasicClientCookie otherCookie = new BasicClientCookie("other", "2");
+        otherCookie.setDomain(".example.com");
+        otherCookie.setPath("/");
+        wb.addCookie(otherCookie);
+
+        BasicClientCookie expiredCookie = new BasicClientCookie("expired", "3");
+        expiredCookie.setDomain(DefaultHttpServer.DEFAULT_HOST);
+        expiredCookie.setPath("/");
+        expiredCookie.setExpiryDate(new Date(System.currentTimeMillis() - 1000));
+        wb.addCookie(expiredCookie);
+
+        wb.getResponse(new HttpGetWebRequest(server.getBaseUrl() + "/domainCookies"));
+
+        ConcurrentCookieStore cookieStore = (ConcurrentCookieStore) ((DefaultWebBrowser) wb).getCookieStore();
+        assertEquals(1, cookieStore.getCookies("www.example.com").size());
+        assertEquals("2", wb.getCookieByName("other").getValue());
+        assertNull(wb.getCookieByName("expired"));
+        assertEquals(2, wb.getCookies().size());
+    }
+
+    @Test
+    public void testSharedCookies() throws Exception {
+        final AtomicInteger requestCount = new AtomicInteger(0);
+        final Map<Integer, List<String>> requestCookies = new ConcurrentHashMap<Integer, List<String>>();
+
+        server.addHandler("/sharedCookies", new ByteArrayHandlerAdapter() {
+            public byte[] getResponseAsByteArray(HttpRequestContext httpRequestContext) {
+                int count = requestCount.incrementAndGet();
+                if (count == 1) {
+                    setResponseHeader("Set-Cookie", "SESSION=1; path=/", httpRequestContext);
+                } else {
+                    requestCookies.put(count, httpRequestContext.getRequestHeaders().get("Cookie"));
+                }
+
+                return "OK".getBytes();
+            }
+        });
+
+        final WebBrowser multiThreadWebBrowser = new MultiThreadWebBrowser(true);
+        final String url = server.getBaseUrl() + "/sharedCookies";
+        final List<IOException> errors = new ArrayList<IOException>();
+
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    multiThreadWebBrowser.getResponse(url);
+                } catch (IOException e) {
+                    errors.add(e);
+                }
+            }
+        });
+        thread.start();
+        thread.join();
+
+        assertTrue(errors.isEmpty());
+        assertEquals("1", multiThreadWebBrowser.getCookieByName("SESSION").getValue());
+        multiThreadWebBrowser.getResponse(url);
+        assertEquals(Arrays.asList("SESSION=1"), requestCookies.get(2));
+    }
+
+    @Test
+    public void testPersistentCookieStore() throws Exception {
+        File file = File.createTempFile("anhttpclient", ".cookies");
+        file.delete();
+
+        try {
+            PersistentCookieStore cookieStore = new PersistentCookieStore(file);
+            ((DefaultWebBrowser) wb).setCookieStore(cookieStore);
+
+            BasicClientCookie cookie = new BasicClientCookie("SESSION", "1");
+            cookie.setDomain(DefaultHttpServer.DEFAULT_HOST);
+            cookie.setPath("/");
+            cookie.setSecure(true);
+            cookie.setExpiryDate(new Date(System.currentTimeMillis() + 3600000));
+            wb.addCookies(Arrays.<Cookie>asList(cookie));
+
+            BasicClientCookie removedCookie = new BasicClientCookie("REMOVED", "2");
+            removedCookie.setDomain(DefaultHttpServer.DEFAULT_HOST);
+            removedCookie.setPath("/");
+            wb.addCookie(removedCookie);
+
+            BasicClientCookie expiredCookie = new BasicClientCookie("REMOVED", "");
+            expiredCookie.setDomain(DefaultHttpServer.DEFAULT_HOST);
+            expiredCookie.setPath("/");
+            expiredCookie.setExpiryDate(new Date(0));
+            wb.addCookie(expiredCookie);
+            cookieStore.close();
+
+            PersistentCookieStore restoredCookieStore = new PersistentCookieStore(file);
+            assertEquals(1, restoredCookieStore.getCookies().size());
+            Cookie restoredCookie = restoredCookieStore.getCookieByName("SESSION");
+            assertEquals("1", restoredCookie.getValue());
+            assertEquals(DefaultHttpServer.DEFAULT_HOST, restoredCookie.getDomain());
+            assertTrue(restoredCookie.isSecure());
+            assertEquals(cookie.getExpiryDate(), restoredCookie.getExpiryDate());
+            assertNull(restoredCookieStore.getCookieByName("REMOVED"));
+
+            restoredCookieStore.compact();
+            restoredCookieStore.close();
+            assertEquals(1, new PersistentCookieStore(file).getCookies().size());
+
+            //Compaction interrupted after log was moved to backup
+            File tempFile = new File(file.getPath() + ".tmp");
+            File backupFile = new File(file.getPath() + ".bak");
+            FileUtils.copyFile(file, tempFile);
+            assertTrue(file.renameTo(backupFile));
+            assertEquals(1, new PersistentCookieStore(file).getCookies().size());
+            assertFalse(tempFile.exists());
+            assertFalse(backupFile.exists());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testRetryPolicy() throws Exception {
+        final AtomicInteger requestCount = new AtomicInteger(0);
+
+        server.addHandler("/retry", new ByteArrayHandlerAdapter() {
+            public byte[] getResponseAsByteArray(HttpRequestContext httpRequestContext) {
+                if (requestCount.incrementAndGet() % 3 != 0) {
+                    throw new IllegalStateException("Server error");
+                }
+
+                return "OK".getBytes();
+            }
+        });
+
+        RetryPolicy retryPolicy = new RetryPolicy();
+        retryPolicy.getRetryableStatusCodes().add(500);
+        retryPolicy.setBaseDelay(10);
+        retryPolicy.setRetryBudgetBurst(3);
+        ((DefaultWebBrowser) wb).setRetryPolicy(retryPolicy);
+
+        WebResponse response = wb.getResponse(server.getBaseUrl() + "/retry");
+        assertEquals(200, response.getResponseCode());
+        assertEquals(3, requestCount.get());
+
+        //Only one retry is left in the budget
+        response = wb.getResponse(server.getBaseUrl() + "/retry");
+        assertEquals(500, response.getResponseCode());
+        assertEquals(5, requestCount.get());
+    }
+
+    @Test
+    public void testHedgedRequest() throws Exception {
+        final AtomicInteger requestCount = new AtomicInteger(0);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        server.addHandler("/hedged", new ByteArrayHandlerAdapter() {
+            public byte[] getResponseAsByteArray(HttpRequestContext httpRequestContext) {
+                if (requestCount.incrementAndGet() == 1) {
+                    awaitRelease(release);
+                    return "slow".getBytes();
+                }
+
+                return "fast".getBytes();
+            }
+        });
+
+        DefaultWebBrowser threadSafeWebBrowser = new DefaultWebBrowser(true);
+        HedgingPolicy hedgingPolicy = new HedgingPolicy(100);
+        threadSafeWebBrowser.setHedgingPolicy(hedgingPolicy);
+
+        try {
+            long start = System.currentTimeMillis();
+            WebResponse response = threadSafeWebBrowser.getResponse(server.getBaseUrl() + "/hedged");
+            assertEquals("fast", response.getText());
+            assertTrue(System.currentTimeMillis() - start < 5000);
+            assertEquals(2, requestCount.get());
+        } finally {
+            release.countDown();
+            hedgingPolicy.shutdown();
+        }
+    }
+
+    @Test
+    public void testCircuitBreaker() throws Exception {
+        final AtomicInteger requestCount = new AtomicInteger(0);
+        final AtomicInteger failingRequests = new AtomicInteger(2);
+
+        server.addHandler("/circuit", new ByteArrayHandlerAdapter() {
+            public byte[] getResponseAsByteArray(HttpRequestContext httpRequestContext) {
+                requestCount.incrementAndGet();
+                if (failingRequests.getAndDecrement() > 0) {
+                    throw new IllegalStateException("Server error");
+                }
+
+                return "OK".getBytes();
+            }
+        });
+
+        final List<CircuitBreaker.State> states = new ArrayList<CircuitBreaker.State>();
+        CircuitBreaker circuitBreaker = new CircuitBreaker();
+        circuitBreaker.getFailureStatusCodes().add(500);
+        circuitBreaker.setMinimumRequests(2);
+        circuitBreaker.setOpenDuration(200);
+        circuitBreaker.addListener(new CircuitBreaker.Listener() {
+            public void onStateChange(String host, CircuitBreaker.State from, CircuitBreaker.State to) {
+                states.add(to);
+            }
+        });
+        ((DefaultWebBrowser) wb).setCircuitBreaker(circuitBreaker);
+
+        String url = server.getBaseUrl() + "/circuit";
+        assertEquals(500, wb.getResponse(url).getResponseCode());
+        assertEquals(500, wb.getResponse(url).getResponseCode());
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState(DefaultHttpServer.DEFAULT_HOST));
+
+        try {
+            wb.getResponse(url);
+            fail("Request should not be sent while circuit is open");
+        } catch (CircuitBreakerOpenException e) {
+            assertEquals(DefaultHttpServer.DEFAULT_HOST, e.getHost());
+        }
+        assertEquals(2, requestCount.get());
+
+        //Probe request is allowed after open duration
+        final String probeUrl = url;
+        waitFor(new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+                try {
+                    assertEquals(200, wb.getResponse(probeUrl).getResponseCode());
+                    return true;
+                } catch (CircuitBreakerOpenException e) {
+                    return false;
+                }
+            }
+        }, 2000);
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState(DefaultHttpServer.DEFAULT_HOST));
+        assertEquals(Arrays.asList(CircuitBreaker.State.OPEN, CircuitBreaker.State.HALF_OPEN, CircuitBreaker.State.CLOSED), states);
+    }
+
+    @Test
+    public void testRateLimiter() throws Exception {
+        final AtomicInteger requestCount = new AtomicInteger(0);
+
+        server.addHandler("/rateLimited", new ByteArrayHandlerAdapter() {
+            public byte[] getResponseAsByteArray(HttpRequestContext httpRequestContext) {
+                requestCount.incrementAndGet();
+                return "OK".getBytes();
+            }
+        });
+
+        RateLimiter rateLimiter = new RateLimiter();
+        rateLimiter.setLimit(RateLimiter.ANY_HOST, 10, 2);
+        rateLimiter.setLimit("*.example.com", 1, 1);
+        ((DefaultWebBrowser) wb).setRateLimiter(rateLimiter);
+
+        String url = server.getBaseUrl() + "/rateLimited";
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 4; i++) {
+            wb.getResponse(url);
+        }
+
+        //Two requests are sent at once, two others wait 100 ms each
+        assertTrue(System.currentTimeMillis() - start >= 180);
+        assertEquals(4, requestCount.get());
+
+        rateLimiter.setBlocking(false);
+        assertTrue(rateLimiter.tryAcquire("www.example.com"));
+        assertTrue(!rateLimiter.tryAcquire("www.example.com"));
+        //Host names differing by case share limit
+        assertTrue(!rateLimiter.tryAcquire("WWW.Example.com"));
+        assertTrue(rateLimiter.tryAcquire("www.example.org"));
+        assertTrue(rateLimiter.tryAcquire("www.example.org"));
+
+        //New limit starts with full burst
+        rateLimiter.setLimit(RateLimiter.ANY_HOST, 10, 2);
+        wb.getResponse(url);
+        wb.getResponse(url);
+        try {
+            wb.getResponse(url);
+            fail("Rate limit should be exceeded");
+        } catch (RateLimitExceededException e) {
+            assertEquals(DefaultHttpServer.DEFAULT_HOST, e.getHost());
+        }
+    }
+
+    @Test
+    public void testRequestTimeout() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        server.addHandler("/slow", new ByteArrayHandlerAdapter() {
+            public byte[] getResponseAsByteArray(HttpRequestContext httpRequestContext) {
+                awaitRelease(release);
+                return "OK".getBytes();
+            }
+        });
+
+        wb.setSocketTimeout(5000);
+        wb.setRequestTimeout(300);
+
+        long start = System.currentTimeMillis();
+        try {
+            wb.getResponse(server.getBaseUrl() + "/slow");
+            fail("Request should be aborted");
+        } catch (RequestTimeoutException e) {
+            //Handler responds only after release
+            assertTrue(System.currentTimeMillis() - start < 5000);
+        }
+        release.countDown();
+
+        //Request timeout overrides timeout of browser
+        WebRequest req = new HttpGetWebRequest(server.getBaseUrl() + "/slow");
+        req.setRequestTimeout(0);
+        assertEquals("OK", wb.getResponse(req).getText());
+    }
+
+    @Test
+    public void testAbortAll() throws Exception {
+        final CountDownLatch arrived = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        server.addHandler("/slow", new ByteArrayHandlerAdapter() {
+            public byte[] getResponseAsByteArray(HttpRequestContext httpRequestContext) {
+                arrived.countDown();
+                awaitRelease(release);
+                return "OK".getBytes();
+            }
+        });
+
+        final WebBrowser browser = new MultiThreadWebBrowser();
+        browser.setSocketTimeout(5000);
+
+        final AtomicReference<Exception> error = new AtomicReference<Exception>();
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    browser.getResponse(server.getBaseUrl() + "/slow");
+                } catch (Exception e) {
+                    error.set(e);
+                }
+            }
+        });
+        thread.start();
+
+        assertTrue(arrived.await(5, TimeUnit.SECONDS));
+        RequestHandle handle = browser.getActiveRequests().get(0);
+        assertEquals(thread, handle.getThread());
+        assertEquals(RequestMethod.GET, handle.getRequestMethod());
+
+        browser.abortAll(handle.getHost());
+        thread.join(1000);
+        assertTrue(!thread.isAlive());
+        assertTrue(handle.isAborted());
+        assertTrue(error.get() instanceof InterruptedIOException);
+        assertTrue(browser.getActiveRequests().isEmpty());
+        release.countDown();
+    }
+
+    @Test
+    public void testRequestHandle() throws Exception {
+        final CountDownLatch arrived = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        server.addHandler("/slowHandle", new ByteArrayHandlerAdapter() {
+            public byte[] getResponseAsByteArray(HttpRequestContext httpRequestContext) {
+                arrived.countDown();
+                awaitRelease(release);
+                return "OK".getBytes();
+            }
+        });
+
+        final WebBrowser browser = new MultiThreadWebBrowser();
+        browser.setSocketTimeout(5000);
+
+        //Handle of request aborts exactly this request from another thread
+        final WebRequest req = new HttpGetWebRequest(server.getBaseUrl() + "/slowHandle");
+        final AtomicReference<Exception> error = new AtomicReference<Exception>();
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    browser.getResponse(req);
+                } catch (Exception e) {
+                    error.set(e);
+                }
+            }
+        });
+        thread.start();
+
+        assertTrue(arrived.await(5, TimeUnit.SECONDS));
+        RequestHandle handle = req.getHandle();
+        assertEquals(thread, handle.getThread());
+        handle.abort();
+        thread.join(1000);
+        assertTrue(!thread.isAlive());
+        assertTrue(error.get() instanceof InterruptedIOException);
+        assertNull(handle.getThread());
+        release.countDown();
+
+        //Request aborted before it is sent is not sent at all
+        WebRequest aborted = new HttpGetWebRequest(server.getBaseUrl() + "/slowHandle");
+        aborted.getHandle().abort();
+        long start = System.currentTimeMillis();
+        try {
+            browser.getResponse(aborted);
+            fail("Request should be aborted");
+        } catch (InterruptedIOException e) {
+            assertTrue(System.currentTimeMillis() - start < 1000);
+        }
+    }
+
+    @Test
+    public void testConcurrencyLimiter() throws Exception {
+        final CountDownLatch arrived = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        server.addHandler("/slow", new ByteArrayHandlerAdapter() {
+            public byte[] getResponseAsByteArray(HttpRequestContext httpRequestContext) {
+                arrived.countDown();
+                awaitRelease(release);
+                return "OK".getBytes();
+            }
+        });
+
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter();
+        limiter.setInitialLimit(1);
+        limiter.setBlocking(false);
+
+        final DefaultWebBrowser browser = new DefaultWebBrowser(true);
+        browser.setConcurrencyLimiter(limiter);
+
+        final String host = new URI(server.getBaseUrl()).getHost();
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    browser.getResponse(server.getBaseUrl() + "/slow");
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        thread.start();
+
+        assertTrue(arrived.await(5, TimeUnit.SECONDS));
+        assertEquals(1, limiter.getInFlight(host));
+        try {
+            browser.getResponse(server.getBaseUrl() + "/slow");
+            fail("Limit of concurrent requests should be reached");
+        } catch (ConcurrencyLimitExceededException e) {
+            assertEquals(host, e.getHost());
+        }
+
+        release.countDown();
+        thread.join();
+        assertEquals(0, limiter.getInFlight(host));
+
+        //Limit grows by one per round of successful requests
+        assertEquals(2, limiter.getLimit(host));
+
+        //and is decreased multiplicatively when request is dropped
+        limiter.acquire(host);
+        limiter.onDropped(host);
+        assertEquals(1, limiter.getLimit(host));
+
+        //Requests with latency much higher than usual are treated as dropped
+        limiter.setInitialLimit(10);
+        limiter.acquire("example.com");
+        limiter.onSuccess("example.com", 10);
+        assertEquals(10, limiter.getLimit("example.com"));
+        limiter.acquire("example.com");
+        limiter.onSuccess("example.com", 100);
+        assertEquals(9, limiter.getLimit("example.com"));
+    }
+
+    @Test
+    public void testEndpointGroup() throws Exception {
+        server.addHandler("/host", new ByteArrayHandlerAdapter() {
+            public byte[] getResponseAsByteArray(HttpRequestContext httpRequestContext) {
+                return httpRequestContext.getRequestHeaders().get("Host").get(0).getBytes();
+            }
+        });
+        server.addHandler("/endpointCookie", new ByteArrayHandlerAdapter() {
+            public byte[] getResponseAsByteArray(HttpRequestContext httpRequestContext) {
+                List<String> cookies = httpRequestContext.getRequestHeaders().get("Cookie");
+                if (cookies == null) {
+                    setResponseHeader("Set-Cookie", "ENDPOINT=1; path=/", httpRequestContext);
+                    return "".getBytes();
+                }
+
+                return cookies.get(0).getBytes();
+            }
+        });
+
+        EndpointGroup group = new EndpointGroup("backend", "http://127.0.0.1:1", server.getBaseUrl());
+        group.setConsecutiveFailures(1);
+        EndpointGroup.Endpoint dead = group.getEndpoints().get(0);
+        EndpointGroup.Endpoint live = group.getEndpoints().get(1);
+
+        DefaultWebBrowser browser = new DefaultWebBrowser();
+        browser.addEndpointGroup(group);
+
+        //Make dead endpoint to be selected first
+        assertEquals(live, group.select(Collections.singleton(dead)));
+
+        //Request to logical host is retried on other endpoint and logical host is sent
+        assertEquals("backend", browser.getResponse("http://backend/host").getText());
+        group.onIgnored(live);
+        assertTrue(dead.isEjected());
+        assertTrue(!live.isEjected());
+        assertEquals(0, dead.getOutstanding());
+        assertEquals(0, live.getOutstanding());
+
+        //Cookies and url of response belong to logical host
+        WebResponse response = browser.getResponse("http://backend/endpointCookie");
+        assertEquals("http://backend/endpointCookie", response.getUrl().toString());
+        assertEquals("backend", browser.getCookieByName("ENDPOINT").getDomain());
+        assertEquals("ENDPOINT=1", browser.getResponse("http://backend/endpointCookie").getText());
+
+        //Ejected endpoint is not selected
+        group.setPreserveHost(false);
+        for (int i = 0; i < 5; i++) {
+            String host = browser.getResponse("http://backend/host").getText();
+            assertEquals(new URI(server.getBaseUrl()).getAuthority(), host);
+        }
+
+        //Requests rejected by policies of browser do not eject endpoint
+        RateLimiter rateLimiter = new RateLimiter();
+        rateLimiter.setLimit("*", 0.1, 1);
+        rateLimiter.setBlocking(false);
+        assertTrue(rateLimiter.tryAcquire(dead.getTarget().getHostName()));
+        browser.setRateLimiter(rateLimiter);
+        browser.getResponse("http://backend/host");
+        try {
+            browser.getResponse("http://backend/host");
+            fail("Rate limit should be exceeded");
+        } catch (RateLimitExceededException e) {
+            assertTrue(!live.isEjected());
+        }
+    }
+
+    @Test
+    public void testRequestScheduler() throws Exception {
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch release = new CountDownLatch(1);
+        server.addHandler("/slow", new ByteArrayHandlerAdapter() {
+            public byte[] getResponseAsByteArray(HttpRequestContext httpRequestContext) {
+                awaitRelease(release);
+                return "OK".getBytes();
+            }
+        });
+        server.addHandler("/order", new ByteArrayHandlerAdapter() {
+            public byte[] getResponseAsByteArray(HttpRequestContext httpRequestContext) {
+                order.add(httpRequestContext.getRequestURI().getQuery());
+                return "OK".getBytes();
+            }
+        });
+
+        final RequestScheduler scheduler = new RequestScheduler(1);
+        scheduler.setAgingInterval(Long.MAX_VALUE);
+        final MultiThreadWebBrowser browser = new MultiThreadWebBrowser();
+        browser.setRequestScheduler(scheduler);
+
+        List<Thread> threads = new ArrayList<Thread>();
+        String[] urls = {"/slow", "/order?low", "/order?high"};
+        int[] priorities = {0, -1, 10};
+        for (int i = 0; i < urls.length; i++) {
+            final WebRequest req = new HttpGetWebRequest(server.getBaseUrl() + urls[i]);
+            req.setPriority(priorities[i]);
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        browser.getResponse(req);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+
+            //wait until request is being sent or queued
+            final int requests = i + 1;
+            waitFor(new Callable<Boolean>() {
+                public Boolean call() {
+                    return scheduler.getRunning() + scheduler.getWaiting() >= requests;
+                }
+            }, 1000);
+        }
+
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        //Request with higher priority is sent first
+        assertEquals(Arrays.asList("high", "low"), order);
+        assertEquals(0, scheduler.getRunning());
+    }
+
+    @Test
+    public void testWarmUp() throws Exception {
+        server.addHandler("/warm", new ByteArrayHandlerAdapter() {
+            public byte[] getResponseAsByteArray(HttpRequestContext httpRequestContext) {
+                return "OK".getBytes();
+            }
+        });
+        final CountDownLatch arrived = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        server.addHandler("/warmSlow", new ByteArrayHandlerAdapter() {
+            public byte[] getResponseAsByteArray(HttpRequestContext httpRequestContext) {
+                arrived.countDown();
+                awaitRelease(release);
+                return "OK".getBytes();
+            }
+        });
+
+        DefaultWebBrowser browser = new DefaultWebBrowser(true);
+        browser.setMaxConnectionsPerHost(5);
+
+        assertEquals(3, browser.warmUp(Arrays.asList(server.getBaseUrl()), 3));
+        assertEquals(3, browser.getConnectionsInPool(server.getBaseUrl()));
+
+        //Pooled connections are counted
+        assertEquals(1, browser.warmUp(Arrays.asList(server.getBaseUrl()), 4));
+
+        //and reused by requests
+        assertEquals("OK", browser.getResponse(server.getBaseUrl() + "/warm").getText());
+        assertEquals(4, browser.getConnectionsInPool(server.getBaseUrl()));
+
+        //Number of pooled connections is maintained in background
+        browser.setConnectionMaintenanceInterval(50);
+        browser.setMinIdleConnectionsPerHost(5);
+        final DefaultWebBrowser maintainedBrowser = browser;
+        waitFor(new Callable<Boolean>() {
+            public Boolean call() {
+                return maintainedBrowser.getConnectionsInPool(server.getBaseUrl()) >= 5;
+            }
+        }, 2000);
+        browser.setMinIdleConnectionsPerHost(0);
+
+        //Connections used by requests are not counted as idle
+        browser.setMaxConnectionsPerHost(6);
+        final AtomicReference<Exception> error = new AtomicReference<Exception>();
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    maintainedBrowser.getResponse(server.getBaseUrl() + "/warmSlow");
+                } catch (Exception e) {
+                    error.set(e);
+                }
+            }
+        });
+        thread.start();
+        assertTrue(arrived.await(5, TimeUnit.SECONDS));
+        assertEquals(1, browser.warmUp(Arrays.asList(server.getBaseUrl()), 5));
+        assertEquals(6, browser.getConnectionsInPool(server.getBaseUrl()));
+
+        //and are not waited for when pool is full
+        assertEquals(0, browser.warmUp(Arrays.asList(server.getBaseUrl()), 6));
+        release.countDown();
+        thread.join(5000);
+        assertNull(error.get());
+    }
+
+    @Test
+    public void testDnsResolver() throws Exception {
+        server.addHandler("/dns", new ByteArrayHandlerAdapter() {
+            public byte[] getResponseAsByteArray(HttpRequestContext httpRequestContext) {
+                return "OK".getBytes();
+            }
+        });
+
+        final StaticDnsResolver hosts = new StaticDnsResolver();
+        hosts.addHost("backend.test", "127.0.0.1");
+        final AtomicInteger lookups = new AtomicInteger();
+        CachingDnsResolver resolver = new CachingDnsResolver(new DnsResolver() {
+            public InetAddress[] resolve(String host) throws UnknownHostException {
+                lookups.incrementAndGet();
+                return hosts.resolve(host);
+            }
+        });
+
+        //Pinned host is resolved by resolver of browser
+        DefaultWebBrowser browser = new DefaultWebBrowser();
+        browser.setDnsResolver(resolver);
+        int port = new URI(server.getBaseUrl()).getPort();
+        assertEquals("OK", browser.getResponse("http://backend.test:" + port + "/dns").getText());
+        assertEquals(1, lookups.get());
+
+        //Resolved addresses are cached
+        assertEquals("127.0.0.1", resolver.resolve("backend.test")[0].getHostAddress());
+        assertEquals(1, lookups.get());
+
+        //Stale addresses are used if host can't be resolved after expiration
+        resolver.setTtl("backend.test", 0);
+        resolver.invalidate("backend.test");
+        resolver.resolve("backend.test");
+        hosts.removeHost("backend.test");
+        assertEquals("127.0.0.1", resolver.resolve("backend.test")[0].getHostAddress());
+        assertEquals(3, lookups.get());
+
+        //Failed resolutions are cached too
+        for (int i = 0; i < 2; i++) {
+            try {
+                resolver.resolve("unknown.test");
+                fail("Host should not be resolved");
+            } catch (UnknownHostException e) {
+                assertEquals(4, lookups.get());
+            }
+        }
+    }
+
+    @Test
+    public void testTlsContext() throws Exception {
+        //All browsers share default TLS context and so its session cache
+        DefaultWebBrowser first = new DefaultWebBrowser();
+        DefaultWebBrowser second = new DefaultWebBrowser();
+        assertSame(TlsContext.getDefault(), first.getTlsContext());
+        assertSame(first.getTlsContext(), second.getTlsContext());
+
+        TlsContext tlsContext = new TlsContext();
+        tlsContext.setSessionCacheSize(100);
+        tlsContext.setSessionTimeout(300);
+        assertEquals(100, tlsContext.getSessionCacheSize());
+        assertEquals(300, tlsContext.getSessionTimeout());
+        assertEquals(0, tlsContext.getFullHandshakes());
+        assertEquals(0, tlsContext.getResumedHandshakes());
+
+        //Custom context is propagated to browsers of all threads
+        MultiThreadWebBrowser multiThreadWebBrowser = new MultiThreadWebBrowser();
+        multiThreadWebBrowser.setTlsContext(tlsContext);
+        assertSame(tlsContext, multiThreadWebBrowser.getTlsContext());
+
+        first.setTlsContext(tlsContext);
+        assertSame(tlsContext, first.getTlsContext());
+        first.setTlsContext(null);
+        assertSame(TlsContext.getDefault(), first.getTlsContext());
+
+        //Name of target host is sent in SNI even if resolved address has no name
+        final ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        final AtomicReference<String> clientHello = new AtomicReference<String>();
+        Thread tlsServer = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    Socket socket = serverSocket.accept();
+                    try {
+                        DataInputStream in = new DataInputStream(socket.getInputStream());
+                        byte[] header = new byte[5];
+                        in.readFully(header);
+                        byte[] record = new byte[((header[3] & 0xFF) << 8) | (header[4] & 0xFF)];
+                        in.readFully(record);
+                        clientHello.set(new String(record, "ISO-8859-1"));
+                    } finally {
+                        socket.close();
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        tlsServer.start();
+
+        first.setDnsResolver(new DnsResolver() {
+            public InetAddress[] resolve(String host) throws UnknownHostException {
+                return new InetAddress[] {InetAddress.getByAddress(new byte[] {127, 0, 0, 1})};
+            }
+        });
+        try {
+            first.getResponse("https://secure.test:" + serverSocket.getLocalPort() + "/");
+            fail("Handshake should fail");
+        } catch (IOException e) {
+            //expected
+        } finally {
+            tlsServer.join(5000);
+            serverSocket.close();
+        }
+
+        assertTrue(clientHello.get().contains("secure.test"));
+    }
+
+    @Test
+    public void testSocketOptions() throws Exception {
+        server.addHandler("/socket", new ByteArrayHandlerAdapter() {
+            public byte[] getResponseAsByteArray(HttpRequestContext httpRequestContext) {
+                return "OK".getBytes();
+            }
+        });
+
+        final List<String> hosts = new CopyOnWriteArrayList<String>();
+        SocketOptionsProfile profile = new SocketOptionsProfile() {
+            @Override
+            public SocketOptions getOptions(String host) {
+                hosts.add(host);
+                return super.getOptions(host);
+            }
+        };
+
+        SocketOptions bulk = new SocketOptions();
+        bulk.setReceiveBufferSize(256 * 1024);
+        bulk.setKeepAlive(true);
+        profile.setDefaultOptions(bulk);
+
+        String host = new URI(server.getBaseUrl()).getHost();
+        SocketOptions rpc = new SocketOptions();
+        rpc.setTcpNoDelay(true);
+        rpc.setLinger(-1);
+        profile.setHostOptions(host.toUpperCase(), rpc);
+
+        //Options of host override default ones
+        SocketOptions options = profile.getOptions(host);
+        assertEquals(Integer.valueOf(256 * 1024), options.getReceiveBufferSize());
+        assertEquals(Boolean.TRUE, options.getKeepAlive());
+        assertEquals(Boolean.TRUE, options.getTcpNoDelay());
+        assertEquals(Integer.valueOf(-1), options.getLinger());
+        assertNull(profile.getOptions("other.test").getTcpNoDelay());
+        hosts.clear();
+
+        //Options are applied to new connections
+        DefaultWebBrowser browser = new DefaultWebBrowser();
+        browser.setSocketOptionsProfile(profile);
+        assertEquals("OK", browser.getResponse(server.getBaseUrl() + "/socket").getText());
+        assertEquals(Arrays.asList(host), hosts);
+
+        profile.setHostOptions(host, null);
+        assertNull(profile.getOptions(host).getTcpNoDelay());
+    }
+
+    @Test
+    public void testUnixSocketRoutes() throws Exception {
+        if (!UnixSocketRoutes.isSupported()) {
+            //Unix domain sockets require Java 16
+            return;
+        }
+
+        //Sidecar which answers with path and host of request over unix domain socket
+        File socketFile = new File(System.getProperty("java.io.tmpdir"), "anhttpclient-" + System.nanoTime() + ".sock");
+        Object unixFamily = Class.forName("java.net.StandardProtocolFamily").getField("UNIX").get(null);
+        final ServerSocketChannel serverChannel = (ServerSocketChannel) ServerSocketChannel.class
+                .getMethod("open", Class.forName("java.net.ProtocolFamily")).invoke(null, unixFamily);
+        Object address = Class.forName("java.net.UnixDomainSocketAddress")
+                .getMethod("of", String.class).invoke(null, socketFile.getPath());
+        ServerSocketChannel.class.getMethod("bind", SocketAddress.class).invoke(serverChannel, address);
+
+        final AtomicInteger connections = new AtomicInteger();
+        Thread sidecar = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    while (true) {
+                        SocketChannel channel = serverChannel.accept();
+                        connections.incrementAndGet();
+                        InputStream in = Channels.newInputStream(channel);
+                        OutputStream out = Channels.newOutputStream(channel);
+                        StringBuilder head = new StringBuilder();
+                        int b;
+                        while ((b = in.read()) != -1) {
+                            head.append((char) b);
+                            if (head.toString().endsWith("\r\n\r\n")) {
+                                String path = head.substring(head.indexOf(" ") + 1, head.indexOf(" HTTP/"));
+                                String host = head.substring(head.indexOf("Host: ") + 6, head.indexOf("\r\n", head.indexOf("Host: ")));
+                                byte[] body = (host + path).getBytes();
+                                out.write(("HTTP/1.1 200 OK\r\nContent-Length: " + body.length + "\r\n\r\n").getBytes());
+                                out.write(body);
+                                out.flush();
+                                head.setLength(0);
+                            }
+                        }
+                        channel.close();
+                    }
+                } catch (IOException e) {
+                    //Sidecar is stopped
+                }
+            }
+        });
+        sidecar.setDaemon(true);
+        sidecar.start();
+
+        try {
+            UnixSocketRoutes routes = new UnixSocketRoutes();
+            routes.setHostPath("sidecar.test", socketFile.getPath());
+            DefaultWebBrowser browser = new DefaultWebBrowser();
+            browser.setUnixSocketRoutes(routes);
+
+            //Host is not resolved, requests are sent over one connection to unix domain socket
+            assertEquals("sidecar.test/a", browser.getResponse("http://sidecar.test/a").getText());
+            assertEquals("sidecar.test/b?c=d", browser.getResponse("http://sidecar.test/b?c=d").getText());
+            assertEquals(1, connections.get());
+
+            //Other hosts are connected over TCP
+            server.addHandler("/tcp", new ByteArrayHandlerAdapter() {
+                public byte[] getResponseAsByteArray(HttpRequestContext httpRequestContext) {
+                    return "OK".getBytes();
+                }
+            });
+            assertEquals("OK", browser.getResponse(server.getBaseUrl() + "/tcp").getText());
+        } finally {
+            serverChannel.close();
+            socketFile.delete();
+        }
+    }
+
     @Test
     public void testCookies() throws Exception {
 